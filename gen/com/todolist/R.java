@@ -37,12 +37,15 @@ public final class R {
     }
     public static final class id {
         public static final int action_archive_list=0x7f09001e;
+        public static final int action_archive_selected=0x7f090021;
+        public static final int action_delete_selected=0x7f090022;
         public static final int action_email=0x7f09001c;
         public static final int action_new_todo=0x7f09001f;
         public static final int action_todo_list=0x7f09001d;
         public static final int edit_checkbox=0x7f090009;
         public static final int email_cancel_button=0x7f090005;
         public static final int email_email_text=0x7f090002;
+        public static final int email_format=0x7f090024;
         public static final int email_header_text=0x7f090000;
         public static final int email_include_archived=0x7f090003;
         public static final int email_okay_button=0x7f090004;
@@ -66,7 +69,9 @@ public final class R {
         public static final int new_item_title_label=0x7f09000c;
         public static final int new_item_title_text=0x7f09000d;
         public static final int pager=0x7f090006;
+        public static final int search_box=0x7f090020;
         public static final int section_label=0x7f090007;
+        public static final int sort_spinner=0x7f090023;
         public static final int textView1=0x7f090001;
     }
     public static final class layout {
@@ -78,6 +83,7 @@ public final class R {
     }
     public static final class menu {
         public static final int main=0x7f080000;
+        public static final int todo_list_selection=0x7f080001;
     }
     public static final class string {
         public static final int action_email=0x7f060004;
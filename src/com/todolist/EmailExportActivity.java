@@ -1,5 +1,8 @@
 package com.todolist;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.os.Bundle;
 import android.app.Activity;
 import android.content.Intent;
@@ -7,9 +10,11 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.Toast;
 import android.support.v4.app.NavUtils;
 
@@ -19,6 +24,8 @@ import android.support.v4.app.NavUtils;
  * For now the only setting is "include archived" which is off by
  * default, as the user likely wants only the active todos when
  * getting a snapshot of the todo list with export.
+ * The user can also pick which TodoListExportFormat the todos
+ * are written in, such as CSV for loading into a spreadsheet.
  */
 public class EmailExportActivity extends Activity {
 
@@ -29,6 +36,18 @@ public class EmailExportActivity extends Activity {
 		// Create the main UI
 		setContentView(R.layout.activity_email_export);
 		
+		// Offer the export formats, by name
+		final List<TodoListExportFormat> formats = TodoListExportFormats.getFormats();
+		List<String> formatNames = new ArrayList<String>();
+		for (TodoListExportFormat format: formats) {
+			formatNames.add(format.getName());
+		}
+		ArrayAdapter<String> formatAdapter = new ArrayAdapter<String>(this,
+				android.R.layout.simple_spinner_item, formatNames);
+		formatAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+		final Spinner formatSpinner = (Spinner)findViewById(R.id.email_format);
+		formatSpinner.setAdapter(formatAdapter);
+		
 		// Set up the events
 		Button okayButton = (Button)findViewById(R.id.email_okay_button);
 		Button cancelButton = (Button)findViewById(R.id.email_cancel_button);
@@ -37,7 +56,8 @@ public class EmailExportActivity extends Activity {
 				// Get the stuff
 				CheckBox includeArchived = (CheckBox)findViewById(R.id.email_include_archived);
 				EditText emailInput = (EditText)findViewById(R.id.email_email_text);
-				trySendEmail(emailInput.getText().toString(), includeArchived.isChecked());
+				TodoListExportFormat format = formats.get(formatSpinner.getSelectedItemPosition());
+				trySendEmail(emailInput.getText().toString(), includeArchived.isChecked(), format);
 			}
 		});
 		cancelButton.setOnClickListener(new OnClickListener() {
@@ -49,27 +69,30 @@ public class EmailExportActivity extends Activity {
 	}
 	
 	// Try to generate and send an email to the given address
-	private void trySendEmail(String emailTo, final boolean includeArchived) {
+	private void trySendEmail(String emailTo, final boolean includeArchived, TodoListExportFormat format) {
 		// Basic check for a valid email address
 		if (emailTo.matches("\\s*") || !emailTo.contains("@")) {
 			Toast.makeText(this, "Invalid Email Address", Toast.LENGTH_SHORT).show();
 			return;
 		}
 		
-		// Try to open the todo data
-		TodoItemDataStore dataStore = new TodoItemDataStore(this, TodoItemDataStore.DEFAULT_SAVE_FILE);
-        TodoItemManager itemManager = new TodoItemManager(dataStore);
+		// Get the todo data, which the shared item manager will already have
+		// loaded unless it has changed.
+        TodoItemManager itemManager = TodoApplication.getTodoItemManager(this);
         itemManager.loadTodoItemList();
+        TodoApplication.logFullLoads(this, "EmailExportActivity");
         
         // Check if there is anything to send
         if (itemManager.getTodoItemList().size() == 0) {
         	Toast.makeText(this, "No Todos to send", Toast.LENGTH_SHORT).show();
+        	return;
         }
         
         // Generate an email body
         String emailBody = 
         	new TodoListEmailBuilder()
         		.setSource(itemManager.getTodoItemList())
+        		.setFormat(format)
         		.setFilter(new TodoListEmailBuilder.TodoItemFilter() {
 					public boolean pass(TodoItem item) {
 						return !item.isArchived() || includeArchived;
@@ -29,11 +29,11 @@ public class MainActivity extends FragmentActivity {
     SectionsPagerAdapter mSectionsPagerAdapter;
     ViewPager mViewPager;
     
-    // The storage of our todo items
-    TodoItemDataStore mDataStore;
-    
-    // The main model object for our todo data
+    // The main model object for our todo data, shared with the other activities
     TodoItemManager mItemManager;
+    
+    // Listener on the item manager for failed loads
+    IOFailedListener mLoadFailedListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -43,8 +43,7 @@ public class MainActivity extends FragmentActivity {
         setTitle("Todo!");
         
         // Set up our state
-        mDataStore = new TodoItemDataStore(this, TodoItemDataStore.DEFAULT_SAVE_FILE);
-        mItemManager = new TodoItemManager(mDataStore);
+        mItemManager = TodoApplication.getTodoItemManager(this);
         
         // Create the main UI
         setContentView(R.layout.activity_main);
@@ -57,37 +56,43 @@ public class MainActivity extends FragmentActivity {
         mViewPager.setAdapter(mSectionsPagerAdapter);
         
         // Set up a simple toast to monitor when a data store load fails
-        mItemManager.addLoadFailedListener(new IOFailedListener() {
+        mLoadFailedListener = new IOFailedListener() {
 			public void onIOFailed() {
 				Toast.makeText(MainActivity.this, "Failed to load Todos", Toast.LENGTH_SHORT).show();
 			}
-		});
+		};
+        mItemManager.addLoadFailedListener(mLoadFailedListener);
     }
     
-    
     @Override
-    protected void onStart() {
-    	super.onStart();
-    	
-    	// When started, load in the data
-    	mItemManager.loadTodoItemList();
+    protected void onDestroy() {
+    	// The item manager outlives us, so stop listening to it, and stop
+    	// loading for us if it still is
+    	mItemManager.removeLoadFailedListener(mLoadFailedListener);
+    	mItemManager.cancelLoadTodoItemList();
+    	super.onDestroy();
     }
     
     @Override
     protected void onResume() {
     	super.onResume();
     	
-    	// When resumed, reload the data, as we may
-    	// have been in another activity that made our copy dirty
-    	mItemManager.loadTodoItemList();
+    	// When resumed, make sure that the data is loaded. This is only
+    	// an actual load the first time, or if the saved data has changed
+    	// some other way than through the shared item manager. The items
+    	// are streamed in, so that the first of them show up right away.
+    	mItemManager.startLoadTodoItemList();
+    	TodoApplication.logFullLoads(this, "MainActivity");
     }
     
     @Override
     protected void onPause() {
     	super.onPause();
     	
-    	// When paused, save out the current data
+    	// When paused, save out the current data, and make sure that
+    	// it has all been written before anything else can read it.
     	mItemManager.saveTodoItemList();
+    	mItemManager.flush();
     }
 
     @Override
@@ -142,19 +147,13 @@ public class MainActivity extends FragmentActivity {
         @Override
         public Fragment getItem(int position) {
         	if (position == 0) {
-	            return new TodoListFragment(getPageTitle(position).toString(), mItemManager, new TodoListFragment.TodoListFilter() {
-	            	// Filter for the main page list, the non-archived items.
-					public boolean filter(TodoItem item) {
-						return !item.isArchived(); // true --> show item
-					}
-				});
+	            // Filter for the main page list, the non-archived items.
+	            return new TodoListFragment(getPageTitle(position).toString(), mItemManager,
+	            		new TodoItemFilteredList.FlagFilter(false, null));
         	} else if (position == 1) {
-	            return new TodoListFragment(getPageTitle(position).toString(), mItemManager, new TodoListFragment.TodoListFilter() {
-	            	// Filter for the archive page list, the archived items.
-					public boolean filter(TodoItem item) {
-						return item.isArchived(); // true --> show item
-					}
-				});
+	            // Filter for the archive page list, the archived items.
+	            return new TodoListFragment(getPageTitle(position).toString(), mItemManager,
+	            		new TodoItemFilteredList.FlagFilter(true, null));
         	} else {
         		throw new InvalidParameterException("Position: " + position);
         	}
@@ -21,10 +21,7 @@ public class NewOrEditTodoItemActivity extends FragmentActivity {
 	private final static int MODE_EDIT = 0;
 	private final static int MODE_NEW = 1;
    
-    // The storage of our todo items
-    private TodoItemDataStore mDataStore;
-    
-    // The main model object for our todo data
+    // The main model object for our todo data, shared with the other activities
     private TodoItemManager mItemManager;
     
     // Our current mode
@@ -39,13 +36,18 @@ public class NewOrEditTodoItemActivity extends FragmentActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-        // Load in the TodoItem data set.
-        mDataStore = new TodoItemDataStore(this, TodoItemDataStore.DEFAULT_SAVE_FILE);
-        mItemManager = new TodoItemManager(mDataStore);
-        mItemManager.loadTodoItemList();
-        
         // Get the thing to do
         int itemId = getIntent().getIntExtra(EXTRA_ITEMID, ITEMID_NEWITEM);
+        
+        // Make sure that the TodoItem that we are editing is loaded. Usually
+        // the shared item manager already has the whole list, in which case
+        // this does nothing, otherwise just the one item is loaded in. In new
+        // mode there is no item to load, but this still lets the manager give
+        // the new item an unused ID.
+        mItemManager = TodoApplication.getTodoItemManager(this);
+        mItemManager.loadTodoItem(itemId);
+        TodoApplication.logFullLoads(this, "NewOrEditTodoItemActivity");
+        
         if (itemId == ITEMID_NEWITEM) {
         	mMode = MODE_NEW;
         	mEditItem = new TodoItem();
@@ -100,8 +102,7 @@ public class NewOrEditTodoItemActivity extends FragmentActivity {
 					mItemManager.addTodoItem(mEditItem);
 				}
 				
-				// Mark the edited item as dirty and save out the changes
-				mItemManager.markTodoItemDirty(mEditItem);
+				// Save out the changes
 				mItemManager.saveTodoItemList();
 				
 				// Then finish the activity
@@ -117,7 +118,6 @@ public class NewOrEditTodoItemActivity extends FragmentActivity {
 				
 				// If we are in edit mode, save
 				if (mMode == MODE_EDIT) {
-					mItemManager.markTodoItemDirty(mEditItem);
 					mItemManager.saveTodoItemList();
 				}
 			}
@@ -161,6 +161,10 @@ public class NewOrEditTodoItemActivity extends FragmentActivity {
     	} else {
     		// In new item mode, we don't commit the new item
     	}
+    	
+    	// Make sure that our saves have all been written before the
+    	// activity we are returning to reads them.
+    	mItemManager.flush();
     }
     
     @Override
@@ -172,10 +176,18 @@ public class NewOrEditTodoItemActivity extends FragmentActivity {
     /*
      * Read in the user's current values for the Todo Item, and
      * write them into the TodoItem that we are working with.
+     * In edit mode the item is only marked dirty if they differ
+     * from what it already has. In new mode the item isn't in the
+     * manager yet, adding it will take care of that.
      */
     private void commitChangesToItem() {
-    	mEditItem.setTitle(mTodoTitle.getText().toString());
-    	mEditItem.setBody(mTodoBody.getText().toString());
-    	mItemManager.markTodoItemDirty(mEditItem);
+    	String title = mTodoTitle.getText().toString();
+    	String body = mTodoBody.getText().toString();
+    	if (mMode == MODE_EDIT) {
+    		mItemManager.setTodoItemContent(mEditItem, title, body);
+    	} else {
+    		mEditItem.setTitle(title);
+    		mEditItem.setBody(body);
+    	}
     }
 }
@@ -0,0 +1,79 @@
+package com.todolist;
+
+import java.io.IOException;
+
+import android.app.Application;
+import android.content.Context;
+import android.util.Log;
+
+/*
+ * The application. Holds the single TodoItemManager that all of the
+ * activities share, so that moving between them does not mean building
+ * a new manager and reading the whole save file again each time.
+ */
+public class TodoApplication extends Application {
+	// Whether to keep the todo items in an SQLite database, rather than in
+	// the save file. The items in the save file are moved over to the
+	// database the first time that it is used.
+	private static final boolean USE_SQLITE_DATA_STORE = false;
+	
+	// The shared model object for our todo data, created when first needed
+	private TodoItemManager mItemManager;
+
+	// The full load count at the time of the last logFullLoads call
+	private int mLastFullLoadCount = 0;
+
+	/*
+	 * Get the TodoItemManager shared by the whole application. Must be
+	 * called from the UI thread.
+	 */
+	public TodoItemManager getTodoItemManager() {
+		if (mItemManager == null) {
+			// Use the application context, since the manager outlives
+			// any one activity.
+			mItemManager = new TodoItemManager(createDataStore());
+			mItemManager.enableWriteBehind(TodoItemManager.DEFAULT_WRITE_BEHIND_DELAY);
+			mItemManager.enableFrameDispatch(TodoItemManager.DEFAULT_FRAME_DELAY);
+		}
+		return mItemManager;
+	}
+
+	// Make the data store for the manager to use
+	private TodoItemDataStore createDataStore() {
+		TodoItemFileDataStore fileDataStore = new TodoItemFileDataStore(this, TodoItemDataStore.DEFAULT_SAVE_FILE);
+		if (!USE_SQLITE_DATA_STORE) {
+			return fileDataStore;
+		}
+		TodoItemSQLiteDataStore sqliteDataStore = 
+				new TodoItemSQLiteDataStore(this, TodoItemSQLiteDataStore.DEFAULT_DATABASE);
+		try {
+			sqliteDataStore.migrateFrom(fileDataStore);
+		} catch (IOException ex) {
+			// Carry on with the save file, rather than without the items in it,
+			// and try again next time.
+			Log.w("test", "Migrating Todo Items into the database failed: " + ex.getMessage());
+			return fileDataStore;
+		}
+		return sqliteDataStore;
+	}
+	
+	/*
+	 * Get the shared TodoItemManager from any context in the application.
+	 */
+	public static TodoItemManager getTodoItemManager(Context ctx) {
+		return ((TodoApplication)ctx.getApplicationContext()).getTodoItemManager();
+	}
+
+	/*
+	 * Log how many full loads of the todo list there have been since the
+	 * last call, for measuring how many loads each navigation causes.
+	 * @param navigation A description of where we just navigated to.
+	 */
+	public static void logFullLoads(Context ctx, String navigation) {
+		TodoApplication app = (TodoApplication)ctx.getApplicationContext();
+		int count = TodoItemManager.getFullLoadCount();
+		Log.i("test", "Full loads for " + navigation + ": " + (count - app.mLastFullLoadCount) +
+				" (" + count + " total)");
+		app.mLastFullLoadCount = count;
+	}
+}
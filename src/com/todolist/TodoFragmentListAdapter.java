@@ -1,13 +1,18 @@
 package com.todolist;
 
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.content.Context;
+import android.content.res.ColorStateList;
+import android.util.LruCache;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
@@ -15,22 +20,215 @@ import android.widget.ImageButton;
 import android.widget.ListView;
 import android.widget.TextView;
 
-public class TodoFragmentListAdapter extends ArrayAdapter<TodoItem> {
+/*
+ * Adapter showing the TodoItems of a TodoListFragment in it's ListView.
+ * The items are read from a DataSource a page at a time, as the rows
+ * showing them are needed, and only the pages near the shown rows are
+ * kept, so that the adapter's memory use and the work to update it
+ * depend on how many rows are on screen, rather than on how many items
+ * there are.
+ */
+public class TodoFragmentListAdapter extends BaseAdapter {
+	// How many items are read from the DataSource at a time
+	private static final int PAGE_SIZE = 20;
+	
+	// How many pages either side of the page of a shown row to keep
+	private static final int PAGES_KEPT = 2;
+	
+	// How far from the shown rows to look for where they moved to when
+	// diffing the items
+	private static final int DIFF_MARGIN = PAGE_SIZE * PAGES_KEPT;
+	
+	// Single background thread used to diff the items
+	private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+	
+	/*
+	 * Where the adapter reads the items to show from.
+	 */
+	public interface DataSource {
+		/*
+		 * Get the number of items.
+		 */
+		public int getCount();
+		
+		/*
+		 * Get the item at a position.
+		 */
+		public TodoItem getItem(int position);
+		
+		/*
+		 * The items at positions [low, high) are about to be shown, get
+		 * their data ready.
+		 * @param onReady Run on the main thread once data which wasn't
+		 *                ready to show is.
+		 */
+		public void prefetch(int low, int high, Runnable onReady);
+	}
+	
+	/*
+	 * The parts of a row's view that get set for each item, found once
+	 * when the view is made, and what was last shown in them.
+	 */
+	private static class ViewHolder {
+		CheckBox mDoneCheckbox;
+		TextView mEntryTitle;
+		TextView mEntryBody;
+		ViewGroup mEditControlSet;
+		ColorStateList mTitleColors; // For non-archived items
+		
+		TodoItem mItem;
+		int mVersion;
+		boolean mIsEditMode;
+		boolean mHasBody; // False while the body is still being loaded
+	}
+	
+	/*
+	 * The strings shown for a version of an item.
+	 */
+	private static class DisplayData {
+		TodoItem mItem;
+		int mVersion;
+		String mTitle;
+		String mBody; // Null until the body has been loaded
+	}
+	
+	/*
+	 * A keyed diff of the shown rows' items against the items now near
+	 * their positions in the source, matching them up by their stable IDs.
+	 * The IDs are read on the UI thread, since the source may only be read
+	 * there, and then diffed in the background.
+	 */
+	private static class ItemsDiff {
+		// The positions of the shown rows, their items' IDs and the tops of
+		// their views, and the count of items that the ListView has
+		int mFirst;
+		int[] mOldIds;
+		int[] mOldTops;
+		int mOldCount;
+		
+		// The IDs of the items now at positions [mNewLow, mNewLow + length)
+		// of the source, and the count of items now in it
+		int mNewLow;
+		int[] mNewIds;
+		int mNewCount;
+		
+		// The first shown row whose item is still near, and the position
+		// that its item is now at, or -1 if none of them are
+		int mAnchorRow = -1;
+		int mAnchorPosition;
+		
+		/*
+		 * Whether the rows keep the same positions, so that only the rows
+		 * whose items were changed, inserted, removed, or moved need to be
+		 * bound again, rather than the ListView laying out its rows again.
+		 */
+		boolean isInPlace() {
+			return mNewCount == mOldCount && (mAnchorRow < 0 || mAnchorPosition == mFirst + mAnchorRow);
+		}
+		
+		/*
+		 * Find where the first of the shown rows' items which is still near
+		 * moved to. Only reads the IDs, so it may be run on any thread.
+		 */
+		void compute() {
+			TodoItemIdMap newPositions = new TodoItemIdMap();
+			for (int i = 0; i < mNewIds.length; ++i) {
+				newPositions.put(mNewIds[i], mNewLow + i);
+			}
+			for (int row = 0; row < mOldIds.length; ++row) {
+				int position = newPositions.get(mOldIds[row]);
+				if (position != TodoItemIdMap.NO_VALUE) {
+					mAnchorRow = row;
+					mAnchorPosition = position;
+					return;
+				}
+			}
+		}
+	}
+	
 	private TodoListFragment mTarget;
+	private Context mContext;
+	private ListView mListView;
+	private DataSource mSource;
 	private boolean mIsEditMode = false;
+	private int mArchiveTextColor;
+	
+	// Whether a row is being bound, during which changes to it's views
+	// are not from the user, and mustn't be passed on as if they were
+	private boolean mIsBinding = false;
+	
+	// The strings shown for the items near the shown rows, by item ID
+	private LruCache<Integer, DisplayData> mDisplayCache =
+			new LruCache<Integer, DisplayData>(PAGE_SIZE * (2 * PAGES_KEPT + 1));
+	
+	// The pages of items that have been read from mSource, by page number,
+	// and the count of items in mSource when they were read, which is the
+	// count that the ListView has been told of.
+	private SparseArray<TodoItem[]> mPages = new SparseArray<TodoItem[]>();
+	private int mPagedCount;
 	
-	public TodoFragmentListAdapter(TodoListFragment target, Context c, ListView list, List<TodoItem> items) {
-		super(c, R.layout.todo_list_item, items);
+	// The diff being worked out in the background, if any. Until it is
+	// applied the shown rows keep showing the pages as they were read.
+	private ItemsDiff mPendingDiff;
+	
+	// Shows the bodies of the shown rows which were bound before their
+	// bodies were loaded, once the prefetch of them is done
+	private final Runnable mBindBodiesTask = new Runnable() {
+		public void run() {
+			for (int i = 0; i < mListView.getChildCount(); ++i) {
+				Object tag = mListView.getChildAt(i).getTag();
+				if (tag instanceof ViewHolder) {
+					ViewHolder holder = (ViewHolder)tag;
+					if (holder.mItem != null && !holder.mHasBody) {
+						bindBody(holder, getDisplayData(holder.mItem));
+					}
+				}
+			}
+		}
+	};
+	
+	public TodoFragmentListAdapter(TodoListFragment target, Context c, ListView list, DataSource source) {
 		mTarget = target;
+		mContext = c;
+		mListView = list;
+		mSource = source;
+		mPagedCount = source.getCount();
+		mArchiveTextColor = c.getResources().getColor(R.color.archive_text_color);
+	}
+	
+	@Override
+	public int getCount() {
+		return mPagedCount;
+	}
+	
+	/*
+	 * Get the item at a position. Is null only for a position which is past
+	 * the end of the source while a diff is pending, whose row is about to
+	 * be removed.
+	 */
+	@Override
+	public TodoItem getItem(int position) {
+		return getPage(position / PAGE_SIZE)[position % PAGE_SIZE];
+	}
+	
+	@Override
+	public long getItemId(int position) {
+		TodoItem item = getItem(position);
+		return (item != null) ? item.getId() : AdapterView.INVALID_ROW_ID;
+	}
+	
+	@Override
+	public boolean hasStableIds() {
+		return true;
 	}
 	
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
-		final TodoItem item = getItem(position);
+		loadPagesAround(position);
 		
 		// Make a new view if there was not an old one for this item
 		if (convertView == null) {
-			convertView = LayoutInflater.from(getContext()).inflate(R.layout.todo_list_item, parent, false);
+			convertView = LayoutInflater.from(mContext).inflate(R.layout.todo_list_item, parent, false);
 			
 			// For new items, set up the events:
 			final TodoItemRelativeLayout itemLayout = ((TodoItemRelativeLayout)convertView);
@@ -55,50 +253,235 @@ public class TodoFragmentListAdapter extends ArrayAdapter<TodoItem> {
 				}
 			});
 			
+			// Keep the parts of the view that get set for each item
+			ViewHolder holder = new ViewHolder();
+			holder.mDoneCheckbox = ((CheckBox)convertView.findViewById(R.id.entry_done_checkbox));
+			holder.mEntryTitle = ((TextView)convertView.findViewById(R.id.entry_title));
+			holder.mEntryBody = ((TextView)convertView.findViewById(R.id.entry_body));
+			holder.mEditControlSet = ((ViewGroup)convertView.findViewById(R.id.entry_edit_control_set));
+			holder.mTitleColors = holder.mEntryBody.getTextColors();
+			convertView.setTag(holder);
+			
 			// Set up the item done checkbox
-			CheckBox doneCheckbox = ((CheckBox)convertView.findViewById(R.id.entry_done_checkbox));
-			doneCheckbox.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+			holder.mDoneCheckbox.setOnCheckedChangeListener(new OnCheckedChangeListener() {
 				public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-					mTarget.onSetDone(itemLayout.getTodoItem(), isChecked);
+					if (!mIsBinding) {
+						mTarget.onSetDone(itemLayout.getTodoItem(), isChecked);
+					}
 				}
 			});
 		}
+		bindRow(convertView, getItem(position));
+		return convertView;
+	}
+	
+	// Show an item in a row's view, if it isn't already showing it
+	private void bindRow(View view, TodoItem item) {
+		ViewHolder holder = (ViewHolder)view.getTag();
+		
+		// A row past the end of the source is hidden until it is removed
+		if (item == null) {
+			holder.mItem = null;
+			view.setVisibility(View.INVISIBLE);
+			return;
+		}
+		view.setVisibility(View.VISIBLE);
 		
-		// Set what item this view is referencing (For it's events)
-		final TodoItemRelativeLayout itemLayout = ((TodoItemRelativeLayout)convertView);
-		itemLayout.setTodoItem(item);
+		// If the view already shows this version of the item in this mode,
+		// then there is nothing to change.
+		if (holder.mItem == item && holder.mVersion == item.getVersion() && holder.mIsEditMode == mIsEditMode
+				&& holder.mHasBody) {
+			return;
+		}
+		holder.mItem = item;
+		holder.mVersion = item.getVersion();
+		holder.mIsEditMode = mIsEditMode;
 		
-		// Get the parts of the view
-		CheckBox doneCheckbox = ((CheckBox)convertView.findViewById(R.id.entry_done_checkbox));
-		TextView entryTitle = ((TextView)convertView.findViewById(R.id.entry_title));
-		TextView entryBody = ((TextView)convertView.findViewById(R.id.entry_body));
-		ViewGroup editControlSet = ((ViewGroup)convertView.findViewById(R.id.entry_edit_control_set));
+		// Set what item this view is referencing (For it's events)
+		((TodoItemRelativeLayout)view).setTodoItem(item);
 		
 		// Set the basic stuff
-		doneCheckbox.setChecked(item.isDone());
-		entryBody.setText(item.getBody());
+		DisplayData display = getDisplayData(item);
+		mIsBinding = true;
+		holder.mDoneCheckbox.setChecked(item.isDone());
+		mIsBinding = false;
+		bindBody(holder, display);
 		
 		// Set the entry title based on whether we are archived or not
+		holder.mEntryTitle.setText(display.mTitle);
 		if (item.isArchived()) {
-			entryTitle.setTextColor(mTarget.getResources().getColor(R.color.archive_text_color));
-			entryTitle.setText(item.getTitle() + " (archived)");
+			holder.mEntryTitle.setTextColor(mArchiveTextColor);
 		} else {
-			entryTitle.setTextColor(entryBody.getTextColors());
-			entryTitle.setText(item.getTitle());
+			holder.mEntryTitle.setTextColor(holder.mTitleColors);
 		}
 		
 		// If we are in edit mode, show the edit controls
 		if (mIsEditMode) {
 			// In edit mode, fade the main info a bit and show edit controls
-			editControlSet.setVisibility(View.VISIBLE);
+			holder.mEditControlSet.setVisibility(View.VISIBLE);
 			//mainInfoContainer.setAlpha(0.8f);
 		} else {
 			// In normal mode, the edit controls are not shown
-			editControlSet.setVisibility(View.GONE);
+			holder.mEditControlSet.setVisibility(View.GONE);
 			//mainInfoContainer.setAlpha(1.0f);			
 		}
+	}
+	
+	// Get the strings to show for an item, working them out again only if
+	// the item has changed since they were last worked out. Only a body
+	// which is already loaded is used, reading it in is left to the
+	// prefetch of the item's page, so that binding never waits on the
+	// save file.
+	private DisplayData getDisplayData(TodoItem item) {
+		DisplayData display = mDisplayCache.get(item.getId());
+		if (display == null || display.mItem != item || display.mVersion != item.getVersion()) {
+			display = new DisplayData();
+			display.mItem = item;
+			display.mVersion = item.getVersion();
+			display.mTitle = item.isArchived() ? item.getTitle() + " (archived)" : item.getTitle();
+			mDisplayCache.put(item.getId(), display);
+		}
+		if (display.mBody == null) {
+			display.mBody = item.getCachedBody();
+		}
+		return display;
+	}
+	
+	// Show an item's body in a row, or nothing until it is loaded
+	private void bindBody(ViewHolder holder, DisplayData display) {
+		holder.mEntryBody.setText((display.mBody != null) ? display.mBody : "");
+		holder.mHasBody = (display.mBody != null);
+	}
+	
+	@Override
+	public void notifyDataSetChanged() {
+		// The items may have moved, so read them again as they are shown
+		mPendingDiff = null;
+		mPages.clear();
+		mPagedCount = mSource.getCount();
+		super.notifyDataSetChanged();
+	}
+	
+	/*
+	 * Update the shown rows for a change to the items in the source. The
+	 * items of the shown rows are matched up by ID with the items now near
+	 * their positions in the source, in the background. If they are in the
+	 * same positions, only the rows whose items changed, or were inserted,
+	 * removed or moved, are bound again. Otherwise the ListView lays out its
+	 * rows again, keeping the first shown item that is still near at the
+	 * same place on screen, so that inserts and removes above the shown
+	 * rows don't scroll the list. This costs about as much as binding the
+	 * shown rows, however many items there are.
+	 */
+	public void notifyItemsChanged() {
+		// Without laid out rows, or if some of them haven't been read, there
+		// is nothing to diff against.
+		int first = mListView.getFirstVisiblePosition();
+		int rowCount = Math.min(mListView.getChildCount(), mPagedCount - first);
+		if (rowCount <= 0) {
+			notifyDataSetChanged();
+			return;
+		}
+		for (int row = 0; row < rowCount; ++row) {
+			if (mPages.get((first + row) / PAGE_SIZE) == null) {
+				notifyDataSetChanged();
+				return;
+			}
+		}
 		
-		return convertView;
+		final ItemsDiff diff = new ItemsDiff();
+		diff.mFirst = first;
+		diff.mOldCount = mPagedCount;
+		diff.mOldIds = new int[rowCount];
+		diff.mOldTops = new int[rowCount];
+		for (int row = 0; row < rowCount; ++row) {
+			TodoItem item = getItem(first + row);
+			diff.mOldIds[row] = (item != null) ? item.getId() : -1;
+			diff.mOldTops[row] = mListView.getChildAt(row).getTop();
+		}
+		diff.mNewCount = mSource.getCount();
+		diff.mNewLow = Math.max(0, first - DIFF_MARGIN);
+		int newHigh = Math.min(diff.mNewCount, first + rowCount + DIFF_MARGIN);
+		diff.mNewIds = new int[Math.max(0, newHigh - diff.mNewLow)];
+		for (int i = 0; i < diff.mNewIds.length; ++i) {
+			diff.mNewIds[i] = mSource.getItem(diff.mNewLow + i).getId();
+		}
+		
+		// A newer diff replaces any pending one, it is made against the
+		// same rows, since they haven't changed since.
+		mPendingDiff = diff;
+		sDiffExecutor.execute(new Runnable() {
+			public void run() {
+				diff.compute();
+				mListView.post(new Runnable() {
+					public void run() {
+						if (mPendingDiff == diff) {
+							mPendingDiff = null;
+							applyDiff(diff);
+						}
+					}
+				});
+			}
+		});
+	}
+	
+	// Show the source as it is now, according to a diff of it
+	private void applyDiff(ItemsDiff diff) {
+		mPages.clear();
+		mPagedCount = mSource.getCount();
+		if (diff.isInPlace() && mPagedCount == diff.mNewCount) {
+			// Bind the shown rows again, which skips the rows whose item is
+			// unchanged.
+			int first = mListView.getFirstVisiblePosition();
+			for (int row = 0; row < mListView.getChildCount(); ++row) {
+				int position = first + row;
+				if (position < mPagedCount) {
+					loadPagesAround(position);
+					bindRow(mListView.getChildAt(row), getItem(position));
+				}
+			}
+		} else {
+			super.notifyDataSetChanged();
+			if (diff.mAnchorRow >= 0) {
+				mListView.setSelectionFromTop(diff.mAnchorPosition, diff.mOldTops[diff.mAnchorRow]);
+			}
+		}
+	}
+	
+	// Get a page of items, reading it from the source if it isn't loaded.
+	// While a diff is pending, the source may have fewer items than the
+	// ListView has been told of, in which case the page is padded with nulls.
+	private TodoItem[] getPage(int index) {
+		TodoItem[] page = mPages.get(index);
+		if (page == null) {
+			int low = index * PAGE_SIZE;
+			int high = Math.min(low + PAGE_SIZE, mPagedCount);
+			int sourceHigh = Math.min(high, mSource.getCount());
+			page = new TodoItem[high - low];
+			for (int i = low; i < sourceHigh; ++i) {
+				page[i - low] = mSource.getItem(i);
+			}
+			mSource.prefetch(low, Math.max(low, sourceHigh), mBindBodiesTask);
+			mPages.put(index, page);
+		}
+		return page;
+	}
+	
+	// Load the pages either side of a shown row, which may be shown next,
+	// and drop the pages which are far away from it.
+	private void loadPagesAround(int position) {
+		int index = position / PAGE_SIZE;
+		for (int i = mPages.size() - 1; i >= 0; --i) {
+			if (Math.abs(mPages.keyAt(i) - index) > PAGES_KEPT) {
+				mPages.removeAt(i);
+			}
+		}
+		if (index > 0) {
+			getPage(index - 1);
+		}
+		if ((index + 1) * PAGE_SIZE < mPagedCount) {
+			getPage(index + 1);
+		}
 	}
 	
 	public void setEditable(boolean state) {
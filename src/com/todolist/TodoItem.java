@@ -1,31 +1,62 @@
 package com.todolist;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Date;
 
 /*
- * A TodoItem. Is a POD structure that can be automatically serialized using
- * the java serializable API.
+ * A TodoItem. Is a POD structure, which is saved using the TodoItemCodec
+ * binary format. It can still be read in from the java serializable API, 
+ * which older versions saved it with.
  * The only non-POD like field is the unique ID, |mId|, which is for use
  * by a TodoItemManager / TodoItemDataStore in tracking their TodoItems.
  * Fields:
  *    - Title (get/setTitle): The brief heading describing a todo item
- *    - Body (get/setBody): The detailed text of a todo
+ *    - Body (get/setBody): The detailed text of a todo. Items loaded from a 
+ *                          TodoItemDataStore may not have their body loaded,
+ *                          in which case it is fetched when first asked for.
  *    - Done (is/setDone): Has the todo been completed?
  *    - Archived (is/setArchived): Has the todo been archived (hidden from the main list)?
  *    - Created (get/setUpdate): The date / time when the todo was created 
  *    - Id (get/setId): A unique ID for the TodoItem. This is unique within the scope of a 
  *                      TodoItemManager, which allocates these IDs for its managed TodoItems.
+ * TodoItems are not thread safe. The items of a TodoItemManager are changed in
+ * place by it, on the thread making the change, so readers on other threads
+ * may see them part way through a change, see TodoItemManager.getTodoItemList.
  */
 public class TodoItem implements Serializable {
 	private static final long serialVersionUID = 1L;
 	
 	private int mId;
 	private String mTitle;
-	private String mBody;
+	private String mBody; // Null if the body hasn't been loaded
 	private boolean mDone;
 	private boolean mArchived;
-	private Date mCreated;
+	private long mCreatedTime; // Milliseconds since the epoch
+	
+	// Count of the changes made through the setters
+	private transient int mVersion;
+	
+	// Where to get the body from if it hasn't been loaded
+	private transient BodySource mBodySource;
+	
+	/*
+	 * A source of the bodies of TodoItems which were loaded without them.
+	 * Is expected to cache the bodies, TodoItems don't hold on to them.
+	 */
+	interface BodySource {
+		public String getBody(int id);
+		
+		/*
+		 * Get a body only if it is already cached, without reading it in or
+		 * waiting on anything that might be.
+		 * @return The body, or null if it isn't cached.
+		 */
+		public String getCachedBody(int id);
+	}
 	
 	/*
 	 * Default constructor, used by most of the code.
@@ -33,19 +64,35 @@ public class TodoItem implements Serializable {
 	 * rather than by passing all of the data to the constructor.
 	 */
 	public TodoItem() {
-		this(-1, new Date(), "", "", false, false);
+		this(-1, System.currentTimeMillis(), "", "", false, false);
 	}
 	
 	/*
 	 * Full constructor, with all fields.
 	 */
 	public TodoItem(int id, Date created, String title, String body, boolean done, boolean archived) {
+		this(id, created.getTime(), title, body, done, archived);
+	}
+	
+	/*
+	 * Full constructor, with the created time given in milliseconds since 
+	 * the epoch. A null |body| means that the body hasn't been loaded.
+	 */
+	public TodoItem(int id, long createdTime, String title, String body, boolean done, boolean archived) {
 		mId = id;
 		mTitle = title;
 		mBody = body;
 		mDone = done;
 		mArchived = archived;
-		mCreated = created;
+		mCreatedTime = createdTime;
+	}
+	
+	/*
+	 * Copy constructor.
+	 */
+	public TodoItem(TodoItem other) {
+		this(other.mId, other.mCreatedTime, other.mTitle, other.mBody, other.mDone, other.mArchived);
+		mBodySource = other.mBodySource;
 	}
 	
 	/*
@@ -56,16 +103,46 @@ public class TodoItem implements Serializable {
 	}
 	public void setTitle(String title) {
 		mTitle = title;
+		++mVersion;
 	}
 
 	/*
 	 * Get / Set the TodoItem body
 	 */
 	public String getBody() {
-		return mBody;
+		if (mBody != null) {
+			return mBody;
+		}
+		return (mBodySource != null) ? mBodySource.getBody(mId) : "";
 	}
 	public void setBody(String body) {
 		mBody = body;
+		++mVersion;
+	}
+	
+	/*
+	 * Get the body if it can be had without reading it in, that is, if it
+	 * is loaded or cached by the body source. For showing the item on the
+	 * UI thread, which mustn't wait on the save file.
+	 * @return The body, or null if it would have to be read in.
+	 */
+	String getCachedBody() {
+		if (mBody != null) {
+			return mBody;
+		}
+		return (mBodySource != null) ? mBodySource.getCachedBody(mId) : "";
+	}
+	
+	/*
+	 * Whether the body is held by the item, rather than being fetched from
+	 * its body source. Set once the body has been set. For use by the 
+	 * TodoItemDataStore.
+	 */
+	boolean isBodyLoaded() {
+		return mBody != null;
+	}
+	void setBodySource(BodySource source) {
+		mBodySource = source;
 	}
 
 	/*
@@ -76,6 +153,7 @@ public class TodoItem implements Serializable {
 	}
 	public void setDone(boolean mDone) {
 		this.mDone = mDone;
+		++mVersion;
 	}
 
 	/*
@@ -86,16 +164,30 @@ public class TodoItem implements Serializable {
 	}
 	public void setArchived(boolean archived) {
 		mArchived = archived;
+		++mVersion;
 	}
 
 	/*
 	 * Get / Update the created date.
 	 */
 	public void setCreatedNow() {
-		mCreated = new Date();
+		mCreatedTime = System.currentTimeMillis();
+		++mVersion;
 	}
 	public Date getCreated() {
-		return mCreated;
+		return new Date(mCreatedTime);
+	}
+	public long getCreatedTime() {
+		return mCreatedTime;
+	}
+	
+	/*
+	 * Get a count of the changes made to the item, which goes up each
+	 * time that it is changed, so that things worked out from the item
+	 * can be cached until it changes. Not saved with the item.
+	 */
+	public int getVersion() {
+		return mVersion;
 	}
 	
 	/* 
@@ -108,4 +200,45 @@ public class TodoItem implements Serializable {
 	public int getId() {
 		return mId;
 	}
+	
+	// The fields saved by the java serializable API, which are those that
+	// older versions had, so that the saved data is in the same layout.
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("mId", int.class),
+		new ObjectStreamField("mTitle", String.class),
+		new ObjectStreamField("mBody", String.class),
+		new ObjectStreamField("mDone", boolean.class),
+		new ObjectStreamField("mArchived", boolean.class),
+		new ObjectStreamField("mCreated", Date.class)
+	};
+	
+	/*
+	 * Write out a TodoItem with the java serializable API, in the layout
+	 * that older versions used, so that readObject can read it back.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("mId", mId);
+		fields.put("mTitle", mTitle);
+		fields.put("mBody", getBody());
+		fields.put("mDone", mDone);
+		fields.put("mArchived", mArchived);
+		fields.put("mCreated", new Date(mCreatedTime));
+		out.writeFields();
+	}
+	
+	/*
+	 * Read in a TodoItem saved by the java serializable API. The saved
+	 * data has the created date as a Date in |mCreated|.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		mId = fields.get("mId", -1);
+		mTitle = (String)fields.get("mTitle", "");
+		mBody = (String)fields.get("mBody", "");
+		mDone = fields.get("mDone", false);
+		mArchived = fields.get("mArchived", false);
+		Date created = (Date)fields.get("mCreated", null);
+		mCreatedTime = (created != null) ? created.getTime() : 0;
+	}
 }
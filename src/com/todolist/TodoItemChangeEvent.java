@@ -0,0 +1,205 @@
+package com.todolist;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A description of a change to the list of TodoItems in a TodoItemManager,
+ * passed to its ChangeListeners, so that they can update what they show for
+ * just the items which changed, rather than for the whole list.
+ * A change is either a reload, where the whole list was replaced and there
+ * is nothing more specific to say about it, or a set of items which were
+ * inserted, removed, or changed in place. Inserted items are put in their
+ * place in ID order, which is almost always at the end of the list.
+ */
+public class TodoItemChangeEvent {
+	// The kinds of change that can be made to an item in place. These are
+	// bit flags, and an item may have more than one kind of change.
+	public static final int CHANGE_DONE = 1;     // Done status toggled
+	public static final int CHANGE_ARCHIVED = 2; // Archived status toggled
+	public static final int CHANGE_CONTENT = 4;  // Title or body edited
+	public static final int CHANGE_ALL = CHANGE_DONE | CHANGE_ARCHIVED | CHANGE_CONTENT;
+
+	private static final int[] NO_IDS = new int[0];
+
+	private final boolean mIsReload;
+	private final int[] mInsertedIds;
+	private final int[] mRemovedIds;
+	private final int[] mChangedIds;
+	private final int[] mChangeKinds; // The kinds for each of the mChangedIds
+
+	TodoItemChangeEvent(boolean isReload, int[] insertedIds, int[] removedIds, int[] changedIds, int[] changeKinds) {
+		mIsReload = isReload;
+		mInsertedIds = insertedIds;
+		mRemovedIds = removedIds;
+		mChangedIds = changedIds;
+		mChangeKinds = changeKinds;
+	}
+
+	/*
+	 * A change where the whole list was replaced.
+	 */
+	static TodoItemChangeEvent reload() {
+		return new TodoItemChangeEvent(true, NO_IDS, NO_IDS, NO_IDS, NO_IDS);
+	}
+
+	/*
+	 * A change where some items were added to the list.
+	 */
+	static TodoItemChangeEvent inserted(List<TodoItem> items) {
+		int[] ids = new int[items.size()];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = items.get(i).getId();
+		}
+		return new TodoItemChangeEvent(false, ids, NO_IDS, NO_IDS, NO_IDS);
+	}
+	static TodoItemChangeEvent inserted(int id) {
+		return new TodoItemChangeEvent(false, new int[]{id}, NO_IDS, NO_IDS, NO_IDS);
+	}
+
+	/*
+	 * A change where an item was removed from the list.
+	 */
+	static TodoItemChangeEvent removed(int id) {
+		return new TodoItemChangeEvent(false, NO_IDS, new int[]{id}, NO_IDS, NO_IDS);
+	}
+
+	/*
+	 * A change where an item was changed in place.
+	 * @param kinds The CHANGE_* flags for what changed about the item.
+	 */
+	static TodoItemChangeEvent changed(int id, int kinds) {
+		return new TodoItemChangeEvent(false, NO_IDS, NO_IDS, new int[]{id}, new int[]{kinds});
+	}
+
+	/*
+	 * Combines a series of changes into a single change, such as for the
+	 * changes made in a TodoItemManager batch. Items which were both inserted
+	 * and removed in the series are left out of the combined change entirely.
+	 */
+	static class Builder {
+		private boolean mIsReload = false;
+		private LinkedHashSet<Integer> mInsertedIds = new LinkedHashSet<Integer>();
+		private LinkedHashSet<Integer> mRemovedIds = new LinkedHashSet<Integer>();
+		private LinkedHashMap<Integer, Integer> mChangeKindsById = new LinkedHashMap<Integer, Integer>();
+		private boolean mIsEmpty = true;
+
+		/*
+		 * Add the next change in the series.
+		 */
+		void add(TodoItemChangeEvent event) {
+			mIsEmpty = false;
+			if (mIsReload) {
+				return;
+			}
+			if (event.isReload()) {
+				// A reload makes anything more specific pointless
+				mIsReload = true;
+				mInsertedIds.clear();
+				mRemovedIds.clear();
+				mChangeKindsById.clear();
+				return;
+			}
+			for (int id: event.mRemovedIds) {
+				mChangeKindsById.remove(id);
+				if (!mInsertedIds.remove(id)) {
+					mRemovedIds.add(id);
+				}
+			}
+			for (int i = 0; i < event.mChangedIds.length; ++i) {
+				int id = event.mChangedIds[i];
+				if (!mInsertedIds.contains(id)) {
+					Integer kinds = mChangeKindsById.get(id);
+					mChangeKindsById.put(id, (kinds == null) ? event.mChangeKinds[i] : (kinds | event.mChangeKinds[i]));
+				}
+			}
+			for (int id: event.mInsertedIds) {
+				mInsertedIds.add(id);
+			}
+		}
+
+		/*
+		 * Whether no changes have been added.
+		 */
+		boolean isEmpty() {
+			return mIsEmpty;
+		}
+
+		/*
+		 * Make the combined change.
+		 */
+		TodoItemChangeEvent build() {
+			if (mIsReload) {
+				return reload();
+			}
+			int[] changedIds = new int[mChangeKindsById.size()];
+			int[] changeKinds = new int[changedIds.length];
+			int i = 0;
+			for (Map.Entry<Integer, Integer> entry: mChangeKindsById.entrySet()) {
+				changedIds[i] = entry.getKey();
+				changeKinds[i] = entry.getValue();
+				++i;
+			}
+			return new TodoItemChangeEvent(false, toArray(mInsertedIds), toArray(mRemovedIds), changedIds, changeKinds);
+		}
+
+		private static int[] toArray(LinkedHashSet<Integer> ids) {
+			int[] array = new int[ids.size()];
+			int i = 0;
+			for (Integer id: ids) {
+				array[i++] = id;
+			}
+			return array;
+		}
+	}
+
+	/*
+	 * Whether the whole list was replaced. If so, there are no inserted,
+	 * removed, or changed IDs, and listeners should rebuild anything that
+	 * they have derived from the list.
+	 */
+	public boolean isReload() {
+		return mIsReload;
+	}
+
+	/*
+	 * Get the IDs of the items added to the end of the list, in list order.
+	 */
+	public int[] getInsertedIds() {
+		return mInsertedIds;
+	}
+
+	/*
+	 * Get the IDs of the items removed from the list.
+	 */
+	public int[] getRemovedIds() {
+		return mRemovedIds;
+	}
+
+	/*
+	 * Get the IDs of the items changed in place.
+	 */
+	public int[] getChangedIds() {
+		return mChangedIds;
+	}
+
+	/*
+	 * Get the kinds of change made to one of the changed items.
+	 * @param index The index of the item in getChangedIds().
+	 * @return The CHANGE_* flags for the item.
+	 */
+	public int getChangeKinds(int index) {
+		return mChangeKinds[index];
+	}
+
+	@Override
+	public String toString() {
+		if (mIsReload) {
+			return "TodoItemChangeEvent(reload)";
+		}
+		return "TodoItemChangeEvent(" + mInsertedIds.length + " inserted, " + mRemovedIds.length +
+				" removed, " + mChangedIds.length + " changed)";
+	}
+}
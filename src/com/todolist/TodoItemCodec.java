@@ -0,0 +1,437 @@
+package com.todolist;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/*
+ * The binary format that TodoItems are saved in by the TodoItemFileDataStore,
+ * replacing java serialization.
+ * Files start with a fixed size header:
+ *    4 bytes  magic, "TODO"
+ *    2 bytes  format version, big endian
+ *    2 bytes  reserved, zero
+ * Journals follow that with a sequence of records. Snapshots store the
+ * records in the slots described by TodoItemSnapshot.
+ * A record is a varint length followed by that many bytes of record data. A
+ * TodoItem is encoded as:
+ *    varint   id
+ *    varlong  created time, in milliseconds since the epoch
+ *    byte     flags, FLAG_DONE | FLAG_ARCHIVED | FLAG_NO_BODY
+ *    string   title
+ *    string   body, only if FLAG_NO_BODY is not set
+ * Where strings are a varint length followed by that many bytes of UTF-8.
+ * A record without the body is used where the body is stored elsewhere, or
+ * for a change to an item which left the body as it was.
+ * A body on its own is encoded as a record holding just the string.
+ * Records may be longer than the fields that a reader knows about, in which
+ * case the rest of the record is skipped, so that fields can be added
+ * to the end of a record in later versions.
+ */
+public class TodoItemCodec {
+	public static final int FORMAT_VERSION = 1;
+	public static final int HEADER_SIZE = 8;
+
+	private static final byte[] MAGIC = {'T', 'O', 'D', 'O'};
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// Packed TodoItem flags
+	private static final int FLAG_DONE = 1;
+	private static final int FLAG_ARCHIVED = 2;
+	private static final int FLAG_NO_BODY = 4;
+
+	/*
+	 * Accumulates encoded records in a growable buffer, so that they can be
+	 * written out to a file all at once.
+	 */
+	public static class Encoder {
+		private byte[] mBuffer;
+		private int mSize = 0;
+
+		public Encoder() {
+			this(256);
+		}
+		public Encoder(int initialCapacity) {
+			mBuffer = new byte[Math.max(initialCapacity, 16)];
+		}
+
+		/*
+		 * Write a file header for the current format version.
+		 */
+		public void writeHeader() {
+			ensureCapacity(HEADER_SIZE);
+			System.arraycopy(MAGIC, 0, mBuffer, mSize, MAGIC.length);
+			mBuffer[mSize + 4] = (byte)(FORMAT_VERSION >> 8);
+			mBuffer[mSize + 5] = (byte)FORMAT_VERSION;
+			mBuffer[mSize + 6] = 0;
+			mBuffer[mSize + 7] = 0;
+			mSize += HEADER_SIZE;
+		}
+
+		/*
+		 * Write a big endian int, outside of any record.
+		 */
+		public void writeInt(int value) {
+			ensureCapacity(4);
+			setInt(mSize, value);
+			mSize += 4;
+		}
+		
+		/*
+		 * Overwrite a previously written int at a given position.
+		 */
+		public void setInt(int position, int value) {
+			mBuffer[position] = (byte)(value >> 24);
+			mBuffer[position + 1] = (byte)(value >> 16);
+			mBuffer[position + 2] = (byte)(value >> 8);
+			mBuffer[position + 3] = (byte)value;
+		}
+		
+		/*
+		 * Write a number of zero bytes, outside of any record.
+		 */
+		public void writeZeros(int count) {
+			ensureCapacity(count);
+			for (int i = 0; i < count; ++i) {
+				mBuffer[mSize++] = 0;
+			}
+		}
+
+		/*
+		 * Write everything but the body of a TodoItem as a single record.
+		 */
+		public void writeItemHeaderRecord(TodoItem item) {
+			writeRecord(-1, item, false);
+		}
+
+		/*
+		 * Write a TodoItem as a single record, preceded inside of the record by
+		 * an additional tag byte. Used by the journal to store the operation.
+		 * If the item's body hasn't been loaded, it is left out of the record.
+		 */
+		public void writeTaggedItemRecord(int tag, TodoItem item) {
+			writeRecord(tag, item, item.isBodyLoaded());
+		}
+
+		/*
+		 * Write the body of a TodoItem as a single record.
+		 */
+		public void writeBodyRecord(String body) {
+			byte[] data = body.getBytes(UTF8);
+			writeVarInt(varIntSize(data.length) + data.length);
+			writeBytes(data);
+		}
+
+		/*
+		 * Write a record consisting of only a tag byte and an ID.
+		 */
+		public void writeTaggedIdRecord(int tag, int id) {
+			writeVarInt(1 + varIntSize(id));
+			writeByte(tag);
+			writeVarInt(id);
+		}
+
+		private void writeRecord(int tag, TodoItem item, boolean withBody) {
+			byte[] title = item.getTitle().getBytes(UTF8);
+			byte[] body = withBody ? item.getBody().getBytes(UTF8) : null;
+			int size = varIntSize(item.getId())
+					+ varLongSize(item.getCreatedTime())
+					+ 1
+					+ varIntSize(title.length) + title.length;
+			if (withBody) {
+				size += varIntSize(body.length) + body.length;
+			}
+			if (tag >= 0) {
+				size += 1;
+			}
+			writeVarInt(size);
+			if (tag >= 0) {
+				writeByte(tag);
+			}
+			writeVarInt(item.getId());
+			writeVarLong(item.getCreatedTime());
+			writeByte((item.isDone() ? FLAG_DONE : 0) | (item.isArchived() ? FLAG_ARCHIVED : 0)
+					| (withBody ? 0 : FLAG_NO_BODY));
+			writeBytes(title);
+			if (withBody) {
+				writeBytes(body);
+			}
+		}
+
+		/*
+		 * The number of bytes encoded so far.
+		 */
+		public int size() {
+			return mSize;
+		}
+
+		/*
+		 * Discard everything that has been encoded, so that the encoder can 
+		 * be reused.
+		 */
+		public void reset() {
+			mSize = 0;
+		}
+
+		/*
+		 * Write out everything that has been encoded.
+		 */
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(mBuffer, 0, mSize);
+		}
+		public void writeTo(ByteBuffer out) {
+			out.put(mBuffer, 0, mSize);
+		}
+
+		/*
+		 * Append everything that another encoder has encoded.
+		 */
+		public void append(Encoder other) {
+			ensureCapacity(other.mSize);
+			System.arraycopy(other.mBuffer, 0, mBuffer, mSize, other.mSize);
+			mSize += other.mSize;
+		}
+
+		private void writeByte(int b) {
+			ensureCapacity(1);
+			mBuffer[mSize++] = (byte)b;
+		}
+		private void writeBytes(byte[] data) {
+			writeVarInt(data.length);
+			ensureCapacity(data.length);
+			System.arraycopy(data, 0, mBuffer, mSize, data.length);
+			mSize += data.length;
+		}
+		private void writeVarInt(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0) {
+				mBuffer[mSize++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			mBuffer[mSize++] = (byte)value;
+		}
+		private void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				mBuffer[mSize++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			mBuffer[mSize++] = (byte)value;
+		}
+		private void ensureCapacity(int extra) {
+			if (mSize + extra > mBuffer.length) {
+				byte[] newBuffer = new byte[Math.max(mBuffer.length * 2, mSize + extra)];
+				System.arraycopy(mBuffer, 0, newBuffer, 0, mSize);
+				mBuffer = newBuffer;
+			}
+		}
+	}
+
+	/*
+	 * Reads records back out of an encoded byte array.
+	 */
+	public static class Decoder {
+		private byte[] mData;
+		private int mEnd;
+		private int mPosition;
+
+		// The end of the record currently being read, or -1 before the
+		// first record, and how far reads may currently go.
+		private int mRecordEnd = -1;
+		private int mLimit;
+
+		public Decoder(byte[] data, int offset, int length) {
+			reset(data, offset, length);
+		}
+		
+		/*
+		 * Start decoding some different data.
+		 */
+		public void reset(byte[] data, int offset, int length) {
+			mData = data;
+			mPosition = offset;
+			mEnd = offset + length;
+			mLimit = mEnd;
+			mRecordEnd = -1;
+		}
+
+		/*
+		 * Read and check the file header.
+		 * @return The format version of the data, or -1 if the data does not
+		 *         start with a TodoItemCodec header.
+		 */
+		public int readHeader() {
+			if (mEnd - mPosition < HEADER_SIZE) {
+				return -1;
+			}
+			for (int i = 0; i < MAGIC.length; ++i) {
+				if (mData[mPosition + i] != MAGIC[i]) {
+					return -1;
+				}
+			}
+			int version = ((mData[mPosition + 4] & 0xFF) << 8) | (mData[mPosition + 5] & 0xFF);
+			mPosition += HEADER_SIZE;
+			return version;
+		}
+
+		/*
+		 * Advance to the next record.
+		 * @return False if there is no further complete record. A record that
+		 *         was only partially written is treated as not being there.
+		 */
+		public boolean nextRecord() throws IOException {
+			if (mRecordEnd >= 0) {
+				// Skip whatever was not read of the last record
+				mPosition = mRecordEnd;
+			}
+			if (mPosition >= mEnd) {
+				return false;
+			}
+			int start = mPosition;
+			mLimit = mEnd;
+			int length;
+			try {
+				length = readVarInt();
+			} catch (IOException ex) {
+				mPosition = start;
+				return false;
+			}
+			if (length < 0 || length > mEnd - mPosition) {
+				mPosition = start;
+				return false;
+			}
+			mRecordEnd = mPosition + length;
+			mLimit = mRecordEnd;
+			return true;
+		}
+
+		/*
+		 * Get the current position in the data. Once nextRecord has returned
+		 * false, this is the end of the last complete record.
+		 */
+		public int getPosition() {
+			return mPosition;
+		}
+
+		/*
+		 * Read a tag byte from the current record.
+		 */
+		public int readTag() throws IOException {
+			checkAvailable(1);
+			return mData[mPosition++] & 0xFF;
+		}
+
+		/*
+		 * Read an ID from the current record.
+		 */
+		public int readId() throws IOException {
+			return readVarInt();
+		}
+
+		/*
+		 * Read a TodoItem from the current record. If the record does not
+		 * have the body, the item is returned with its body not loaded.
+		 */
+		public TodoItem readItem() throws IOException {
+			int id = readVarInt();
+			long created = readVarLong();
+			checkAvailable(1);
+			int flags = mData[mPosition++];
+			String title = readString();
+			String body = ((flags & FLAG_NO_BODY) == 0) ? readString() : null;
+			return new TodoItem(id, created, title, body,
+					(flags & FLAG_DONE) != 0, (flags & FLAG_ARCHIVED) != 0);
+		}
+
+		/*
+		 * Read a TodoItem body from the current record.
+		 */
+		public String readBody() throws IOException {
+			return readString();
+		}
+
+		private String readString() throws IOException {
+			int length = readVarInt();
+			checkAvailable(length);
+			String str = new String(mData, mPosition, length, UTF8);
+			mPosition += length;
+			return str;
+		}
+		private int readVarInt() throws IOException {
+			int result = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				checkAvailable(1);
+				byte b = mData[mPosition++];
+				result |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+			throw new IOException("Bad TodoItem data: varint too long");
+		}
+		private long readVarLong() throws IOException {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				checkAvailable(1);
+				byte b = mData[mPosition++];
+				result |= (long)(b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+			throw new IOException("Bad TodoItem data: varlong too long");
+		}
+		private void checkAvailable(int count) throws IOException {
+			if (count < 0 || count > mLimit - mPosition) {
+				throw new IOException("Bad TodoItem data: truncated record");
+			}
+		}
+	}
+
+	/*
+	 * Read the whole of a file into memory for decoding.
+	 */
+	public static byte[] readFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] data = new byte[(int)file.length()];
+			int read = 0;
+			while (read < data.length) {
+				int count = in.read(data, read, data.length - read);
+				if (count < 0) {
+					break;
+				}
+				read += count;
+			}
+			if (read < data.length) {
+				byte[] truncated = new byte[read];
+				System.arraycopy(data, 0, truncated, 0, read);
+				return truncated;
+			}
+			return data;
+		} finally {
+			in.close();
+		}
+	}
+
+	// Sizes of encoded varints
+	static int varIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			++size;
+		}
+		return size;
+	}
+	static int varLongSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			++size;
+		}
+		return size;
+	}
+}
@@ -1,75 +1,115 @@
 package com.todolist;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
 import java.util.Collection;
-
-import android.content.Context;
-import android.util.Log;
+import java.util.List;
 
 /*
- * The TodoItemDataStore class is a utility class that can be used to save collections
- * of TodoItems to files or load collections of TodoItems from files.
- * It also provides a default save location to use, DEFAULT_SAVE_FILE.
+ * A place that TodoItems are saved to and loaded from, used by a
+ * TodoItemManager. There are two kinds:
+ *    TodoItemFileDataStore:   Saves the items to a snapshot file plus a
+ *                             journal of the changes made since.
+ *    TodoItemSQLiteDataStore: Saves the items to a table in an SQLite
+ *                             database, with one row per item.
+ * Items may be loaded without their bodies, in which case they fetch them
+ * from the data store when they are first asked for.
  */
-public class TodoItemDataStore {
+public interface TodoItemDataStore {
 	public static final String DEFAULT_SAVE_FILE = "todo_save.sav";
-	
-	private Context mContext;
-	private String mFileName;
-		
+
 	/*
-	 * Constructor
-	 * @param ctx      The context to operate on the save file in.
-	 * @param fileName The name of the file to save / load using.
+	 * A listener that loaded TodoItems are handed to a batch at a time.
 	 */
-	public TodoItemDataStore(Context ctx, String fileName) {
-		mContext = ctx;
-		mFileName = fileName;
+	public interface LoadListener {
+		/*
+		 * Called on the loading thread with each batch of loaded items.
+		 * @return False to stop loading.
+		 */
+		public boolean onItemsLoaded(List<TodoItem> items);
 	}
-	
+
 	/*
-	 * Saves a collection of TodoItems to the specified 
-	 * TodoItemDataStore's source file.
+	 * Saves a collection of TodoItems, replacing everything that was
+	 * saved before.
 	 * @param items The collection of TodoItems to be saved.
+	 * @return The modification stamp of the saved items.
 	 */
-	void saveTodoItems(Collection<TodoItem> items) throws IOException {
-		FileOutputStream outFile = mContext.openFileOutput(mFileName, Context.MODE_PRIVATE);
-		ObjectOutputStream outStream = new ObjectOutputStream(outFile);
-		outStream.writeObject(items);
-		outFile.close();
-	}
-	
+	public long saveTodoItems(Collection<TodoItem> items) throws IOException;
+
+	/*
+	 * Saves changes to individual TodoItems, without writing out the rest
+	 * of them.
+	 * @param changed    The items to upsert, with their current state.
+	 * @param removedIds The IDs of the items to delete.
+	 * @return The modification stamp of the items after the changes.
+	 */
+	public long saveTodoItemChanges(Collection<TodoItem> changed, Collection<Integer> removedIds) throws IOException;
+
 	/*
-	 * Loads a collection of TodoItems from the TodoItemDataStore's
-	 * source file.
+	 * Loads all of the saved TodoItems, in list order.
 	 * @return The loaded collection of TodoItems.
 	 */
-	@SuppressWarnings("unchecked")
-	Collection<TodoItem> loadTodoItems() throws IOException {
-		/*
-		 * First, check if there is no saved data yet. In that case,
-		 * return an empty collection.
-		 * Code from:
-		 * 	http://stackoverflow.com/questions/8867334/check-if-a-file-exists-before-calling-openfileinput
-		 */
-		File file = mContext.getFileStreamPath(mFileName);
-		if(!file.exists()) {
-			return new ArrayList<TodoItem>();
-		}
-		
-		// If the file does exist, read in the collection
-		FileInputStream inFile = mContext.openFileInput(mFileName);
-		ObjectInputStream inStream = new ObjectInputStream(inFile);
-		try {
-			return (Collection<TodoItem>)inStream.readObject();
-		} catch (ClassNotFoundException ex) {
-			throw new IOException("Out of bad TodoItem data format: " + ex.getMessage());
-		}
-	}
+	public Collection<TodoItem> loadTodoItems() throws IOException;
+
+	/*
+	 * Loads all of the saved TodoItems in batches, in list order, handing each
+	 * batch to a listener as soon as it has been read. Other users of the data
+	 * store are not held up by the load, but any changes saved after the load
+	 * started may not be seen by it.
+	 * @param listener  The listener to give the batches to.
+	 * @param batchSize The largest number of items to put in a batch.
+	 */
+	public void loadTodoItems(LoadListener listener, int batchSize) throws IOException;
+
+	/*
+	 * Loads the saved TodoItems with the given flags, in list order.
+	 * @param archived Whether to load archived or non-archived items, or null
+	 *                 for either.
+	 * @param done     Whether to load done or not done items, or null for
+	 *                 either.
+	 * @return The loaded TodoItems.
+	 */
+	public List<TodoItem> queryTodoItems(Boolean archived, Boolean done) throws IOException;
+
+	/*
+	 * Loads a single TodoItem, without reading in the rest of them.
+	 * @param id The ID of the item to load.
+	 * @return The item, or null if there is no item with that ID.
+	 */
+	public TodoItem loadTodoItem(int id) throws IOException;
+
+	/*
+	 * Loads the body of a single TodoItem.
+	 * @param id The ID of the item.
+	 * @return The body, or "" if there is no item with that ID.
+	 */
+	public String loadTodoItemBody(int id) throws IOException;
+
+	/*
+	 * Load the bodies of some TodoItems in the background, so that they are
+	 * quick to get when they are asked for.
+	 * @param ids      The IDs of the items.
+	 * @param onLoaded Run on the background thread once the bodies are
+	 *                 cached, or null.
+	 */
+	public void prefetchTodoItemBodies(Collection<Integer> ids, Runnable onLoaded);
+
+	/*
+	 * Get an ID that has not been used by any item saved in this data store.
+	 */
+	public int getNextTodoItemId() throws IOException;
+
+	/*
+	 * Get a stamp identifying the current version of the saved items. The
+	 * stamp changes whenever anything in the process saves a change to them,
+	 * so a user holding items loaded at a given stamp can skip reloading them
+	 * if the stamp is still the same. Each save increases the stamp by one.
+	 */
+	public long getModificationStamp() throws IOException;
+
+	/*
+	 * Get the total number of bytes written by this data store, for
+	 * measuring how expensive saving is.
+	 */
+	public long getBytesWritten();
 }
@@ -0,0 +1,896 @@
+package com.todolist;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+/*
+ * A TodoItemDataStore that saves collections of TodoItems to files, and loads
+ * collections of TodoItems from files.
+ *
+ * The data is kept as a snapshot of the whole collection in the save file (see
+ * TodoItemSnapshot), plus a journal next to it (<save file>.log) of the individual
+ * mutations made since that snapshot was written.
+ * Saving a change updates the item in place in the snapshot when it can, and
+ * otherwise appends a small record to the journal. Once the journal grows large
+ * enough it is folded back into the snapshot on a background thread.
+ * In place updates are first written to a redo log (<save file>.redo), which is
+ * deleted once they have reached the snapshot, and applied again on the next
+ * open if it is still there, so that a crash part way through one can't leave
+ * a torn item in the snapshot.
+ * The journal's contents are kept in memory, so that single items can be
+ * loaded by looking in the journal, and then in the snapshot's index.
+ * Items are loaded without their bodies, which are only read when first asked
+ * for (or prefetched in the background), and kept in a bounded cache.
+ */
+public class TodoItemFileDataStore implements TodoItemDataStore {
+	// Suffixes for the files kept next to the snapshot file
+	private static final String JOURNAL_SUFFIX = ".log";
+	private static final String COMPACTING_JOURNAL_SUFFIX = ".log.old";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String REDO_SUFFIX = ".redo";
+
+	// Journal and redo log record operations
+	static final byte OP_PUT = 1;
+	static final byte OP_REMOVE = 2;
+
+	// The journal is compacted into the snapshot once it is larger than this
+	// many bytes, and also larger than half of the snapshot.
+	private static final long MIN_COMPACT_JOURNAL_SIZE = 64 * 1024;
+
+	// How many items queryTodoItems reads at a time
+	private static final int QUERY_BATCH_SIZE = 1000;
+
+	// How many characters of TodoItem bodies to keep cached per save file
+	private static final int BODY_CACHE_SIZE = 256 * 1024;
+
+	// All of the file operations of all of the data stores are done under this
+	// lock, so that a compaction running in the background never observes a
+	// half written journal, and a load never observes a half finished compaction.
+	private static final Object sFileLock = new Object();
+
+	// Single background thread used to run compactions
+	private static final ExecutorService sCompactionExecutor = Executors.newSingleThreadExecutor();
+
+	// Single background thread used to prefetch TodoItem bodies
+	private static final ExecutorService sPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+	/*
+	 * The open state of one save file. Shared by all of the TodoItemFileDataStores
+	 * on that file, and only used with sFileLock held, apart from reading
+	 * the body cache, which is safe to do from any thread.
+	 */
+	private static class FileState {
+		// The mapped snapshot, or null if there isn't one yet
+		TodoItemSnapshot mSnapshot;
+
+		// The latest state of each item changed in the journal, and in the
+		// journal being compacted (null if there isn't one), in the order that
+		// they were first changed. A null item means that it was removed.
+		LinkedHashMap<Integer, TodoItem> mJournalItems = new LinkedHashMap<Integer, TodoItem>();
+		LinkedHashMap<Integer, TodoItem> mCompactingJournalItems;
+
+		// True while a compaction is running. The snapshot may not be updated
+		// in place during that time.
+		boolean mCompacting = false;
+
+		// Number of loads reading from the snapshot without holding the lock.
+		// The snapshot may not be updated in place while there are any.
+		int mStreamingLoads = 0;
+
+		// The next unused TodoItem ID
+		int mNextId = 0;
+
+		// Bumped every time that the items in the file are changed
+		long mModificationStamp = 0;
+
+		// Recently used item bodies, by ID
+		final LruCache<Integer, String> mBodyCache = new LruCache<Integer, String>(BODY_CACHE_SIZE) {
+			@Override
+			protected int sizeOf(Integer id, String body) {
+				return body.length() + 1;
+			}
+		};
+
+		/*
+		 * Get a copy of the snapshot and journal state as it is now, which a
+		 * load can read from without holding the lock.
+		 */
+		FileState copyForLoad() {
+			FileState view = new FileState();
+			view.mSnapshot = (mSnapshot != null) ? mSnapshot.newReader() : null;
+			view.mJournalItems = new LinkedHashMap<Integer, TodoItem>(mJournalItems);
+			if (mCompactingJournalItems != null) {
+				view.mCompactingJournalItems = new LinkedHashMap<Integer, TodoItem>(mCompactingJournalItems);
+			}
+			return view;
+		}
+	}
+	private static final ConcurrentHashMap<String, FileState> sFileStates = new ConcurrentHashMap<String, FileState>();
+
+	private Context mContext;
+	private String mFileName;
+
+	// Total number of bytes that this data store has written, for measuring
+	// how expensive saving is. Compactions add to this from the background.
+	private final AtomicLong mBytesWritten = new AtomicLong();
+
+	// Given to the items loaded without their bodies, to get them from here
+	private final TodoItem.BodySource mBodySource = new TodoItem.BodySource() {
+		public String getBody(int id) {
+			try {
+				return loadTodoItemBody(id);
+			} catch (IOException ex) {
+				System.out.println("Loading list item body failed: " + ex.getMessage());
+				return "";
+			}
+		}
+		public String getCachedBody(int id) {
+			// Without the lock, which a save or compaction may be holding
+			FileState state = sFileStates.get(mFileName);
+			return (state != null) ? state.mBodyCache.get(id) : null;
+		}
+	};
+
+	/*
+	 * Constructor
+	 * @param ctx      The context to operate on the save file in.
+	 * @param fileName The name of the file to save / load using.
+	 */
+	public TodoItemFileDataStore(Context ctx, String fileName) {
+		mContext = ctx;
+		mFileName = fileName;
+	}
+
+	/*
+	 * Saves a collection of TodoItems to the specified
+	 * TodoItemFileDataStore's source file, replacing the snapshot and
+	 * discarding the journal.
+	 * @param items The collection of TodoItems to be saved.
+	 * @return The modification stamp of the saved items.
+	 */
+	public long saveTodoItems(Collection<TodoItem> items) throws IOException {
+		synchronized (sFileLock) {
+			FileState state = sFileStates.get(mFileName);
+			int nextId = (state != null) ? state.mNextId : 0;
+			long modificationStamp = (state != null) ? state.mModificationStamp : 0;
+			for (TodoItem item: items) {
+				nextId = Math.max(nextId, item.getId() + 1);
+			}
+			mBytesWritten.addAndGet(TodoItemSnapshot.write(getFile(TEMP_SUFFIX), items, nextId));
+			replaceFile(getFile(TEMP_SUFFIX), getFile(""));
+
+			// The new snapshot already contains everything that was journaled,
+			// including anything that a running compaction is working on.
+			getFile(JOURNAL_SUFFIX).delete();
+			getFile(COMPACTING_JOURNAL_SUFFIX).delete();
+			getFile(REDO_SUFFIX).delete();
+
+			// Start over with the new files
+			state = new FileState();
+			state.mSnapshot = TodoItemSnapshot.open(getFile(""), true);
+			state.mNextId = nextId;
+			state.mModificationStamp = modificationStamp + 1;
+			sFileStates.put(mFileName, state);
+			return state.mModificationStamp;
+		}
+	}
+
+	/*
+	 * Saves changes to individual TodoItems, without writing out the rest of
+	 * them. Items which have not been changed since the snapshot was written
+	 * are updated in place in the snapshot if their new record fits, after
+	 * logging them to the redo log, everything else is appended to the journal.
+	 * If the journal has grown large enough, a compaction of it into the
+	 * snapshot is started in the background.
+	 * @param changed    The items to upsert, with their current state.
+	 * @param removedIds The IDs of the items to delete.
+	 * @return The modification stamp of the items after the changes.
+	 */
+	public long saveTodoItemChanges(Collection<TodoItem> changed, Collection<Integer> removedIds) throws IOException {
+		if (changed.isEmpty() && removedIds.isEmpty()) {
+			return getModificationStamp();
+		}
+
+		synchronized (sFileLock) {
+			FileState state = openState();
+
+			// Sort out which changes can be done in place, encoding them for the
+			// redo log, and encode the records for the rest, so that they are
+			// written out as a single append to the journal.
+			TodoItemCodec.Encoder redoRecords = new TodoItemCodec.Encoder();
+			ArrayList<TodoItem> inPlaceItems = new ArrayList<TodoItem>();
+			ArrayList<Integer> inPlaceRemovedIds = new ArrayList<Integer>();
+			TodoItemCodec.Encoder journalRecords = new TodoItemCodec.Encoder();
+			for (TodoItem item: changed) {
+				int id = item.getId();
+				if (item.isBodyLoaded()) {
+					state.mBodyCache.put(id, item.getBody());
+				}
+				if (canUpdateInPlace(state, id)) {
+					int slot = state.mSnapshot.findSlot(id);
+					if (slot >= 0 && state.mSnapshot.fitsInPlace(slot, item)) {
+						redoRecords.writeTaggedItemRecord(OP_PUT, item);
+						inPlaceItems.add(item);
+						continue;
+					}
+				}
+				// Items without their body loaded have an unchanged body, which
+				// the journal record leaves out.
+				journalRecords.writeTaggedItemRecord(OP_PUT, item);
+				putJournaled(state.mJournalItems, new TodoItem(item));
+				state.mNextId = Math.max(state.mNextId, id + 1);
+			}
+			for (Integer id: removedIds) {
+				state.mBodyCache.remove(id);
+				if (canUpdateInPlace(state, id)) {
+					int slot = state.mSnapshot.findSlot(id);
+					if (slot >= 0) {
+						redoRecords.writeTaggedIdRecord(OP_REMOVE, id);
+						inPlaceRemovedIds.add(id);
+						continue;
+					}
+				}
+				journalRecords.writeTaggedIdRecord(OP_REMOVE, id);
+				state.mJournalItems.put(id, null);
+			}
+
+			if (redoRecords.size() > 0) {
+				writeRedoLog(redoRecords);
+				for (TodoItem item: inPlaceItems) {
+					state.mSnapshot.writeInPlace(state.mSnapshot.findSlot(item.getId()), item);
+				}
+				for (Integer id: inPlaceRemovedIds) {
+					state.mSnapshot.markRemoved(state.mSnapshot.findSlot(id));
+				}
+				mBytesWritten.addAndGet(state.mSnapshot.flush());
+				getFile(REDO_SUFFIX).delete();
+			}
+			if (journalRecords.size() > 0) {
+				appendToJournal(journalRecords);
+
+				// Kick off a compaction if the journal is getting too large
+				long journalSize = getFile(JOURNAL_SUFFIX).length();
+				if (journalSize > MIN_COMPACT_JOURNAL_SIZE && journalSize > getFile("").length() / 2) {
+					scheduleCompaction(state);
+				}
+			}
+			return ++state.mModificationStamp;
+		}
+	}
+
+	/*
+	 * Loads a collection of TodoItems from the TodoItemFileDataStore's
+	 * source file. If the files are in the format used by older versions,
+	 * they are rewritten in the current format.
+	 * The items' bodies are not loaded until they are asked for.
+	 * @return The loaded collection of TodoItems.
+	 */
+	public Collection<TodoItem> loadTodoItems() throws IOException {
+		final ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		loadTodoItems(new LoadListener() {
+			public boolean onItemsLoaded(List<TodoItem> batch) {
+				items.addAll(batch);
+				return true;
+			}
+		}, Integer.MAX_VALUE);
+		return items;
+	}
+
+	/*
+	 * Loads the TodoItems from the TodoItemFileDataStore's source file in
+	 * batches, in list order, handing each batch to a listener as soon as it
+	 * has been read. The items are read without holding up other users of the
+	 * data store, which can load and save items while this is going on, but
+	 * any changes saved after the load started will not be seen by it.
+	 * @param listener  The listener to give the batches to.
+	 * @param batchSize The largest number of items to put in a batch.
+	 */
+	public void loadTodoItems(LoadListener listener, int batchSize) throws IOException {
+		FileState state;
+		FileState view;
+		synchronized (sFileLock) {
+			state = openState();
+			view = state.copyForLoad();
+			state.mStreamingLoads++;
+		}
+		try {
+			LoadBatcher batcher = new LoadBatcher(listener, batchSize);
+
+			// Stream over the snapshot, taking the journaled state of items
+			// which have been changed since it was written.
+			TodoItemSnapshot snapshot = view.mSnapshot;
+			if (snapshot != null) {
+				for (int slot = snapshot.getFirstSlot(); slot >= 0; slot = snapshot.getNextSlot(slot)) {
+					TodoItem item = snapshot.readItem(slot);
+					if (item != null && isJournaled(view, item.getId())) {
+						item = copyOf(getJournaled(view, item.getId()));
+					}
+					if (item != null && !batcher.add(withBodySource(item))) {
+						return;
+					}
+				}
+			}
+
+			// Then the items that were added since it was written, first those
+			// in the journal being compacted, then those in the current one.
+			if (view.mCompactingJournalItems != null) {
+				for (Integer id: view.mCompactingJournalItems.keySet()) {
+					if (snapshot == null || snapshot.findSlot(id) < 0) {
+						TodoItem item = getJournaled(view, id);
+						if (item != null && !batcher.add(withBodySource(new TodoItem(item)))) {
+							return;
+						}
+					}
+				}
+			}
+			for (Map.Entry<Integer, TodoItem> entry: view.mJournalItems.entrySet()) {
+				Integer id = entry.getKey();
+				if (entry.getValue() != null
+						&& (snapshot == null || snapshot.findSlot(id) < 0)
+						&& (view.mCompactingJournalItems == null || !view.mCompactingJournalItems.containsKey(id))) {
+					if (!batcher.add(withBodySource(new TodoItem(entry.getValue())))) {
+						return;
+					}
+				}
+			}
+			batcher.finish();
+		} finally {
+			synchronized (sFileLock) {
+				state.mStreamingLoads--;
+			}
+		}
+	}
+
+	// Collects loaded items into batches for a LoadListener
+	private static class LoadBatcher {
+		private LoadListener mListener;
+		private int mBatchSize;
+		private ArrayList<TodoItem> mBatch = new ArrayList<TodoItem>();
+
+		LoadBatcher(LoadListener listener, int batchSize) {
+			mListener = listener;
+			mBatchSize = batchSize;
+		}
+
+		// Add an item, handing off the batch if it is full. Returns false if
+		// the listener wants to stop.
+		boolean add(TodoItem item) {
+			mBatch.add(item);
+			return (mBatch.size() < mBatchSize) || finish();
+		}
+
+		// Hand off what there is of the current batch
+		boolean finish() {
+			if (mBatch.isEmpty()) {
+				return true;
+			}
+			ArrayList<TodoItem> batch = mBatch;
+			mBatch = new ArrayList<TodoItem>();
+			return mListener.onItemsLoaded(batch);
+		}
+	}
+
+	/*
+	 * Loads the saved TodoItems with the given flags. There is no index on
+	 * the flags in the save file, so this reads through all of the items,
+	 * and keeps those which match.
+	 */
+	public List<TodoItem> queryTodoItems(final Boolean archived, final Boolean done) throws IOException {
+		final ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		loadTodoItems(new LoadListener() {
+			public boolean onItemsLoaded(List<TodoItem> batch) {
+				for (TodoItem item: batch) {
+					if ((archived == null || item.isArchived() == archived)
+							&& (done == null || item.isDone() == done)) {
+						items.add(item);
+					}
+				}
+				return true;
+			}
+		}, QUERY_BATCH_SIZE);
+		return items;
+	}
+
+	/*
+	 * Loads a single TodoItem, without reading in the rest of them.
+	 * The item's body is not loaded until it is asked for.
+	 * @param id The ID of the item to load.
+	 * @return The item, or null if there is no item with that ID.
+	 */
+	public TodoItem loadTodoItem(int id) throws IOException {
+		synchronized (sFileLock) {
+			FileState state = openState();
+			TodoItem item = null;
+			if (isJournaled(state, id)) {
+				item = copyOf(getJournaled(state, id));
+			} else if (state.mSnapshot != null) {
+				int slot = state.mSnapshot.findSlot(id);
+				if (slot >= 0) {
+					item = state.mSnapshot.readItem(slot);
+				}
+			}
+			return (item != null) ? withBodySource(item) : null;
+		}
+	}
+
+	/*
+	 * Loads the body of a single TodoItem, from the body cache if it is there.
+	 * @param id The ID of the item.
+	 * @return The body, or "" if there is no item with that ID.
+	 */
+	public String loadTodoItemBody(int id) throws IOException {
+		synchronized (sFileLock) {
+			FileState state = openState();
+			String body = state.mBodyCache.get(id);
+			if (body == null) {
+				body = readBody(state, id);
+				if (body == null) {
+					return "";
+				}
+				state.mBodyCache.put(id, body);
+			}
+			return body;
+		}
+	}
+
+	/*
+	 * Load the bodies of some TodoItems into the body cache in the background,
+	 * so that they are already there when they are asked for.
+	 * @param ids The IDs of the items.
+	 */
+	public void prefetchTodoItemBodies(final Collection<Integer> ids, final Runnable onLoaded) {
+		sPrefetchExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					for (Integer id: ids) {
+						loadTodoItemBody(id);
+					}
+					if (onLoaded != null) {
+						onLoaded.run();
+					}
+				} catch (IOException ex) {
+					Log.w("test", "Prefetching Todo Item bodies failed: " + ex.getMessage());
+				}
+			}
+		});
+	}
+
+	/*
+	 * Get an ID that has not been used by any item saved in this data store.
+	 */
+	public int getNextTodoItemId() throws IOException {
+		synchronized (sFileLock) {
+			return openState().mNextId;
+		}
+	}
+
+	/*
+	 * Get a stamp identifying the current version of the saved items. The
+	 * stamp changes whenever any of the TodoItemFileDataStores on the same file
+	 * saves a change, so a user holding items loaded at a given stamp can
+	 * skip reloading them if the stamp is still the same. Compactions do not
+	 * change the items, so they leave the stamp alone.
+	 */
+	public long getModificationStamp() throws IOException {
+		synchronized (sFileLock) {
+			return openState().mModificationStamp;
+		}
+	}
+
+	/*
+	 * Get the total number of bytes written by this data store.
+	 */
+	public long getBytesWritten() {
+		return mBytesWritten.get();
+	}
+
+	// Whether there is a journal record for an item, which overrides what
+	// the snapshot has for it, and the latest journaled state of the item.
+	private static boolean isJournaled(FileState state, int id) {
+		return state.mJournalItems.containsKey(id)
+				|| (state.mCompactingJournalItems != null && state.mCompactingJournalItems.containsKey(id));
+	}
+	private static TodoItem getJournaled(FileState state, int id) {
+		if (state.mJournalItems.containsKey(id)) {
+			return state.mJournalItems.get(id);
+		}
+		return state.mCompactingJournalItems.get(id);
+	}
+
+	// Whether the item with a given ID can be updated in place in the
+	// snapshot, that is, the snapshot is not being compacted or streamed
+	// from, and there is no journal record for the item which would 
+	// override it.
+	private static boolean canUpdateInPlace(FileState state, int id) {
+		return state.mSnapshot != null && !state.mCompacting && state.mStreamingLoads == 0
+				&& !isJournaled(state, id);
+	}
+
+	// Copy an item, if there is one
+	private static TodoItem copyOf(TodoItem item) {
+		return (item != null) ? new TodoItem(item) : null;
+	}
+
+	// Have an item get its body from us if it wasn't loaded with it
+	private TodoItem withBodySource(TodoItem item) {
+		if (!item.isBodyLoaded()) {
+			item.setBodySource(mBodySource);
+		}
+		return item;
+	}
+
+	// Read the latest body of an item. An item's body is in the latest
+	// journal record for it that has one, or if there isn't one, in the
+	// snapshot. Returns null if the item doesn't exist.
+	private static String readBody(FileState state, int id) throws IOException {
+		if (state.mJournalItems.containsKey(id)) {
+			TodoItem item = state.mJournalItems.get(id);
+			if (item == null) {
+				return null;
+			} else if (item.isBodyLoaded()) {
+				return item.getBody();
+			}
+		}
+		if (state.mCompactingJournalItems != null && state.mCompactingJournalItems.containsKey(id)) {
+			TodoItem item = state.mCompactingJournalItems.get(id);
+			if (item == null) {
+				return null;
+			} else if (item.isBodyLoaded()) {
+				return item.getBody();
+			}
+		}
+		if (state.mSnapshot != null) {
+			int slot = state.mSnapshot.findSlot(id);
+			if (slot >= 0) {
+				return state.mSnapshot.readBody(slot);
+			}
+		}
+		return null;
+	}
+
+	// Put the latest journaled state of an item. If the item's body was left
+	// out, but an earlier state in the same journal had one, the body is kept.
+	private static void putJournaled(LinkedHashMap<Integer, TodoItem> journalItems, TodoItem item) {
+		if (!item.isBodyLoaded()) {
+			TodoItem previous = journalItems.get(item.getId());
+			if (previous != null && previous.isBodyLoaded()) {
+				item.setBody(previous.getBody());
+			}
+		}
+		journalItems.put(item.getId(), item);
+	}
+
+	/*
+	 * Get the open state of the save file, opening it if it hasn't been yet.
+	 * If the files are in an older format, they are migrated first.
+	 * Must be called with sFileLock held.
+	 */
+	private FileState openState() throws IOException {
+		FileState state = sFileStates.get(mFileName);
+		if (state != null) {
+			return state;
+		}
+
+		if (needsMigration()) {
+			migrate();
+			return sFileStates.get(mFileName);
+		}
+
+		state = new FileState();
+
+		/*
+		 * First, check if there is no saved data yet. In that case,
+		 * there is no snapshot.
+		 * Code from:
+		 * 	http://stackoverflow.com/questions/8867334/check-if-a-file-exists-before-calling-openfileinput
+		 */
+		File snapshotFile = getFile("");
+		if (snapshotFile.exists()) {
+			state.mSnapshot = TodoItemSnapshot.open(snapshotFile, true);
+			state.mNextId = state.mSnapshot.getNextId();
+		}
+
+		// Read in the journals. A journal left over from a compaction that did
+		// not finish will be compacted again next time.
+		File compactingJournal = getFile(COMPACTING_JOURNAL_SUFFIX);
+		if (compactingJournal.exists()) {
+			state.mCompactingJournalItems = readJournal(compactingJournal);
+			state.mNextId = Math.max(state.mNextId, maxId(state.mCompactingJournalItems) + 1);
+		}
+		state.mJournalItems = readJournal(getFile(JOURNAL_SUFFIX));
+		state.mNextId = Math.max(state.mNextId, maxId(state.mJournalItems) + 1);
+
+		// A redo log still being there means that the app was killed while
+		// updating the snapshot in place, so the updates are done again.
+		File redoLog = getFile(REDO_SUFFIX);
+		if (redoLog.exists()) {
+			LinkedHashMap<Integer, TodoItem> redoItems = readJournal(redoLog);
+			Log.w("test", "Redoing Todo Item updates (" + redoItems.size() + ")");
+			redo(state, redoItems);
+			redoLog.delete();
+		}
+
+		sFileStates.put(mFileName, state);
+		return state;
+	}
+
+	// Largest ID in a journal, or -1 if it is empty
+	private static int maxId(Map<Integer, TodoItem> journalItems) {
+		int max = -1;
+		for (Integer id: journalItems.keySet()) {
+			max = Math.max(max, id);
+		}
+		return max;
+	}
+
+	// Write out the redo log for a set of in place updates, making sure that it
+	// has reached the disk before the snapshot is touched
+	private void writeRedoLog(TodoItemCodec.Encoder records) throws IOException {
+		FileOutputStream outFile = new FileOutputStream(getFile(REDO_SUFFIX));
+		try {
+			TodoItemCodec.Encoder header = new TodoItemCodec.Encoder(TodoItemCodec.HEADER_SIZE);
+			header.writeHeader();
+			header.writeTo(outFile);
+			records.writeTo(outFile);
+			outFile.getFD().sync();
+		} finally {
+			outFile.close();
+		}
+		mBytesWritten.addAndGet(TodoItemCodec.HEADER_SIZE + records.size());
+	}
+
+	// Apply the updates in a redo log to the snapshot again. An update which
+	// doesn't fit in place any more is appended to the journal instead.
+	private void redo(FileState state, LinkedHashMap<Integer, TodoItem> redoItems) throws IOException {
+		TodoItemCodec.Encoder journalRecords = new TodoItemCodec.Encoder();
+		for (Map.Entry<Integer, TodoItem> entry: redoItems.entrySet()) {
+			int id = entry.getKey();
+			TodoItem item = entry.getValue();
+			int slot = (state.mSnapshot != null) ? state.mSnapshot.findSlot(id) : -1;
+			if (item == null) {
+				if (slot >= 0) {
+					state.mSnapshot.markRemoved(slot);
+				} else {
+					journalRecords.writeTaggedIdRecord(OP_REMOVE, id);
+					state.mJournalItems.put(id, null);
+				}
+			} else if (slot < 0 || !state.mSnapshot.writeInPlace(slot, item)) {
+				journalRecords.writeTaggedItemRecord(OP_PUT, item);
+				putJournaled(state.mJournalItems, item);
+				state.mNextId = Math.max(state.mNextId, id + 1);
+			}
+		}
+		if (state.mSnapshot != null) {
+			mBytesWritten.addAndGet(state.mSnapshot.flush());
+		}
+		if (journalRecords.size() > 0) {
+			appendToJournal(journalRecords);
+		}
+	}
+
+	// Append encoded records to the journal
+	private void appendToJournal(TodoItemCodec.Encoder records) throws IOException {
+		File journal = getFile(JOURNAL_SUFFIX);
+		boolean isNewJournal = (journal.length() == 0);
+		FileOutputStream outFile = new FileOutputStream(journal, true);
+		try {
+			if (isNewJournal) {
+				TodoItemCodec.Encoder header = new TodoItemCodec.Encoder(TodoItemCodec.HEADER_SIZE);
+				header.writeHeader();
+				header.writeTo(outFile);
+			}
+			records.writeTo(outFile);
+		} finally {
+			outFile.close();
+		}
+		mBytesWritten.addAndGet(records.size());
+	}
+
+	/*
+	 * Fold the journal into the snapshot on the background thread. The current
+	 * journal is set aside, and appends continue into a fresh journal while the
+	 * new snapshot is being written.
+	 * Must be called with sFileLock held.
+	 */
+	private void scheduleCompaction(final FileState state) {
+		if (state.mCompacting) {
+			return;
+		}
+
+		// Set aside the journal. If there is already a set aside journal then a
+		// previous compaction did not finish, and that one is compacted first.
+		if (state.mCompactingJournalItems == null) {
+			if (!getFile(JOURNAL_SUFFIX).renameTo(getFile(COMPACTING_JOURNAL_SUFFIX))) {
+				return;
+			}
+			state.mCompactingJournalItems = state.mJournalItems;
+			state.mJournalItems = new LinkedHashMap<Integer, TodoItem>();
+		}
+		state.mCompacting = true;
+
+		// Nothing changes the set aside journal's items from here on, and the
+		// snapshot is not updated in place while mCompacting is set, so the
+		// compaction can read both of them without holding the lock.
+		final LinkedHashMap<Integer, TodoItem> compactingItems = state.mCompactingJournalItems;
+		final int nextId = state.mNextId;
+		sCompactionExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					compact(state, compactingItems, nextId);
+				} catch (IOException ex) {
+					// Leave things as they are, the set aside journal will still be
+					// used, and compacted next time.
+					Log.w("test", "Compacting Todo Item journal failed: " + ex.getMessage());
+				} finally {
+					synchronized (sFileLock) {
+						state.mCompacting = false;
+					}
+				}
+			}
+		});
+	}
+
+	// Run on the compaction thread
+	private void compact(FileState state, LinkedHashMap<Integer, TodoItem> compactingItems, int nextId) throws IOException {
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		File snapshotFile = getFile("");
+		TodoItemSnapshot snapshot = snapshotFile.exists() ? TodoItemSnapshot.open(snapshotFile, false) : null;
+		if (snapshot != null) {
+			for (int slot = snapshot.getFirstSlot(); slot >= 0; slot = snapshot.getNextSlot(slot)) {
+				TodoItem item = snapshot.readItem(slot);
+				if (item != null && compactingItems.containsKey(item.getId())) {
+					item = copyOf(compactingItems.get(item.getId()));
+				}
+				if (item != null) {
+					if (!item.isBodyLoaded()) {
+						item.setBody(snapshot.readBody(slot));
+					}
+					items.add(item);
+				}
+			}
+		}
+		for (TodoItem item: compactingItems.values()) {
+			if (item != null && (snapshot == null || snapshot.findSlot(item.getId()) < 0)) {
+				items.add(item);
+			}
+		}
+		File tempSnapshot = getFile(TEMP_SUFFIX + ".compact");
+		mBytesWritten.addAndGet(TodoItemSnapshot.write(tempSnapshot, items, nextId));
+
+		synchronized (sFileLock) {
+			if (sFileStates.get(mFileName) != state || state.mCompactingJournalItems != compactingItems) {
+				// A full save replaced the snapshot while we were working, what
+				// we have written is out of date.
+				tempSnapshot.delete();
+				return;
+			}
+			replaceFile(tempSnapshot, snapshotFile);
+			getFile(COMPACTING_JOURNAL_SUFFIX).delete();
+			state.mSnapshot = TodoItemSnapshot.open(snapshotFile, true);
+			state.mCompactingJournalItems = null;
+		}
+		Log.i("test", "Compacted Todo Item journal (" + items.size() + ")");
+	}
+
+	// Get one of the files making up this data store
+	private File getFile(String suffix) {
+		return mContext.getFileStreamPath(mFileName + suffix);
+	}
+
+	// Move a file over another one, replacing it
+	private static void replaceFile(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			throw new IOException("Could not replace " + to.getName());
+		}
+	}
+
+	/*
+	 * Read the records in a journal file into the latest state of each item
+	 * changed by it (null for removed items).
+	 * Journal records consist of an operation tag, followed by the item
+	 * for a put, or the ID for a remove.
+	 */
+	private static LinkedHashMap<Integer, TodoItem> readJournal(File file) throws IOException {
+		LinkedHashMap<Integer, TodoItem> items = new LinkedHashMap<Integer, TodoItem>();
+		if (!file.exists()) {
+			return items;
+		}
+		byte[] data = TodoItemCodec.readFile(file);
+		TodoItemCodec.Decoder decoder = new TodoItemCodec.Decoder(data, 0, data.length);
+		int version = decoder.readHeader();
+		if (version < 0) {
+			if (data.length >= TodoItemCodec.HEADER_SIZE) {
+				throw new IOException("Bad Todo Item journal: " + file.getName());
+			}
+			// The app was killed while the header was being written, so
+			// there is nothing in the journal yet.
+			Log.w("test", "Dropping partial Todo Item journal header in " + file.getName());
+			truncateFile(file, 0);
+			return items;
+		}
+		checkVersion(version);
+
+		// A record that was only partially written when the app was killed
+		// is not returned by the decoder, so it is dropped here.
+		while (decoder.nextRecord()) {
+			int op = decoder.readTag();
+			if (op == OP_PUT) {
+				putJournaled(items, decoder.readItem());
+			} else if (op == OP_REMOVE) {
+				items.put(decoder.readId(), null);
+			} else {
+				throw new IOException("Bad Todo Item journal record: " + op);
+			}
+		}
+
+		// It is also cut off of the end of the file, since otherwise the
+		// records appended after it would be read as part of it.
+		if (decoder.getPosition() < data.length) {
+			Log.w("test", "Dropping partial Todo Item journal record in " + file.getName());
+			truncateFile(file, decoder.getPosition());
+		}
+		return items;
+	}
+
+	// Cut a file off at a given length
+	private static void truncateFile(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.getChannel().truncate(length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	// Check that we know how to read a given format version
+	private static void checkVersion(int version) throws IOException {
+		if (version > TodoItemCodec.FORMAT_VERSION) {
+			throw new IOException("Todo Item data is from a newer version: " + version);
+		}
+	}
+
+	/*
+	 * Migration of save files from older versions, which saved the items as
+	 * a java serialized ArrayList, and had no journal.
+	 */
+
+	// Whether the save file is in the older format
+	private boolean needsMigration() throws IOException {
+		File snapshotFile = getFile("");
+		return snapshotFile.exists() && TodoItemSnapshot.readFormatVersion(snapshotFile) < 0;
+	}
+
+	// Read everything in using the old format, and save it in the new one
+	private void migrate() throws IOException {
+		Collection<TodoItem> items = readLegacySnapshot(TodoItemCodec.readFile(getFile("")));
+		Log.i("test", "Migrating Todo Item data (" + items.size() + ")");
+		saveTodoItems(items);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<TodoItem> readLegacySnapshot(byte[] data) throws IOException {
+		ObjectInputStream inStream = new ObjectInputStream(new ByteArrayInputStream(data));
+		try {
+			return (Collection<TodoItem>)inStream.readObject();
+		} catch (ClassNotFoundException ex) {
+			throw new IOException("Out of bad TodoItem data format: " + ex.getMessage());
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.todolist;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+
+/*
+ * A live, READONLY view of the TodoItems in a TodoItemManager which pass
+ * some filter, in one of the TodoItemSkipList sort orders. Made with
+ * TodoItemManager.registerFilteredList, after which the manager keeps it up
+ * to date as its items change, by looking at only the items which changed,
+ * rather than filtering and sorting the whole list again. Moving a changed
+ * item to it's new position, and getting the item at a position, both take
+ * O(log n) time. The view is up to date by the time that the manager's change
+ * and updated listeners are called. Unlike the manager's snapshots, it is
+ * changed in place, and is not thread safe. The manager updates it on the
+ * thread that dispatches its changes, which in frame dispatch mode, as the
+ * app uses it, is always the UI thread, so it must only be used on the UI
+ * thread. Without frame dispatch, it may only be used from the thread
+ * changing the manager, from within a change listener.
+ */
+public class TodoItemFilteredList extends AbstractList<TodoItem> {
+	/*
+	 * A filter saying which items are in the view.
+	 */
+	public interface Filter {
+		public boolean filter(TodoItem item);
+	}
+
+	/*
+	 * A filter on just the archived and done flags of items. The
+	 * TodoItemManager can find the items passing these without looking at
+	 * each of its items.
+	 */
+	public static class FlagFilter implements Filter {
+		private final Boolean mArchived;
+		private final Boolean mDone;
+
+		/*
+		 * Constructor.
+		 * @param archived Whether to pass archived or non-archived items, or
+		 *                 null for either.
+		 * @param done     Whether to pass done or not done items, or null for
+		 *                 either.
+		 */
+		public FlagFilter(Boolean archived, Boolean done) {
+			mArchived = archived;
+			mDone = done;
+		}
+
+		public boolean filter(TodoItem item) {
+			return (mArchived == null || mArchived == item.isArchived()) &&
+					(mDone == null || mDone == item.isDone());
+		}
+
+		public Boolean getArchived() {
+			return mArchived;
+		}
+
+		public Boolean getDone() {
+			return mDone;
+		}
+	}
+
+	private final Filter mFilter;
+
+	// The items which passed the filter, in sort order
+	private TodoItemSkipList mItems;
+
+	// The node holding each item in mItems, to find it by when it changes
+	private final TodoItemIdObjectMap<TodoItemSkipList.Node> mNodesById = new TodoItemIdObjectMap<TodoItemSkipList.Node>();
+
+	TodoItemFilteredList(Filter filter, int sortOrder) {
+		mFilter = filter;
+		mItems = new TodoItemSkipList(sortOrder);
+	}
+
+	@Override
+	public TodoItem get(int position) {
+		return mItems.get(position);
+	}
+
+	@Override
+	public int size() {
+		return mItems.size();
+	}
+
+	@Override
+	public int indexOf(Object item) {
+		// Find the item's node by its ID, rather than looking at every item
+		if (!(item instanceof TodoItem)) {
+			return -1;
+		}
+		TodoItemSkipList.Node node = mNodesById.get(((TodoItem)item).getId());
+		return (node != null && node.getItem() == item) ? mItems.indexOf(node) : -1;
+	}
+
+	@Override
+	public int lastIndexOf(Object item) {
+		return indexOf(item);
+	}
+
+	@Override
+	public Iterator<TodoItem> iterator() {
+		return mItems.iterator();
+	}
+
+	/*
+	 * Get the filter saying which items are in the view.
+	 */
+	public Filter getFilter() {
+		return mFilter;
+	}
+
+	/*
+	 * Get the order that the view is sorted in.
+	 * @return One of the TodoItemSkipList.SORT_BY_* orders.
+	 */
+	public int getSortOrder() {
+		return mItems.getSortOrder();
+	}
+
+	/*
+	 * Change the order that the view is sorted in. This sorts the whole view
+	 * again, rather than being an incremental update.
+	 * @param sortOrder One of the TodoItemSkipList.SORT_BY_* orders.
+	 */
+	public void setSortOrder(int sortOrder) {
+		if (sortOrder == mItems.getSortOrder()) {
+			return;
+		}
+		TodoItemSkipList items = new TodoItemSkipList(sortOrder);
+		for (TodoItem item: mItems) {
+			mNodesById.put(item.getId(), items.add(item));
+		}
+		mItems = items;
+		++modCount;
+	}
+
+	/*
+	 * Get a count of the changes made to the view, for users to tell whether
+	 * it has changed since they last looked at it.
+	 */
+	public int getModificationCount() {
+		return modCount;
+	}
+
+	/*
+	 * Rebuild the view from all of the items of the manager.
+	 * @param items The manager's items, in ID order.
+	 */
+	void rebuild(Iterable<TodoItem> items) {
+		mItems.clear();
+		mNodesById.clear();
+		for (TodoItem item: items) {
+			if (mFilter.filter(item)) {
+				mNodesById.put(item.getId(), mItems.add(item));
+			}
+		}
+		++modCount;
+	}
+
+	/*
+	 * Update the view for the items which a change event says have changed.
+	 * Must not be called for reloads, which need a rebuild.
+	 * @param event   The change to the manager's items.
+	 * @param manager The manager, to look up the changed items in.
+	 */
+	void update(TodoItemChangeEvent event, TodoItemManager manager) {
+		boolean changed = false;
+		for (int id: event.getRemovedIds()) {
+			TodoItemSkipList.Node node = mNodesById.remove(id);
+			if (node != null) {
+				mItems.remove(node);
+				changed = true;
+			}
+		}
+
+		// Changed items may now pass or fail the filter, or have a different
+		// sort key, and inserted items only need to be added if they pass it.
+		int[] changedIds = event.getChangedIds();
+		int[] insertedIds = event.getInsertedIds();
+		for (int i = 0; i < changedIds.length + insertedIds.length; ++i) {
+			int id = (i < changedIds.length) ? changedIds[i] : insertedIds[i - changedIds.length];
+			TodoItem item = manager.getTodoItemById(id);
+			boolean pass = (item != null) && mFilter.filter(item);
+			TodoItemSkipList.Node node = mNodesById.get(id);
+			if (node != null) {
+				if (!pass) {
+					mNodesById.remove(id);
+					mItems.remove(node);
+				} else if (node.getItem() != item || mItems.isMoved(node)) {
+					mItems.remove(node);
+					mNodesById.put(id, mItems.add(item));
+				}
+				// Even if it stays, the item shown has changed
+				changed = true;
+			} else if (pass) {
+				mNodesById.put(id, mItems.add(item));
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			++modCount;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.todolist;
+
+import java.util.Arrays;
+
+/*
+ * A map from TodoItem IDs to int values, used by the TodoItemManager to find
+ * where each of its items is in its list. The IDs and values are kept in
+ * primitive arrays, using open addressing with linear probing, so that there
+ * is no boxing, and no per entry allocation.
+ * Removals shift the entries after the removed one back into place, rather
+ * than leaving a marker behind, so lookups stay short no matter how many
+ * items have been removed.
+ * Any int can be used as an ID other than Integer.MIN_VALUE. Values must not
+ * be negative.
+ */
+public class TodoItemIdMap {
+	// Value returned for IDs which are not in the map
+	public static final int NO_VALUE = -1;
+
+	// Key marking an empty entry
+	private static final int EMPTY = Integer.MIN_VALUE;
+
+	private int[] mKeys;
+	private int[] mValues;
+	private int mSize = 0;
+
+	// The table size is 1 << mBits, and grows once it is half full
+	private int mBits;
+
+	public TodoItemIdMap() {
+		allocate(4);
+	}
+
+	/*
+	 * Get the value for an ID.
+	 * @return The value, or NO_VALUE if the ID is not in the map.
+	 */
+	public int get(int id) {
+		int mask = mKeys.length - 1;
+		for (int i = indexFor(id); ; i = (i + 1) & mask) {
+			int key = mKeys[i];
+			if (key == id) {
+				return mValues[i];
+			} else if (key == EMPTY) {
+				return NO_VALUE;
+			}
+		}
+	}
+
+	/*
+	 * Set the value for an ID, replacing any value it already had.
+	 */
+	public void put(int id, int value) {
+		if (id == EMPTY) {
+			throw new IllegalArgumentException("Bad TodoItem ID: " + id);
+		}
+		int mask = mKeys.length - 1;
+		for (int i = indexFor(id); ; i = (i + 1) & mask) {
+			int key = mKeys[i];
+			if (key == id) {
+				mValues[i] = value;
+				return;
+			} else if (key == EMPTY) {
+				mKeys[i] = id;
+				mValues[i] = value;
+				if (++mSize > mKeys.length / 2) {
+					rehash(mBits + 1);
+				}
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Remove an ID from the map.
+	 * @return The value that the ID had, or NO_VALUE if it was not in the map.
+	 */
+	public int remove(int id) {
+		int mask = mKeys.length - 1;
+		int i = indexFor(id);
+		while (mKeys[i] != id) {
+			if (mKeys[i] == EMPTY) {
+				return NO_VALUE;
+			}
+			i = (i + 1) & mask;
+		}
+		int value = mValues[i];
+		--mSize;
+
+		// Shift back any following entries which can no longer be found from
+		// where they hash to with the gap at |i|.
+		int gap = i;
+		for (int j = (gap + 1) & mask; mKeys[j] != EMPTY; j = (j + 1) & mask) {
+			int home = indexFor(mKeys[j]);
+			// Can move to the gap if its home is not cyclically in (gap, j]
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				mKeys[gap] = mKeys[j];
+				mValues[gap] = mValues[j];
+				gap = j;
+			}
+		}
+		mKeys[gap] = EMPTY;
+		return value;
+	}
+
+	/*
+	 * Remove everything from the map.
+	 */
+	public void clear() {
+		Arrays.fill(mKeys, EMPTY);
+		mSize = 0;
+	}
+
+	/*
+	 * The number of IDs in the map.
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	// Where in the table to start looking for an ID
+	private int indexFor(int id) {
+		return (id * 0x9E3779B9) >>> (32 - mBits);
+	}
+
+	private void allocate(int bits) {
+		mBits = bits;
+		mKeys = new int[1 << bits];
+		mValues = new int[1 << bits];
+		Arrays.fill(mKeys, EMPTY);
+	}
+
+	private void rehash(int bits) {
+		int[] oldKeys = mKeys;
+		int[] oldValues = mValues;
+		allocate(bits);
+		int mask = mKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldKeys[i] != EMPTY) {
+				int j = indexFor(oldKeys[i]);
+				while (mKeys[j] != EMPTY) {
+					j = (j + 1) & mask;
+				}
+				mKeys[j] = oldKeys[i];
+				mValues[j] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.todolist;
+
+import java.util.Arrays;
+
+/*
+ * A map from TodoItem IDs to objects, used by the TodoItemFilteredList to
+ * find the node that each of its items is in. Built on a TodoItemIdMap from
+ * each ID to the index of its value in an array of values, so like it there
+ * is no boxing of the IDs, and no per entry allocation. The indexes of
+ * removed values are reused by the values put after them.
+ * The same IDs may be used as for TodoItemIdMap. Values must not be null.
+ */
+public class TodoItemIdObjectMap<V> {
+	private final TodoItemIdMap mIndexes = new TodoItemIdMap();
+	private Object[] mValues = new Object[16];
+
+	// The indexes in mValues which are free, as a stack, and how many of
+	// mValues have ever been used
+	private int[] mFreeIndexes = new int[16];
+	private int mFreeCount = 0;
+	private int mUsedCount = 0;
+
+	/*
+	 * Get the value for an ID.
+	 * @return The value, or null if the ID is not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int id) {
+		int index = mIndexes.get(id);
+		return (index != TodoItemIdMap.NO_VALUE) ? (V)mValues[index] : null;
+	}
+
+	/*
+	 * Set the value for an ID, replacing any value it already had.
+	 */
+	public void put(int id, V value) {
+		int index = mIndexes.get(id);
+		if (index == TodoItemIdMap.NO_VALUE) {
+			if (mFreeCount > 0) {
+				index = mFreeIndexes[--mFreeCount];
+			} else {
+				if (mUsedCount == mValues.length) {
+					mValues = Arrays.copyOf(mValues, mValues.length * 2);
+				}
+				index = mUsedCount++;
+			}
+			mIndexes.put(id, index);
+		}
+		mValues[index] = value;
+	}
+
+	/*
+	 * Remove an ID from the map.
+	 * @return The value that the ID had, or null if it was not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int id) {
+		int index = mIndexes.remove(id);
+		if (index == TodoItemIdMap.NO_VALUE) {
+			return null;
+		}
+		V value = (V)mValues[index];
+		mValues[index] = null;
+		if (mFreeCount == mFreeIndexes.length) {
+			mFreeIndexes = Arrays.copyOf(mFreeIndexes, mFreeIndexes.length * 2);
+		}
+		mFreeIndexes[mFreeCount++] = index;
+		return value;
+	}
+
+	/*
+	 * Remove everything from the map.
+	 */
+	public void clear() {
+		mIndexes.clear();
+		Arrays.fill(mValues, 0, mUsedCount, null);
+		mUsedCount = 0;
+		mFreeCount = 0;
+	}
+
+	/*
+	 * The number of IDs in the map.
+	 */
+	public int size() {
+		return mIndexes.size();
+	}
+}
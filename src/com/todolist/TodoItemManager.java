@@ -1,11 +1,29 @@
 package com.todolist;
 
 import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 /*
@@ -14,12 +32,46 @@ import android.util.Log;
  * Notifies subscribed listeners when the underlying data set changes,
  * or when there is a failure to correctly operate on the underlying
  * data set.
+ * In write-behind mode, saves are written out on a background thread,
+ * with all of the saves made within a short window being written
+ * together. flush() waits for them to be written.
+ * The manager may be used from more than one thread. Changes to it are
+ * made one at a time, under a lock. Listeners are called on the thread
+ * making the change, after it has released the lock, so they may use the
+ * manager themselves. They are called for one change at a time, in order:
+ * if another thread is already calling them, it dispatches the change too,
+ * and a change made by a listener is dispatched once the listener returns.
+ * getTodoItemList never waits on the lock, it returns an immutable snapshot
+ * of the list as of the last change. The items in the snapshot are the
+ * managed items themselves, not copies, see getTodoItemList.
  */
 public class TodoItemManager {
+	// Default window over which to collect saves in write-behind mode
+	public static final long DEFAULT_WRITE_BEHIND_DELAY = 500;
+	
+	// The single background thread which does the writing for write-behind mode
+	private static final ScheduledExecutorService sWriter = Executors.newSingleThreadScheduledExecutor();
+	
+	// Default time over which to collect changes in frame dispatch mode, about
+	// one frame at 60 frames a second
+	public static final long DEFAULT_FRAME_DELAY = 16;
+	
+	// Number of items to publish at a time while streaming in the list
+	public static final int LOAD_BATCH_SIZE = 100;
+	
+	// The single background thread which streams in lists
+	private static final ExecutorService sLoader = Executors.newSingleThreadExecutor();
+	
+	// Number of times that any TodoItemManager has loaded in the full list of
+	// items from its data store, for measuring how many loads navigating 
+	// around the app causes.
+	private static final AtomicInteger sFullLoadCount = new AtomicInteger();
+	
 	/*
 	 * Listeners interfaces for objects that wish
 	 * to subscribe to IO failed or data updated
-	 * notifications.
+	 * notifications. UpdatedListeners are just told that something changed,
+	 * ChangeListeners are also told what changed.
 	 */
 	public interface IOFailedListener {
 		public void onIOFailed();
@@ -27,21 +79,117 @@ public class TodoItemManager {
 	public interface UpdatedListener {
 		public void onUpdated();
 	}
+	public interface ChangeListener {
+		public void onChanged(TodoItemChangeEvent event);
+	}
+	
+	// Lock held while changing any of the items state below
+	private final Object mItemsLock = new Object();
+	
+	// My TodoItem records, in list order. Removing an item leaves a null slot
+	// in its place, so that removals don't shift the rest of the list, and the
+	// slots are compacted once enough of them are empty.
+	private TodoItemVector mTodoItemSlots = TodoItemVector.EMPTY;
+	private int mRemovedSlotCount = 0;
+	
+	// The snapshot of the list handed out by getTodoItemList, published after
+	// each change
+	private final AtomicReference<List<TodoItem>> mPublishedList = 
+			new AtomicReference<List<TodoItem>>(new ItemListSnapshot(TodoItemVector.EMPTY));
+	
+	// The slot that each item is in, by ID
+	private TodoItemIdMap mSlotsById = new TodoItemIdMap();
 	
-	// My TodoItem records
-	private ArrayList<TodoItem> mTodoItemList = new ArrayList<TodoItem>();
+	// Which slots have items in them, and the done and archived flags of 
+	// those items, so that items can be counted and selected by their flags
+	// without looking at each item. The flags are as of when the items were
+	// added or last marked dirty.
+	private BitSet mUsedSlots = new BitSet();
+	private BitSet mDoneSlots = new BitSet();
+	private BitSet mArchivedSlots = new BitSet();
 	private int mNextTodoItemId = 0; // Unique ID that the next item to be created will use
 	
 	// True if IO has failed for this TodoItemManager. Data from it cannot
 	// be trusted once this flag is true.
-	private boolean mFailed = false;
+	private volatile boolean mFailed = false;
 	
 	// The data source to read / write records using
 	private TodoItemDataStore mTodoDataStore;
 	
+	// The data store modification stamp that my list of items is up to date
+	// with, or -1 if the full list hasn't been loaded. Updated by my own saves
+	// from the writer thread, so that they don't make the list look stale.
+	private final AtomicLong mLoadedStamp = new AtomicLong(-1);
+	
+	// The streaming load in progress, if there is one
+	private StreamingLoad mStreamingLoad;
+	
+	// The items that have changed, and the IDs of the items that have been
+	// removed, since the last load / save. The next save writes only these
+	// to the data store.
+	private LinkedHashSet<TodoItem> mDirtyItems = new LinkedHashSet<TodoItem>();
+	private LinkedHashSet<Integer> mRemovedItemIds = new LinkedHashSet<Integer>();
+	
+	// Write-behind state. When enabled, saved changes are queued up, and a 
+	// write of them is scheduled on the writer thread. Access to the queue and
+	// the scheduled write is synchronized on mWriteQueueLock.
+	private boolean mIsWriteBehind = false;
+	private long mWriteBehindDelay;
+	private Handler mMainHandler;
+	private final Object mWriteQueueLock = new Object();
+	private LinkedHashMap<Integer, TodoItem> mQueuedChangedItems = new LinkedHashMap<Integer, TodoItem>();
+	private LinkedHashSet<Integer> mQueuedRemovedItemIds = new LinkedHashSet<Integer>();
+	private ScheduledFuture<?> mScheduledWrite;
+	private final Runnable mWriteQueuedTask = new Runnable() {
+		public void run() {
+			writeQueuedChanges();
+		}
+	};
+	
 	// Listeners on my updated and failed events
-	private List<IOFailedListener> mIOFailedListeners = new ArrayList<IOFailedListener>();
-	private List<UpdatedListener> mUpdatedListeners = new ArrayList<UpdatedListener>();
+	private List<IOFailedListener> mIOFailedListeners = new CopyOnWriteArrayList<IOFailedListener>();
+	private List<UpdatedListener> mUpdatedListeners = new CopyOnWriteArrayList<UpdatedListener>();
+	private List<ChangeListener> mChangeListeners = new CopyOnWriteArrayList<ChangeListener>();
+	
+	// The live filtered views of my items, updated before notifying listeners
+	private List<TodoItemFilteredList> mFilteredLists = new CopyOnWriteArrayList<TodoItemFilteredList>();
+	
+	// The changes waiting to be dispatched to the filtered lists and
+	// listeners once mItemsLock is released, whether the IOFailed listeners
+	// are waiting to be notified, and whether a thread is dispatching them.
+	private final ArrayDeque<TodoItemChangeEvent> mPendingChanges = new ArrayDeque<TodoItemChangeEvent>();
+	private boolean mIsIOFailedPending = false;
+	private boolean mIsDispatching = false;
+	
+	// Index of the words in my items, made by the first search. While it is
+	// being built, the changes made in the meantime, to bring it up to date
+	// with once it is built. Only one thread builds it, under mSearchIndexLock.
+	private TodoItemSearchIndex mSearchIndex;
+	private TodoItemChangeEvent.Builder mSearchIndexChanges;
+	private final Object mSearchIndexLock = new Object();
+	
+	// The depth of nested batches, the changes made during the batch, and
+	// whether a save was asked for during it
+	private int mBatchDepth = 0;
+	private TodoItemChangeEvent.Builder mBatchChanges;
+	private boolean mBatchSaveRequested;
+	
+	// Frame dispatch state. When enabled, the changes made since the last
+	// dispatch, which is scheduled on the UI thread when the first of them
+	// is made.
+	private boolean mIsFrameDispatch = false;
+	private long mFrameDelay;
+	private TodoItemChangeEvent.Builder mFrameChanges;
+	private final Runnable mDispatchFrameTask = new Runnable() {
+		public void run() {
+			dispatchChanges();
+		}
+	};
+	private final Runnable mDispatchPendingTask = new Runnable() {
+		public void run() {
+			dispatchPendingChanges();
+		}
+	};
 
 	/*
 	 * Constructor
@@ -52,52 +200,615 @@ public class TodoItemManager {
 		mTodoDataStore = dataStore;
 	}
 	
+	/*
+	 * Switch to write-behind mode, where saveTodoItemList does not write
+	 * to the data store right away. Instead, the changes are written out 
+	 * on a background thread, together with those from any other saves made
+	 * within |delay| milliseconds. Must be called from the UI thread, IOFailed
+	 * listeners will be notified on it.
+	 * @param delay How long to collect saves for before writing them.
+	 */
+	public void enableWriteBehind(long delay) {
+		mIsWriteBehind = true;
+		mWriteBehindDelay = delay;
+		getMainHandler();
+	}
+	
+	/*
+	 * Switch to frame dispatch mode, where the filtered lists and the change
+	 * and updated listeners are not told about changes right away. Instead,
+	 * the changes made within |delay| milliseconds of the first one are
+	 * merged into a single change, which is dispatched on the UI thread, so
+	 * that listeners refresh at most once a frame however many changes are
+	 * made. getTodoItemList and the other queries see changes right away.
+	 * The filtered lists and listeners are then only ever updated and called
+	 * on the UI thread, even for changes made on other threads.
+	 * Must be called from the UI thread.
+	 * @param delay How long to collect changes for before dispatching them.
+	 */
+	public void enableFrameDispatch(long delay) {
+		mIsFrameDispatch = true;
+		mFrameDelay = delay;
+		getMainHandler();
+	}
+	
+	/*
+	 * In frame dispatch mode, dispatch any changes that haven't been yet,
+	 * without waiting for the end of the frame. Does nothing otherwise.
+	 */
+	public void dispatchChanges() {
+		synchronized (mItemsLock) {
+			if (mFrameChanges == null) {
+				return;
+			}
+			TodoItemChangeEvent.Builder changes = mFrameChanges;
+			mFrameChanges = null;
+			mMainHandler.removeCallbacks(mDispatchFrameTask);
+			mPendingChanges.add(changes.build());
+		}
+		dispatchPendingChanges();
+	}
+	
+	// Get the handler for posting to the UI thread
+	private Handler getMainHandler() {
+		if (mMainHandler == null) {
+			mMainHandler = new Handler(Looper.getMainLooper());
+		}
+		return mMainHandler;
+	}
+	
+	/*
+	 * In write-behind mode, write out any saves that haven't been yet, and
+	 * wait for them to be written. Does nothing otherwise.
+	 */
+	public void flush() {
+		if (!mIsWriteBehind) {
+			return;
+		}
+		synchronized (mWriteQueueLock) {
+			if (mScheduledWrite != null) {
+				mScheduledWrite.cancel(false);
+				mScheduledWrite = null;
+			}
+		}
+		
+		// The writer runs one write at a time, so once this one is done, any
+		// write that had already started is done as well.
+		try {
+			sWriter.submit(mWriteQueuedTask).get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			System.out.println("Flushing list items failed: " + ex.getMessage());
+		}
+	}
+	
 	/*
 	 * Load in a new copy of the TodoItems from the data source.
+	 * If the full list is already loaded, and nothing has been saved to the
+	 * data source since other than by this TodoItemManager, the load is
+	 * skipped, as the list is already up to date.
 	 * Will notify any IOFailure listeners if the items are unable
 	 * to be read, otherwise, it will notify any of the updated
 	 * listeners.
 	 * In the case of a failure the exposed item list is left empty.
 	 */
 	public void loadTodoItemList() {
-		// Clear out the current, likely out of date data
-		mTodoItemList.clear();
+		long startTime = System.currentTimeMillis();
+		
+		// This load replaces any streaming load
+		cancelLoadTodoItemList();
+		
+		// Make sure that our own saves have been written before reading
+		flush();
+		
+		synchronized (mItemsLock) {
+			try {
+				long stamp = mTodoDataStore.getModificationStamp();
+				if (stamp == mLoadedStamp.get()) {
+					Log.i("test", "Todo Item List (" + getItemCount() + ") is up to date, skipping load");
+					return;
+				}
+			
+				// Clear out the current, out of date data
+				clearItems();
+				clearChanges();
+			
+				// Add all of the items to our list, tracking what ID to give the next
+				// added item.
+				for (TodoItem item: mTodoDataStore.loadTodoItems()) {
+					appendItem(item);
+					mNextTodoItemId = Math.max(mNextTodoItemId, item.getId() + 1);
+				}
+				mNextTodoItemId = Math.max(mNextTodoItemId, mTodoDataStore.getNextTodoItemId());
+				mLoadedStamp.set(stamp);
+				sFullLoadCount.incrementAndGet();
+			
+				// Notify listeners
+				notifyChanged(TodoItemChangeEvent.reload());
+			} catch (IOException e) {
+				mFailed = true;
+				System.out.printf("Loading list items failed: " + e.getMessage());
+			
+				// Leave the todo list empty
+				clearItems();
+				clearChanges();
+				mLoadedStamp.set(-1);
+			
+				// Notify listeners of the failed load
+				notifyIOFailed();
+			}
+			Log.i("test", "Load Todo Item List (" + getItemCount() + ") in " + 
+					(System.currentTimeMillis() - startTime) + "ms, full load #" + sFullLoadCount.get());
+		}
+		dispatchPendingChanges();
+	}
+	
+	/*
+	 * Start loading in a new copy of the TodoItems from the data source,
+	 * streaming them in on a background thread. The list is emptied, and the
+	 * items are then added to it a batch at a time, notifying the updated 
+	 * listeners after each batch, so that the first items can be shown while
+	 * the rest are still loading. Items may be added to the list while it is
+	 * loading, and are kept after the loaded items, in ID order. Must be
+	 * called from the UI thread, which the list is updated on.
+	 * Like loadTodoItemList, does nothing if the list is already up to date.
+	 * Will notify any IOFailure listeners if the items are unable to be read,
+	 * in which case the exposed item list is left empty.
+	 */
+	public void startLoadTodoItemList() {
+		// This load replaces any streaming load, and any of our own saves need
+		// to have been written before reading
+		cancelLoadTodoItemList();
+		flush();
+		
 		try {
-			// Add all of the items to our list, tracking what ID to give the next
-			// added item.
-			for (TodoItem item: mTodoDataStore.loadTodoItems()) {
-				mTodoItemList.add(item);
+			synchronized (mItemsLock) {
+				long stamp;
+				try {
+					stamp = mTodoDataStore.getModificationStamp();
+					if (stamp == mLoadedStamp.get()) {
+						Log.i("test", "Todo Item List (" + getItemCount() + ") is up to date, skipping load");
+						return;
+					}
+					mNextTodoItemId = Math.max(mNextTodoItemId, mTodoDataStore.getNextTodoItemId());
+				} catch (IOException e) {
+					failStreamingLoad(e);
+					return;
+				}
+				
+				// Clear out the current, out of date data
+				clearItems();
+				clearChanges();
+				mLoadedStamp.set(-1);
+				notifyChanged(TodoItemChangeEvent.reload());
+				
+				mStreamingLoad = new StreamingLoad(stamp);
+				sLoader.execute(mStreamingLoad);
+			}
+		} finally {
+			// Including the failure, if there was one
+			dispatchPendingChanges();
+		}
+	}
+	
+	/*
+	 * Stop any streaming load in progress. The items loaded so far are left
+	 * in the list, which the next load will reload in full.
+	 */
+	public void cancelLoadTodoItemList() {
+		synchronized (mItemsLock) {
+			if (mStreamingLoad != null) {
+				mStreamingLoad.mCancelled = true;
+				mStreamingLoad = null;
+			}
+		}
+	}
+	
+	/*
+	 * Whether a streaming load is in progress.
+	 */
+	public boolean isLoadingTodoItemList() {
+		synchronized (mItemsLock) {
+			return mStreamingLoad != null;
+		}
+	}
+	
+	/*
+	 * A streaming load of the list. The items are read on the loader thread,
+	 * and then added to the list on the UI thread, as long as the load hasn't
+	 * been cancelled or replaced by then.
+	 */
+	private class StreamingLoad implements Runnable, TodoItemDataStore.LoadListener {
+		private final long mStamp;
+		private final long mStartTime = System.currentTimeMillis();
+		private volatile boolean mCancelled = false;
+		
+		StreamingLoad(long stamp) {
+			mStamp = stamp;
+		}
+		
+		// Run on the loader thread
+		public void run() {
+			try {
+				mTodoDataStore.loadTodoItems(this, LOAD_BATCH_SIZE);
+				getMainHandler().post(new Runnable() {
+					public void run() {
+						finishStreamingLoad(StreamingLoad.this);
+					}
+				});
+			} catch (final IOException e) {
+				getMainHandler().post(new Runnable() {
+					public void run() {
+						synchronized (mItemsLock) {
+							if (mStreamingLoad == StreamingLoad.this) {
+								mStreamingLoad = null;
+								failStreamingLoad(e);
+							}
+						}
+						dispatchPendingChanges();
+					}
+				});
+			}
+		}
+		public boolean onItemsLoaded(final List<TodoItem> items) {
+			if (mCancelled) {
+				return false;
+			}
+			getMainHandler().post(new Runnable() {
+				public void run() {
+					addLoadedItems(StreamingLoad.this, items);
+				}
+			});
+			return true;
+		}
+	}
+	
+	// Add a batch of streamed in items to the list, on the UI thread
+	private void addLoadedItems(StreamingLoad load, List<TodoItem> items) {
+		synchronized (mItemsLock) {
+			if (mStreamingLoad != load) {
+				// Cancelled or replaced
+				return;
+			}
+			// Leave out any items which were loaded on their own in the meantime
+			ArrayList<TodoItem> newItems = new ArrayList<TodoItem>(items.size());
+			for (TodoItem item: items) {
+				if (mSlotsById.get(item.getId()) == TodoItemIdMap.NO_VALUE) {
+					newItems.add(item);
+				}
 				mNextTodoItemId = Math.max(mNextTodoItemId, item.getId() + 1);
 			}
-			
-			// Notify listeners
-			notifyUpdated();
-		} catch (IOException e) {
+			if (newItems.isEmpty()) {
+				return;
+			}
+			// Any items added since the load started have higher IDs than the
+			// loaded ones, and stay after them
+			insertItems(newItems);
+			notifyChanged(TodoItemChangeEvent.inserted(newItems));
+		}
+		dispatchPendingChanges();
+	}
+	
+	// Finish a streaming load, on the UI thread
+	private void finishStreamingLoad(StreamingLoad load) {
+		synchronized (mItemsLock) {
+			if (mStreamingLoad != load) {
+				return;
+			}
+			mStreamingLoad = null;
+			mLoadedStamp.set(load.mStamp);
+			sFullLoadCount.incrementAndGet();
+			Log.i("test", "Streamed Todo Item List (" + getItemCount() + ") in " + 
+					(System.currentTimeMillis() - load.mStartTime) + "ms, full load #" + sFullLoadCount.get());
+		}
+	}
+	
+	// Handle a streaming load failing, leaving the list empty
+	private void failStreamingLoad(IOException e) {
+		synchronized (mItemsLock) {
 			mFailed = true;
-			System.out.printf("Loading list items failed: " + e.getMessage());
-			
-			// Notify listeners of the failed load
+			System.out.println("Loading list items failed: " + e.getMessage());
+			clearItems();
+			clearChanges();
+			mLoadedStamp.set(-1);
 			notifyIOFailed();
-			
-			// Leave the todo list empty
 		}
-		Log.i("test", "Load Todo Item List (" + mTodoItemList.size() + ")");
+		dispatchPendingChanges();
+	}
+	
+	/*
+	 * Get how many times TodoItemManagers have loaded in the full list of
+	 * items from their data stores, not counting skipped loads.
+	 */
+	public static int getFullLoadCount() {
+		return sFullLoadCount.get();
+	}
+	
+	/*
+	 * Load in only a single TodoItem from the data source, for users that
+	 * only need to work with that item, without loading in the rest of the
+	 * list. The item is added to the items already in the list, which are
+	 * left as they are, so this is safe to call on a manager which is shared
+	 * with other users. If the list already has the item, or the full list is
+	 * loaded and up to date, nothing is loaded. Either way, items added
+	 * afterwards will get IDs that do not collide with any of the items in
+	 * the data source.
+	 * Notifies listeners that the item was inserted, or the IOFailed 
+	 * listeners if it could not be read.
+	 * @param id The ID of the item to load.
+	 */
+	public void loadTodoItem(int id) {
+		// Make sure that our own saves have been written before reading
+		flush();
+		
+		synchronized (mItemsLock) {
+			try {
+				mNextTodoItemId = Math.max(mNextTodoItemId, mTodoDataStore.getNextTodoItemId());
+				if (mSlotsById.get(id) != TodoItemIdMap.NO_VALUE 
+						|| mTodoDataStore.getModificationStamp() == mLoadedStamp.get()) {
+					return;
+				}
+				TodoItem item = mTodoDataStore.loadTodoItem(id);
+				if (item != null) {
+					insertItems(Collections.singletonList(item));
+				
+					// Notify listeners
+					notifyChanged(TodoItemChangeEvent.inserted(id));
+				}
+			} catch (IOException e) {
+				mFailed = true;
+				System.out.println("Loading list item failed: " + e.getMessage());
+				notifyIOFailed();
+			}
+		}
+		dispatchPendingChanges();
+	}
+	
+	/*
+	 * Load in only the TodoItems with the given flags from the data source,
+	 * such as the items shown on one of the pages, without loading in the
+	 * rest of the list. As with loadTodoItem, the items are added to the
+	 * items already in the list, which are left as they are. If the full
+	 * list is loaded and up to date, nothing is loaded, and the items are
+	 * picked out of it by their flags. The TodoItemSQLiteDataStore finds the
+	 * items using its indexes on the flags, while the TodoItemFileDataStore
+	 * has to read through all of them.
+	 * Notifies listeners of the inserted items, or the IOFailed listeners if
+	 * they could not be read.
+	 * @param archived Whether to get archived or non-archived items, or null
+	 *                 for either.
+	 * @param done     Whether to get done or not done items, or null for
+	 *                 either.
+	 * @return A new list of the managed items with those flags, in list order.
+	 */
+	public List<TodoItem> queryTodoItems(Boolean archived, Boolean done) {
+		// Make sure that our own saves have been written before reading
+		flush();
+		
+		List<TodoItem> items;
+		synchronized (mItemsLock) {
+			try {
+				mNextTodoItemId = Math.max(mNextTodoItemId, mTodoDataStore.getNextTodoItemId());
+				if (mTodoDataStore.getModificationStamp() != mLoadedStamp.get()) {
+					// Leave out the items which the list already has, which may
+					// have changes that haven't been saved yet
+					ArrayList<TodoItem> newItems = new ArrayList<TodoItem>();
+					for (TodoItem item: mTodoDataStore.queryTodoItems(archived, done)) {
+						if (mSlotsById.get(item.getId()) == TodoItemIdMap.NO_VALUE) {
+							newItems.add(item);
+						}
+					}
+					if (!newItems.isEmpty()) {
+						insertItems(newItems);
+						notifyChanged(TodoItemChangeEvent.inserted(newItems));
+					}
+				}
+			} catch (IOException e) {
+				mFailed = true;
+				System.out.println("Loading list items failed: " + e.getMessage());
+				notifyIOFailed();
+			}
+			items = getTodoItems(archived, done);
+		}
+		dispatchPendingChanges();
+		return items;
+	}
+	
+	/*
+	 * Start loading the bodies of some items in the background, such as for
+	 * items that are about to be shown, so that they are ready when asked for.
+	 * @param items    The items to load the bodies of.
+	 * @param onLoaded Run on the main thread once the bodies are loaded, if
+	 *                 any of them had to be, or null.
+	 */
+	public void prefetchTodoItemBodies(List<TodoItem> items, final Runnable onLoaded) {
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		for (TodoItem item: items) {
+			if (!item.isBodyLoaded()) {
+				ids.add(item.getId());
+			}
+		}
+		if (!ids.isEmpty()) {
+			final Handler mainHandler = getMainHandler();
+			mTodoDataStore.prefetchTodoItemBodies(ids, (onLoaded == null) ? null : new Runnable() {
+				public void run() {
+					mainHandler.post(onLoaded);
+				}
+			});
+		}
+	}
+	
+	/*
+	 * Start a batch of changes. Until the matching endBatch, the change
+	 * listeners are not notified of the changes, and saveTodoItemList does
+	 * not save them, and getTodoItemList returns the list as it was before
+	 * the batch. At the end of the batch, the listeners are notified of all
+	 * of the changes at once, and they are saved in a single write if there
+	 * was a save during the batch. Batches may be nested, in which case only
+	 * the end of the outermost one does anything.
+	 * Changes made by other threads during the batch are included in it.
+	 */
+	public void beginBatch() {
+		synchronized (mItemsLock) {
+			if (mBatchDepth++ == 0) {
+				mBatchChanges = new TodoItemChangeEvent.Builder();
+				mBatchSaveRequested = false;
+			}
+		}
+	}
+	
+	/*
+	 * End a batch of changes started by beginBatch.
+	 */
+	public void endBatch() {
+		synchronized (mItemsLock) {
+			if (mBatchDepth == 0) {
+				throw new IllegalStateException("endBatch without a beginBatch");
+			}
+			if (--mBatchDepth > 0) {
+				return;
+			}
+			TodoItemChangeEvent.Builder changes = mBatchChanges;
+			mBatchChanges = null;
+			if (!changes.isEmpty()) {
+				notifyChanged(changes.build());
+			}
+			if (mBatchSaveRequested) {
+				saveTodoItemList();
+			}
+		}
+		dispatchPendingChanges();
+	}
+	
+	/*
+	 * Make a batch of changes, as with beginBatch / endBatch.
+	 * @param changes Makes the changes.
+	 */
+	public void runBatch(Runnable changes) {
+		beginBatch();
+		try {
+			changes.run();
+		} finally {
+			endBatch();
+		}
 	}
 	
 	/*
 	 * Save out the items that we are currently working with to the data store.
+	 * Only the items that were marked dirty, added, or removed since the last 
+	 * load / save are written, and if there are none, nothing is written.
 	 * Notifies any IOFailure listeners in the case of a to write to the data store.
 	 * The record list is left unsaved but as it was before in the case of failure.
 	 */
 	public void saveTodoItemList() {
-		Log.i("test", "Save Todo Item List (" + mTodoItemList.size() + ")");
+		synchronized (mItemsLock) {
+			if (mBatchDepth > 0) {
+				// Save once at the end of the batch instead
+				mBatchSaveRequested = true;
+				return;
+			}
+			if (mDirtyItems.isEmpty() && mRemovedItemIds.isEmpty()) {
+				return;
+			}
+			Log.i("test", "Save Todo Item List (" + getItemCount() + ", " + 
+					mDirtyItems.size() + " changed, " + mRemovedItemIds.size() + " removed)");
+			if (mIsWriteBehind) {
+				queueWrite();
+				return;
+			}
+			try {
+				// Write out the changes to my list of items
+				savedStamp(mTodoDataStore.saveTodoItemChanges(mDirtyItems, mRemovedItemIds));
+				clearChanges();
+			} catch (IOException ex) {
+				mFailed = true;
+				System.out.println("Saving list items failed: " + ex.getMessage());
+				notifyIOFailed();
+			}
+		}
+		dispatchPendingChanges();
+	}
+	
+	// Called with the stamp that a save of my own changes resulted in. If
+	// my list was up to date before the save, it still is after it.
+	private void savedStamp(long stamp) {
+		mLoadedStamp.compareAndSet(stamp - 1, stamp);
+	}
+	
+	// Forget about the changes since the last load / save
+	private void clearChanges() {
+		mDirtyItems.clear();
+		mRemovedItemIds.clear();
+	}
+	
+	/*
+	 * Queue up the changes to be written out by the writer thread, scheduling
+	 * a write if there isn't one yet. Changes to the same item since the last
+	 * write are merged together.
+	 */
+	private void queueWrite() {
+		synchronized (mWriteQueueLock) {
+			// Capture the current state of the items, since they may change
+			// again before the write happens.
+			for (TodoItem item: mDirtyItems) {
+				mQueuedChangedItems.put(item.getId(), new TodoItem(item));
+			}
+			for (Integer id: mRemovedItemIds) {
+				mQueuedChangedItems.remove(id);
+				mQueuedRemovedItemIds.add(id);
+			}
+			clearChanges();
+			if (mScheduledWrite == null) {
+				mScheduledWrite = sWriter.schedule(mWriteQueuedTask, mWriteBehindDelay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	/*
+	 * Write out all of the queued changes. Run on the writer thread.
+	 * On failure, the changes are put back in the queue, to be tried again
+	 * by the next write, and the IOFailed listeners are notified on the UI thread.
+	 */
+	private void writeQueuedChanges() {
+		LinkedHashMap<Integer, TodoItem> changedItems;
+		LinkedHashSet<Integer> removedItemIds;
+		synchronized (mWriteQueueLock) {
+			changedItems = mQueuedChangedItems;
+			removedItemIds = mQueuedRemovedItemIds;
+			mQueuedChangedItems = new LinkedHashMap<Integer, TodoItem>();
+			mQueuedRemovedItemIds = new LinkedHashSet<Integer>();
+			mScheduledWrite = null;
+		}
+		if (changedItems.isEmpty() && removedItemIds.isEmpty()) {
+			return;
+		}
 		try {
-			// Save my current list of items
-			mTodoDataStore.saveTodoItems(mTodoItemList);
+			savedStamp(mTodoDataStore.saveTodoItemChanges(changedItems.values(), removedItemIds));
 		} catch (IOException ex) {
-			mFailed = true;
 			System.out.println("Saving list items failed: " + ex.getMessage());
-			notifyIOFailed();
+			synchronized (mWriteQueueLock) {
+				// Anything queued since is newer than what failed
+				for (Integer id: mQueuedChangedItems.keySet()) {
+					changedItems.remove(id);
+				}
+				changedItems.putAll(mQueuedChangedItems);
+				for (Integer id: mQueuedRemovedItemIds) {
+					changedItems.remove(id);
+				}
+				removedItemIds.addAll(mQueuedRemovedItemIds);
+				mQueuedChangedItems = changedItems;
+				mQueuedRemovedItemIds = removedItemIds;
+			}
+			mMainHandler.post(new Runnable() {
+				public void run() {
+					synchronized (mItemsLock) {
+						mFailed = true;
+						notifyIOFailed();
+					}
+					dispatchPendingChanges();
+				}
+			});
 		}
 	}
 	
@@ -110,11 +821,77 @@ public class TodoItemManager {
 	
 	/*
 	 * Get a READONLY list of TodoItem records that this TodoItemManager 
-	 * is managing.
+	 * is managing. The list is a snapshot, later changes to the managed list
+	 * are not seen in it, so it may be used from any thread. The items are in
+	 * ID order.
+	 * The items themselves are not copied though, they are the managed items,
+	 * which setTodoItemDone and the other setters change in place. So a reader
+	 * on another thread may see an item which has changed since the snapshot
+	 * was taken, or is part way through a change, such as a new title with
+	 * the old body. The change listeners are notified of each such change
+	 * once it is complete, for readers to look at the item again then. Copy
+	 * an item on the thread that changes it to keep it as it was.
 	 * @return A list of the TodoItem records.
 	 */
 	public List<TodoItem> getTodoItemList() {
-		return Collections.unmodifiableList(mTodoItemList);
+		return mPublishedList.get();
+	}
+	
+	/*
+	 * An immutable snapshot of the list of items. Shares the vector of slots
+	 * that it was taken from, skipping the empty slots left by removed items,
+	 * which the vector's counts of the items in each node let it index past
+	 * without looking at them.
+	 */
+	private static class ItemListSnapshot extends AbstractList<TodoItem> {
+		private final TodoItemVector mSlots;
+		
+		ItemListSnapshot(TodoItemVector slots) {
+			mSlots = slots;
+		}
+		
+		@Override
+		public TodoItem get(int index) {
+			return mSlots.getPresent(index);
+		}
+		
+		@Override
+		public int size() {
+			return mSlots.count();
+		}
+		
+		@Override
+		public Iterator<TodoItem> iterator() {
+			// Iterate over the slots, so that each step is just a look at the
+			// next slot
+			return new Iterator<TodoItem>() {
+				private int mNextSlot = findSlot(0);
+				
+				private int findSlot(int slot) {
+					while (slot < mSlots.size() && mSlots.get(slot) == null) {
+						++slot;
+					}
+					return slot;
+				}
+				
+				public boolean hasNext() {
+					return mNextSlot < mSlots.size();
+				}
+				
+				public TodoItem next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					TodoItem item = mSlots.get(mNextSlot);
+					mNextSlot = findSlot(mNextSlot + 1);
+					return item;
+				}
+				
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
 	}
 	
 	/*
@@ -123,11 +900,123 @@ public class TodoItemManager {
 	 * @return The TodoItem with that ID, or null if there was none
 	 */
 	public TodoItem getTodoItemById(int id) {
-		for (TodoItem item: mTodoItemList) {
-			if (item.getId() == id)
-				return item;
+		synchronized (mItemsLock) {
+			int slot = mSlotsById.get(id);
+			return (slot != TodoItemIdMap.NO_VALUE) ? mTodoItemSlots.get(slot) : null;
 		}
-		return null;
+	}
+	
+	/*
+	 * Count the managed items with the given flags, without looking at each
+	 * item. Uses the flags that the items had when they were added or last
+	 * marked dirty.
+	 * @param archived Whether to count archived or non-archived items, or
+	 *                 null for either.
+	 * @param done     Whether to count done or not done items, or null for
+	 *                 either.
+	 * @return The number of items with those flags.
+	 */
+	public int countTodoItems(Boolean archived, Boolean done) {
+		synchronized (mItemsLock) {
+			return selectSlots(archived, done).cardinality();
+		}
+	}
+	
+	/*
+	 * Get the managed items with the given flags, in list order, in the same
+	 * way as countTodoItems.
+	 * @return A new list of the items with those flags.
+	 */
+	public List<TodoItem> getTodoItems(Boolean archived, Boolean done) {
+		synchronized (mItemsLock) {
+			BitSet slots = selectSlots(archived, done);
+			ArrayList<TodoItem> items = new ArrayList<TodoItem>(slots.cardinality());
+			for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+				items.add(mTodoItemSlots.get(slot));
+			}
+			return items;
+		}
+	}
+	
+	/*
+	 * Search the managed items for the words in a query, such as while the
+	 * user types it. The first search builds an index of the words in the
+	 * titles and bodies of all of the items, which means loading all of their
+	 * bodies, and the index is kept up to date as the items change after that.
+	 * The index is built without holding the lock, so that other threads can
+	 * carry on changing the items meanwhile.
+	 * @param query The words to search for. Each word matches any word that
+	 *              it is a prefix of, ignoring case.
+	 * @return A new list of the items matching all of the words, in list
+	 *         order, or of all items if the query has no words.
+	 */
+	public List<TodoItem> searchTodoItems(String query) {
+		buildSearchIndex();
+		synchronized (mItemsLock) {
+			BitSet ids = mSearchIndex.search(query);
+			if (ids == null) {
+				return new ArrayList<TodoItem>(getTodoItemList());
+			}
+			ArrayList<TodoItem> items = new ArrayList<TodoItem>(ids.cardinality());
+			for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+				TodoItem item = getTodoItemById(id);
+				if (item != null) {
+					items.add(item);
+				}
+			}
+			return items;
+		}
+	}
+	
+	// Build the search index if it hasn't been yet. It is built from a
+	// snapshot of the items, without holding mItemsLock, while the changes
+	// made in the meantime are collected, and is then brought up to date
+	// with those under the lock.
+	private void buildSearchIndex() {
+		synchronized (mSearchIndexLock) {
+			List<TodoItem> items;
+			synchronized (mItemsLock) {
+				if (mSearchIndex != null) {
+					return;
+				}
+				mSearchIndexChanges = new TodoItemChangeEvent.Builder();
+				items = getTodoItemList();
+			}
+			long startTime = System.currentTimeMillis();
+			TodoItemSearchIndex index = new TodoItemSearchIndex();
+			for (TodoItem item: items) {
+				index.add(item);
+			}
+			synchronized (mItemsLock) {
+				mSearchIndex = index;
+				if (!mSearchIndexChanges.isEmpty()) {
+					updateSearchIndex(mSearchIndexChanges.build());
+				}
+				mSearchIndexChanges = null;
+			}
+			Log.i("test", "Built search index (" + index.getWordCount() + " words) in " + 
+					(System.currentTimeMillis() - startTime) + "ms");
+		}
+	}
+	
+	// Get the slots holding items with the given flags
+	private BitSet selectSlots(Boolean archived, Boolean done) {
+		BitSet slots = (BitSet)mUsedSlots.clone();
+		if (archived != null) {
+			if (archived) {
+				slots.and(mArchivedSlots);
+			} else {
+				slots.andNot(mArchivedSlots);
+			}
+		}
+		if (done != null) {
+			if (done) {
+				slots.and(mDoneSlots);
+			} else {
+				slots.andNot(mDoneSlots);
+			}
+		}
+		return slots;
 	}
 	
 	/*
@@ -137,10 +1026,90 @@ public class TodoItemManager {
 	 * @param item The item to mark as dirty.
 	 */
 	public void markTodoItemDirty(TodoItem item) {
-		// Just notify updated for now. In the future we could be more smart
-		// and provide info about which items updated in the update notification
-		// but for now we don't need to.
-		notifyUpdated();
+		markTodoItemDirty(item, TodoItemChangeEvent.CHANGE_ALL);
+	}
+	
+	/*
+	 * Mark a given TodoItem as dirty, saying what kind of change was made
+	 * to it, so that change listeners only have to deal with that.
+	 * @param item  The item to mark as dirty.
+	 * @param kinds The TodoItemChangeEvent.CHANGE_* flags for what changed.
+	 */
+	public void markTodoItemDirty(TodoItem item, int kinds) {
+		synchronized (mItemsLock) {
+			// Remember to write out the item's new state
+			mDirtyItems.add(item);
+			
+			// Update it's flags, if it's in the list
+			int slot = mSlotsById.get(item.getId());
+			if (slot != TodoItemIdMap.NO_VALUE && mTodoItemSlots.get(slot) == item) {
+				setSlotFlags(slot, item);
+			}
+			
+			// Notify listeners
+			notifyChanged(TodoItemChangeEvent.changed(item.getId(), kinds));
+		}
+		dispatchPendingChanges();
+	}
+	
+	/*
+	 * Set whether an item is done, marking it dirty only if that changes
+	 * it, so that setting it to what it already is doesn't notify the
+	 * listeners or need a save.
+	 * @param item The item to change.
+	 * @param done Whether the item is done.
+	 * @return Whether the item was changed.
+	 */
+	public boolean setTodoItemDone(TodoItem item, boolean done) {
+		synchronized (mItemsLock) {
+			if (item.isDone() == done) {
+				return false;
+			}
+			item.setDone(done);
+			markTodoItemDirty(item, TodoItemChangeEvent.CHANGE_DONE);
+		}
+		dispatchPendingChanges();
+		return true;
+	}
+	
+	/*
+	 * Set whether an item is archived, marking it dirty only if that
+	 * changes it, like setTodoItemDone.
+	 * @param item     The item to change.
+	 * @param archived Whether the item is archived.
+	 * @return Whether the item was changed.
+	 */
+	public boolean setTodoItemArchived(TodoItem item, boolean archived) {
+		synchronized (mItemsLock) {
+			if (item.isArchived() == archived) {
+				return false;
+			}
+			item.setArchived(archived);
+			markTodoItemDirty(item, TodoItemChangeEvent.CHANGE_ARCHIVED);
+		}
+		dispatchPendingChanges();
+		return true;
+	}
+	
+	/*
+	 * Set the title and body of an item, marking it dirty only if that
+	 * changes it, like setTodoItemDone.
+	 * @param item  The item to change.
+	 * @param title The new title.
+	 * @param body  The new body.
+	 * @return Whether the item was changed.
+	 */
+	public boolean setTodoItemContent(TodoItem item, String title, String body) {
+		synchronized (mItemsLock) {
+			if (item.getTitle().equals(title) && item.getBody().equals(body)) {
+				return false;
+			}
+			item.setTitle(title);
+			item.setBody(body);
+			markTodoItemDirty(item, TodoItemChangeEvent.CHANGE_CONTENT);
+		}
+		dispatchPendingChanges();
+		return true;
 	}
 	
 	/*
@@ -150,12 +1119,16 @@ public class TodoItemManager {
 	 * @param item The item to add.
 	 */
 	public void addTodoItem(TodoItem item) {
-		// Add the item
-		item.setId(mNextTodoItemId++);
-		mTodoItemList.add(item);
-		
-		// Notify listeners
-		notifyUpdated();
+		synchronized (mItemsLock) {
+			// Add the item
+			item.setId(mNextTodoItemId++);
+			appendItem(item);
+			mDirtyItems.add(item);
+			
+			// Notify listeners
+			notifyChanged(TodoItemChangeEvent.inserted(item.getId()));
+		}
+		dispatchPendingChanges();
 	}
 	
 	/*
@@ -164,11 +1137,13 @@ public class TodoItemManager {
 	 * @param item The item to remove.
 	 */
 	public void removeTodoItem(TodoItem item) {
-		// Remove the item
-		mTodoItemList.remove(item);
-		
-		// Notify the listeners
-		notifyUpdated();
+		synchronized (mItemsLock) {
+			// Remove the item, if it is the one that we have with its ID
+			if (getTodoItemById(item.getId()) == item) {
+				removeTodoItemById(item.getId());
+			}
+		}
+		dispatchPendingChanges();
 	}
 	
 	/*
@@ -178,32 +1153,333 @@ public class TodoItemManager {
 	 * @see removeTodoItem
 	 */
 	public void removeTodoItemById(int id) {
-		// Iterate and find items with the ID
-		Iterator<TodoItem> it = mTodoItemList.iterator();
-		while (it.hasNext()) {
-			TodoItem item = it.next();
-			if (item.getId() == id) {
-				it.remove();
-				break;
+		synchronized (mItemsLock) {
+			// Find the item with the ID
+			TodoItem item = removeItem(id);
+			if (item != null) {
+				mDirtyItems.remove(item);
+				mRemovedItemIds.add(id);
+			
+				// Notify the listeners
+				notifyChanged(TodoItemChangeEvent.removed(id));
 			}
 		}
+		dispatchPendingChanges();
+	}
+	
+	// Utility functions to change the list of items, keeping the slots by
+	// ID up to date.
+	private void clearItems() {
+		mTodoItemSlots = TodoItemVector.EMPTY;
+		mRemovedSlotCount = 0;
+		mSlotsById.clear();
+		mUsedSlots.clear();
+		mDoneSlots.clear();
+		mArchivedSlots.clear();
+		publishItems();
+	}
+	private void appendItem(TodoItem item) {
+		int slot = mTodoItemSlots.size();
+		mSlotsById.put(item.getId(), slot);
+		mTodoItemSlots = mTodoItemSlots.append(item);
+		mUsedSlots.set(slot);
+		setSlotFlags(slot, item);
+	}
+	// Add items, which are in ID order, to the list in ID order. The items
+	// almost always have higher IDs than any already in the list, and are
+	// just appended, otherwise the items with higher IDs are moved to after
+	// them.
+	private void insertItems(List<TodoItem> items) {
+		int firstId = items.get(0).getId();
+		ArrayList<TodoItem> movedItems = new ArrayList<TodoItem>();
+		for (int slot = mTodoItemSlots.size() - 1; slot >= 0; --slot) {
+			TodoItem item = mTodoItemSlots.get(slot);
+			if (item != null) {
+				if (item.getId() < firstId) {
+					break;
+				}
+				movedItems.add(item);
+			}
+		}
+		if (movedItems.isEmpty()) {
+			for (TodoItem item: items) {
+				appendItem(item);
+			}
+			return;
+		}
 		
-		// Notify the listeners
-		notifyUpdated();
+		// Take the moved items out, and merge them back in with the new ones
+		Collections.reverse(movedItems);
+		for (TodoItem item: movedItems) {
+			removeItem(item.getId());
+		}
+		int i = 0;
+		int j = 0;
+		while (i < items.size() || j < movedItems.size()) {
+			if (j == movedItems.size() || (i < items.size() && items.get(i).getId() < movedItems.get(j).getId())) {
+				appendItem(items.get(i++));
+			} else {
+				appendItem(movedItems.get(j++));
+			}
+		}
+	}
+	private void setSlotFlags(int slot, TodoItem item) {
+		mDoneSlots.set(slot, item.isDone());
+		mArchivedSlots.set(slot, item.isArchived());
+	}
+	private TodoItem removeItem(int id) {
+		int slot = mSlotsById.remove(id);
+		if (slot == TodoItemIdMap.NO_VALUE) {
+			return null;
+		}
+		++mRemovedSlotCount;
+		TodoItem item = mTodoItemSlots.get(slot);
+		mTodoItemSlots = mTodoItemSlots.set(slot, null);
+		mUsedSlots.clear(slot);
+		mDoneSlots.clear(slot);
+		mArchivedSlots.clear(slot);
+		
+		// Don't let the removed slots pile up if the list isn't being looked at
+		if (mRemovedSlotCount > mTodoItemSlots.size() / 2) {
+			compactSlots();
+		}
+		return item;
+	}
+	private int getItemCount() {
+		return mTodoItemSlots.size() - mRemovedSlotCount;
+	}
+	
+	// Close up the slots left by removed items
+	private void compactSlots() {
+		if (mRemovedSlotCount == 0) {
+			return;
+		}
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>(getItemCount());
+		for (int i = 0; i < mTodoItemSlots.size(); ++i) {
+			TodoItem item = mTodoItemSlots.get(i);
+			if (item != null) {
+				int slot = items.size();
+				if (slot != i) {
+					mSlotsById.put(item.getId(), slot);
+					mDoneSlots.set(slot, mDoneSlots.get(i));
+					mArchivedSlots.set(slot, mArchivedSlots.get(i));
+				}
+				items.add(item);
+			}
+		}
+		int count = items.size();
+		int oldCount = mTodoItemSlots.size();
+		mTodoItemSlots = TodoItemVector.of(items);
+		mRemovedSlotCount = 0;
+		mUsedSlots.set(0, count);
+		mUsedSlots.clear(count, oldCount);
+		mDoneSlots.clear(count, oldCount);
+		mArchivedSlots.clear(count, oldCount);
 	}
 	
-	// Utility function to notify updated / failed listeners.
-	private void notifyUpdated() {
+	// Publish a new snapshot of the list for getTodoItemList
+	private void publishItems() {
+		mPublishedList.set(new ItemListSnapshot(mTodoItemSlots));
+	}
+	
+	// Utility functions to notify change / updated / failed listeners. They
+	// are called with mItemsLock held, and queue up the notification, which
+	// is dispatched by dispatchPendingChanges once the lock is released.
+	private void notifyChanged(TodoItemChangeEvent event) {
+		if (mBatchDepth > 0) {
+			// Notified of once at the end of the batch instead
+			mBatchChanges.add(event);
+			return;
+		}
+		publishItems();
+		if (mSearchIndex != null) {
+			updateSearchIndex(event);
+		} else if (mSearchIndexChanges != null) {
+			// Caught up with once the index is built
+			mSearchIndexChanges.add(event);
+		}
+		if (mIsFrameDispatch) {
+			// Dispatched along with any other changes made this frame
+			if (mFrameChanges == null) {
+				mFrameChanges = new TodoItemChangeEvent.Builder();
+				mMainHandler.postDelayed(mDispatchFrameTask, mFrameDelay);
+			}
+			mFrameChanges.add(event);
+			return;
+		}
+		mPendingChanges.add(event);
+	}
+	private void notifyIOFailed() {
+		mIsIOFailedPending = true;
+	}
+	
+	// Dispatch the queued up changes and failure, to be called after
+	// releasing mItemsLock. Does nothing if called with the lock still held,
+	// from within another change, which dispatches them once it releases it,
+	// or while another thread is dispatching, which dispatches them after the
+	// ones before them. In frame dispatch mode, they are only dispatched on the
+	// UI thread, which other threads hand them off to.
+	private void dispatchPendingChanges() {
+		if (Thread.holdsLock(mItemsLock)) {
+			return;
+		}
+		synchronized (mItemsLock) {
+			if (mIsDispatching) {
+				return;
+			}
+			if (mIsFrameDispatch && Looper.myLooper() != Looper.getMainLooper()) {
+				if (!mPendingChanges.isEmpty() || mIsIOFailedPending) {
+					mMainHandler.post(mDispatchPendingTask);
+				}
+				return;
+			}
+			mIsDispatching = true;
+		}
+		boolean isDone = false;
+		try {
+			while (!isDone) {
+				TodoItemChangeEvent event = null;
+				boolean isIOFailed = false;
+				synchronized (mItemsLock) {
+					if (!mPendingChanges.isEmpty()) {
+						event = mPendingChanges.removeFirst();
+					} else if (mIsIOFailedPending) {
+						mIsIOFailedPending = false;
+						isIOFailed = true;
+					} else {
+						mIsDispatching = false;
+						isDone = true;
+					}
+				}
+				if (event != null) {
+					dispatchChanged(event);
+				} else if (isIOFailed) {
+					for (IOFailedListener listener: mIOFailedListeners) {
+						listener.onIOFailed();
+					}
+				}
+			}
+		} finally {
+			if (!isDone) {
+				// A listener threw, leave the rest for the next dispatch
+				synchronized (mItemsLock) {
+					mIsDispatching = false;
+				}
+			}
+		}
+	}
+	
+	// Update the filtered lists for a change, and notify the listeners of it
+	private void dispatchChanged(TodoItemChangeEvent event) {
+		for (TodoItemFilteredList list: mFilteredLists) {
+			if (event.isReload()) {
+				rebuildFilteredList(list);
+			} else {
+				list.update(event, this);
+			}
+		}
+		for (ChangeListener listener: mChangeListeners) {
+			listener.onChanged(event);
+		}
 		for (UpdatedListener listener: mUpdatedListeners) {
 			listener.onUpdated();
 		}
 	}
-	private void notifyIOFailed() {
-		for (IOFailedListener listener: mIOFailedListeners) {
-			listener.onIOFailed();
+	
+	// Update the search index for the items that a change event says have
+	// changed. Only changes to what the items say need them to be re-indexed.
+	private void updateSearchIndex(TodoItemChangeEvent event) {
+		if (event.isReload()) {
+			mSearchIndex.clear();
+			for (TodoItem item: getTodoItemList()) {
+				mSearchIndex.add(item);
+			}
+			return;
+		}
+		for (int id: event.getRemovedIds()) {
+			mSearchIndex.remove(id);
+		}
+		int[] changedIds = event.getChangedIds();
+		for (int i = 0; i < changedIds.length; ++i) {
+			if ((event.getChangeKinds(i) & TodoItemChangeEvent.CHANGE_CONTENT) != 0) {
+				TodoItem item = getTodoItemById(changedIds[i]);
+				if (item != null) {
+					mSearchIndex.add(item);
+				}
+			}
+		}
+		for (int id: event.getInsertedIds()) {
+			TodoItem item = getTodoItemById(id);
+			if (item != null) {
+				mSearchIndex.add(item);
+			}
+		}
+	}
+	
+	/*
+	 * Make a live view of the managed items which pass a filter, which is
+	 * kept up to date as the items change until it is unregistered.
+	 * @param filter The filter for which items to include.
+	 * @return The view, in ID order.
+	 */
+	public TodoItemFilteredList registerFilteredList(TodoItemFilteredList.Filter filter) {
+		return registerFilteredList(filter, TodoItemSkipList.SORT_BY_ID);
+	}
+	
+	/*
+	 * Make a live view of the managed items which pass a filter, sorted, and
+	 * kept in order as the items change until it is unregistered.
+	 * @param filter    The filter for which items to include.
+	 * @param sortOrder One of the TodoItemSkipList.SORT_BY_* orders.
+	 * @return The view.
+	 */
+	public TodoItemFilteredList registerFilteredList(TodoItemFilteredList.Filter filter, int sortOrder) {
+		synchronized (mItemsLock) {
+			TodoItemFilteredList list = new TodoItemFilteredList(filter, sortOrder);
+			rebuildFilteredList(list);
+			mFilteredLists.add(list);
+			return list;
+		}
+	}
+	
+	// Rebuild a filtered list from all of the items. If the list just filters
+	// by flags, then only the items with those flags need to be looked at.
+	private void rebuildFilteredList(TodoItemFilteredList list) {
+		if (list.getFilter() instanceof TodoItemFilteredList.FlagFilter) {
+			TodoItemFilteredList.FlagFilter filter = (TodoItemFilteredList.FlagFilter)list.getFilter();
+			list.rebuild(getTodoItems(filter.getArchived(), filter.getDone()));
+		} else {
+			list.rebuild(getTodoItemList());
+		}
+	}
+	
+	/*
+	 * Stop keeping a filtered view up to date.
+	 * @param list The view to stop updating.
+	 */
+	public void unregisterFilteredList(TodoItemFilteredList list) {
+		synchronized (mItemsLock) {
+			mFilteredLists.remove(list);
 		}
 	}
 	
+	/*
+	 * Add a change listener to be called with what changed when the managed
+	 * list changes. Change listeners are called before updated listeners.
+	 * @param listener The listener to add.
+	 */
+	public void addChangeListener(ChangeListener listener) {
+		mChangeListeners.add(listener);
+	}
+	
+	/*
+	 * Remove a change listener.
+	 * @param listener The listener to remove.
+	 */
+	public void removeChangeListener(ChangeListener listener) {
+		mChangeListeners.remove(listener);
+	}
+	
 	/*
 	 * Add an updated listener to be called when the managed list changes.
 	 * @param listener The listener to add.
@@ -227,4 +1503,12 @@ public class TodoItemManager {
 	public void addLoadFailedListener(IOFailedListener listener) {
 		mIOFailedListeners.add(listener);
 	}
+	
+	/*
+	 * Remove an IOFailed listener.
+	 * @param listener The listener to remove.
+	 */
+	public void removeLoadFailedListener(IOFailedListener listener) {
+		mIOFailedListeners.remove(listener);
+	}
 }
@@ -0,0 +1,140 @@
+package com.todolist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/*
+ * The list of items found by searching a TodoItemManager, filtered and
+ * sorted for showing in a TodoListFragment, worked out on a background
+ * thread rather than on the UI thread.
+ * Each request to rebuild the list gets a new generation number, and only
+ * the result for the newest generation is published, on the UI thread.
+ * Requesting a rebuild cancels any older one which is still in flight. The
+ * owner requests a rebuild whenever the manager's items change, so a
+ * published list always matches the items as they are when it is published.
+ * Requests and published results are on the UI thread.
+ */
+public class TodoItemProjection {
+	/*
+	 * Listener told when a new list has been published.
+	 */
+	public interface Listener {
+		public void onPublished(List<TodoItem> items);
+	}
+
+	// The single background thread which does the rebuilds
+	private static final ExecutorService sProjector = Executors.newSingleThreadExecutor();
+
+	private final TodoItemManager mItemManager;
+	private final Listener mListener;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+	// The generation of the newest request, and the rebuild doing it
+	private volatile int mGeneration = 0;
+	private Future<?> mRebuild;
+
+	// The newest published list
+	private List<TodoItem> mItems = Collections.emptyList();
+
+	/*
+	 * Constructor.
+	 * @param itemManager The TodoItemManager to search.
+	 * @param listener    Listener to tell when a new list is published.
+	 */
+	public TodoItemProjection(TodoItemManager itemManager, Listener listener) {
+		mItemManager = itemManager;
+		mListener = listener;
+	}
+
+	/*
+	 * Rebuild the list in the background, replacing any rebuild which hasn't
+	 * finished yet.
+	 * @param query     The words to search for.
+	 * @param filter    Which of the found items to include.
+	 * @param sortOrder One of the TodoItemSkipList.SORT_BY_* orders.
+	 */
+	public void request(final String query, final TodoItemFilteredList.Filter filter, final int sortOrder) {
+		cancel();
+		final int generation = mGeneration;
+		mRebuild = sProjector.submit(new Runnable() {
+			public void run() {
+				final List<TodoItem> items = build(generation, query, filter, sortOrder);
+				if (items == null) {
+					return;
+				}
+				mMainHandler.post(new Runnable() {
+					public void run() {
+						publish(generation, items);
+					}
+				});
+			}
+		});
+	}
+
+	/*
+	 * Cancel any rebuild in flight, so that it's result is never published.
+	 */
+	public void cancel() {
+		++mGeneration;
+		if (mRebuild != null) {
+			mRebuild.cancel(false);
+			mRebuild = null;
+		}
+	}
+
+	/*
+	 * Get the newest published list.
+	 */
+	public List<TodoItem> getItems() {
+		return mItems;
+	}
+
+	// Build the list, on the background thread. Gives up and returns null
+	// if a newer request has been made in the meantime.
+	private List<TodoItem> build(int generation, String query, TodoItemFilteredList.Filter filter, int sortOrder) {
+		List<TodoItem> found = mItemManager.searchTodoItems(query);
+		if (generation != mGeneration) {
+			return null;
+		}
+
+		// The search finds items in ID order, put them in the sort order if
+		// it is a different one.
+		TodoItemSkipList sorted = null;
+		if (sortOrder != TodoItemSkipList.SORT_BY_ID) {
+			sorted = new TodoItemSkipList(sortOrder);
+		}
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		for (TodoItem item: found) {
+			if (filter.filter(item)) {
+				if (sorted != null) {
+					sorted.add(item);
+				} else {
+					items.add(item);
+				}
+			}
+		}
+		if (sorted != null) {
+			for (TodoItem item: sorted) {
+				items.add(item);
+			}
+		}
+		return (generation == mGeneration) ? items : null;
+	}
+
+	// Publish a built list, on the UI thread, if it is still the newest
+	private void publish(int generation, List<TodoItem> items) {
+		if (generation != mGeneration) {
+			return;
+		}
+		mRebuild = null;
+		mItems = Collections.unmodifiableList(items);
+		mListener.onPublished(mItems);
+	}
+}
@@ -0,0 +1,520 @@
+package com.todolist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import android.util.LruCache;
+
+/*
+ * A TodoItemDataStore that saves TodoItems to an SQLite database, with one
+ * row per item. Saving a change to an item only updates that item's row.
+ * The done, archived, and created columns are indexed, so that the items with
+ * some given flags can be queried for without reading the rest.
+ * The list order of the items is the order of their IDs, which is the order
+ * that they were added in.
+ * Items are loaded without their bodies, which are only read when first asked
+ * for (or prefetched in the background), and kept in a bounded cache.
+ * The items saved by another data store, such as the save file used before
+ * the database, can be moved over with migrateFrom.
+ */
+public class TodoItemSQLiteDataStore implements TodoItemDataStore {
+	public static final String DEFAULT_DATABASE = "todo_items.db";
+	private static final int DATABASE_VERSION = 1;
+
+	// The table of items, and its columns
+	private static final String TABLE_ITEMS = "todo_items";
+	private static final String COLUMN_ID = "_id";
+	private static final String COLUMN_CREATED = "created";
+	private static final String COLUMN_TITLE = "title";
+	private static final String COLUMN_BODY = "body";
+	private static final String COLUMN_DONE = "done";
+	private static final String COLUMN_ARCHIVED = "archived";
+
+	// The columns loaded for an item, everything but the body
+	private static final String[] ITEM_COLUMNS = {
+		COLUMN_ID, COLUMN_CREATED, COLUMN_TITLE, COLUMN_DONE, COLUMN_ARCHIVED
+	};
+
+	// The table of other saved values, and the keys in it: the next unused ID,
+	// and whether migrateFrom has been done
+	private static final String TABLE_META = "todo_meta";
+	private static final String META_NEXT_ID = "next_id";
+	private static final String META_MIGRATED = "migrated";
+
+	// How many characters of TodoItem bodies to keep cached per database
+	private static final int BODY_CACHE_SIZE = 256 * 1024;
+
+	// Single background thread used to prefetch TodoItem bodies
+	private static final ExecutorService sPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+	/*
+	 * Creates the database, and opens it allowing reads to go on at the same
+	 * time as a write.
+	 */
+	private static class OpenHelper extends SQLiteOpenHelper {
+		OpenHelper(Context ctx, String databaseName) {
+			super(ctx, databaseName, null, DATABASE_VERSION);
+		}
+
+		@Override
+		public void onCreate(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + TABLE_ITEMS + " ("
+					+ COLUMN_ID + " INTEGER PRIMARY KEY, "
+					+ COLUMN_CREATED + " INTEGER NOT NULL, "
+					+ COLUMN_TITLE + " TEXT NOT NULL, "
+					+ COLUMN_BODY + " TEXT NOT NULL, "
+					+ COLUMN_DONE + " INTEGER NOT NULL, "
+					+ COLUMN_ARCHIVED + " INTEGER NOT NULL)");
+			db.execSQL("CREATE INDEX " + TABLE_ITEMS + "_archived ON " + TABLE_ITEMS
+					+ " (" + COLUMN_ARCHIVED + ", " + COLUMN_ID + ")");
+			db.execSQL("CREATE INDEX " + TABLE_ITEMS + "_done ON " + TABLE_ITEMS
+					+ " (" + COLUMN_DONE + ", " + COLUMN_ID + ")");
+			db.execSQL("CREATE INDEX " + TABLE_ITEMS + "_created ON " + TABLE_ITEMS
+					+ " (" + COLUMN_CREATED + ")");
+			db.execSQL("CREATE TABLE " + TABLE_META + " (key TEXT PRIMARY KEY, value INTEGER NOT NULL)");
+			db.execSQL("INSERT INTO " + TABLE_META + " VALUES ('" + META_NEXT_ID + "', 0)");
+		}
+
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			// There is only the one version so far
+		}
+
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+			if (!db.isReadOnly()) {
+				db.enableWriteAheadLogging();
+			}
+		}
+	}
+
+	/*
+	 * The open state of one database. Shared by all of the
+	 * TodoItemSQLiteDataStores on that database.
+	 */
+	private static class DatabaseState {
+		OpenHelper mOpenHelper;
+
+		// Bumped every time that the items in the database are changed. Only
+		// changed inside of a write transaction, so changes are in order.
+		final AtomicLong mModificationStamp = new AtomicLong();
+
+		// Recently used item bodies, by ID
+		final LruCache<Integer, String> mBodyCache = new LruCache<Integer, String>(BODY_CACHE_SIZE) {
+			@Override
+			protected int sizeOf(Integer id, String body) {
+				return body.length() + 1;
+			}
+		};
+	}
+	private static final HashMap<String, DatabaseState> sDatabaseStates = new HashMap<String, DatabaseState>();
+
+	private DatabaseState mState;
+
+	// Approximate number of bytes that this data store has written, counting
+	// the size of the values written, but not SQLite's own overhead.
+	private final AtomicLong mBytesWritten = new AtomicLong();
+
+	// Given to the items loaded without their bodies, to get them from here
+	private final TodoItem.BodySource mBodySource = new TodoItem.BodySource() {
+		public String getBody(int id) {
+			try {
+				return loadTodoItemBody(id);
+			} catch (IOException ex) {
+				System.out.println("Loading list item body failed: " + ex.getMessage());
+				return "";
+			}
+		}
+		public String getCachedBody(int id) {
+			return mState.mBodyCache.get(id);
+		}
+	};
+
+	/*
+	 * Constructor
+	 * @param ctx          The context to open the database in.
+	 * @param databaseName The name of the database to save / load using.
+	 */
+	public TodoItemSQLiteDataStore(Context ctx, String databaseName) {
+		synchronized (sDatabaseStates) {
+			mState = sDatabaseStates.get(databaseName);
+			if (mState == null) {
+				mState = new DatabaseState();
+				mState.mOpenHelper = new OpenHelper(ctx.getApplicationContext(), databaseName);
+				sDatabaseStates.put(databaseName, mState);
+			}
+		}
+	}
+
+	/*
+	 * Saves a collection of TodoItems, replacing all of the rows.
+	 */
+	public long saveTodoItems(Collection<TodoItem> items) throws IOException {
+		// Get the bodies of any items which don't have them loaded before
+		// their rows are gone.
+		ArrayList<String> bodies = new ArrayList<String>(items.size());
+		for (TodoItem item: items) {
+			bodies.add(item.getBody());
+		}
+
+		try {
+			SQLiteDatabase db = mState.mOpenHelper.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				db.delete(TABLE_ITEMS, null, null);
+				SQLiteStatement insert = compileInsert(db);
+				int nextId = 0;
+				int i = 0;
+				for (TodoItem item: items) {
+					insertItem(insert, item, bodies.get(i++));
+					nextId = Math.max(nextId, item.getId() + 1);
+				}
+				updateNextId(db, nextId);
+				mState.mBodyCache.evictAll();
+				long stamp = mState.mModificationStamp.incrementAndGet();
+				db.setTransactionSuccessful();
+				return stamp;
+			} finally {
+				db.endTransaction();
+			}
+		} catch (SQLiteException ex) {
+			throw new IOException("Saving Todo Items failed: " + ex.getMessage());
+		}
+	}
+
+	/*
+	 * Saves changes to individual TodoItems, updating or inserting their
+	 * rows, all in one transaction. Items without their body loaded have an
+	 * unchanged body, which is left as it is in their row.
+	 */
+	public long saveTodoItemChanges(Collection<TodoItem> changed, Collection<Integer> removedIds) throws IOException {
+		if (changed.isEmpty() && removedIds.isEmpty()) {
+			return getModificationStamp();
+		}
+
+		try {
+			SQLiteDatabase db = mState.mOpenHelper.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_ITEMS + " SET "
+						+ COLUMN_CREATED + " = ?, " + COLUMN_TITLE + " = ?, " + COLUMN_DONE + " = ?, "
+						+ COLUMN_ARCHIVED + " = ?, " + COLUMN_BODY + " = ? WHERE " + COLUMN_ID + " = ?");
+				SQLiteStatement updateWithoutBody = db.compileStatement("UPDATE " + TABLE_ITEMS + " SET "
+						+ COLUMN_CREATED + " = ?, " + COLUMN_TITLE + " = ?, " + COLUMN_DONE + " = ?, "
+						+ COLUMN_ARCHIVED + " = ? WHERE " + COLUMN_ID + " = ?");
+				SQLiteStatement insert = null;
+				int nextId = 0;
+				for (TodoItem item: changed) {
+					SQLiteStatement statement = item.isBodyLoaded() ? update : updateWithoutBody;
+					statement.clearBindings();
+					statement.bindLong(1, item.getCreatedTime());
+					statement.bindString(2, item.getTitle());
+					statement.bindLong(3, item.isDone() ? 1 : 0);
+					statement.bindLong(4, item.isArchived() ? 1 : 0);
+					if (item.isBodyLoaded()) {
+						statement.bindString(5, item.getBody());
+						statement.bindLong(6, item.getId());
+						mState.mBodyCache.put(item.getId(), item.getBody());
+					} else {
+						statement.bindLong(5, item.getId());
+					}
+					if (statement.executeUpdateDelete() == 0) {
+						// A new item
+						if (insert == null) {
+							insert = compileInsert(db);
+						}
+						insertItem(insert, item, item.getBody());
+					} else {
+						mBytesWritten.addAndGet(itemSize(item, item.isBodyLoaded() ? item.getBody() : ""));
+					}
+					nextId = Math.max(nextId, item.getId() + 1);
+				}
+
+				SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_ITEMS
+						+ " WHERE " + COLUMN_ID + " = ?");
+				for (Integer id: removedIds) {
+					delete.bindLong(1, id);
+					delete.executeUpdateDelete();
+					mState.mBodyCache.remove(id);
+					mBytesWritten.addAndGet(4);
+				}
+
+				updateNextId(db, nextId);
+				long stamp = mState.mModificationStamp.incrementAndGet();
+				db.setTransactionSuccessful();
+				return stamp;
+			} finally {
+				db.endTransaction();
+			}
+		} catch (SQLiteException ex) {
+			throw new IOException("Saving Todo Item changes failed: " + ex.getMessage());
+		}
+	}
+
+	/*
+	 * Copy the items saved in another data store into the database, such as
+	 * those in the save file used before there was a database. Only done the
+	 * first time that it is called on the database, and only if there are no
+	 * items in the database yet, so items deleted since do not come back. The
+	 * other data store is left as it is.
+	 * @param source The data store to copy the items from.
+	 * @return Whether any items were copied.
+	 */
+	public boolean migrateFrom(TodoItemDataStore source) throws IOException {
+		try {
+			SQLiteDatabase db = mState.mOpenHelper.getWritableDatabase();
+			if (readMeta(db, META_MIGRATED) != 0) {
+				return false;
+			}
+
+			// The copy and noting it down are one transaction, so that if the
+			// app is killed part way through, it is all done again next time.
+			boolean migrated = false;
+			db.beginTransaction();
+			try {
+				if (DatabaseUtils.queryNumEntries(db, TABLE_ITEMS) == 0) {
+					Collection<TodoItem> items = source.loadTodoItems();
+					if (!items.isEmpty()) {
+						Log.i("test", "Migrating Todo Items into the database (" + items.size() + ")");
+						saveTodoItems(items);
+						migrated = true;
+					}
+				}
+				updateNextId(db, source.getNextTodoItemId());
+				db.execSQL("INSERT OR REPLACE INTO " + TABLE_META + " VALUES (?, 1)", new Object[] {META_MIGRATED});
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			return migrated;
+		} catch (SQLiteException ex) {
+			throw new IOException("Migrating Todo Items failed: " + ex.getMessage());
+		}
+	}
+
+	/*
+	 * Loads all of the TodoItems, without their bodies.
+	 */
+	public Collection<TodoItem> loadTodoItems() throws IOException {
+		return queryTodoItems(null, null);
+	}
+
+	/*
+	 * Loads all of the TodoItems in batches, without their bodies.
+	 */
+	public void loadTodoItems(LoadListener listener, int batchSize) throws IOException {
+		try {
+			Cursor cursor = mState.mOpenHelper.getReadableDatabase().query(TABLE_ITEMS, ITEM_COLUMNS,
+					null, null, null, null, COLUMN_ID);
+			try {
+				ArrayList<TodoItem> batch = new ArrayList<TodoItem>();
+				while (cursor.moveToNext()) {
+					batch.add(readItem(cursor));
+					if (batch.size() >= batchSize) {
+						if (!listener.onItemsLoaded(batch)) {
+							return;
+						}
+						batch = new ArrayList<TodoItem>();
+					}
+				}
+				if (!batch.isEmpty()) {
+					listener.onItemsLoaded(batch);
+				}
+			} finally {
+				cursor.close();
+			}
+		} catch (SQLiteException ex) {
+			throw new IOException("Loading Todo Items failed: " + ex.getMessage());
+		}
+	}
+
+	/*
+	 * Loads the TodoItems with the given flags, without their bodies, using
+	 * the indexes on the flags.
+	 */
+	public List<TodoItem> queryTodoItems(Boolean archived, Boolean done) throws IOException {
+		StringBuilder selection = new StringBuilder();
+		ArrayList<String> selectionArgs = new ArrayList<String>();
+		if (archived != null) {
+			selection.append(COLUMN_ARCHIVED).append(" = ?");
+			selectionArgs.add(archived ? "1" : "0");
+		}
+		if (done != null) {
+			if (selection.length() > 0) {
+				selection.append(" AND ");
+			}
+			selection.append(COLUMN_DONE).append(" = ?");
+			selectionArgs.add(done ? "1" : "0");
+		}
+
+		try {
+			Cursor cursor = mState.mOpenHelper.getReadableDatabase().query(TABLE_ITEMS, ITEM_COLUMNS,
+					(selection.length() > 0) ? selection.toString() : null,
+					selectionArgs.toArray(new String[selectionArgs.size()]),
+					null, null, COLUMN_ID);
+			try {
+				ArrayList<TodoItem> items = new ArrayList<TodoItem>(cursor.getCount());
+				while (cursor.moveToNext()) {
+					items.add(readItem(cursor));
+				}
+				return items;
+			} finally {
+				cursor.close();
+			}
+		} catch (SQLiteException ex) {
+			throw new IOException("Loading Todo Items failed: " + ex.getMessage());
+		}
+	}
+
+	/*
+	 * Loads a single TodoItem, without its body.
+	 */
+	public TodoItem loadTodoItem(int id) throws IOException {
+		try {
+			Cursor cursor = mState.mOpenHelper.getReadableDatabase().query(TABLE_ITEMS, ITEM_COLUMNS,
+					COLUMN_ID + " = ?", new String[] {Integer.toString(id)}, null, null, null);
+			try {
+				return cursor.moveToNext() ? readItem(cursor) : null;
+			} finally {
+				cursor.close();
+			}
+		} catch (SQLiteException ex) {
+			throw new IOException("Loading Todo Item failed: " + ex.getMessage());
+		}
+	}
+
+	/*
+	 * Loads the body of a single TodoItem, from the body cache if it is there.
+	 */
+	public String loadTodoItemBody(int id) throws IOException {
+		String body = mState.mBodyCache.get(id);
+		if (body != null) {
+			return body;
+		}
+		try {
+			Cursor cursor = mState.mOpenHelper.getReadableDatabase().query(TABLE_ITEMS,
+					new String[] {COLUMN_BODY}, COLUMN_ID + " = ?", new String[] {Integer.toString(id)},
+					null, null, null);
+			try {
+				if (!cursor.moveToNext()) {
+					return "";
+				}
+				body = cursor.getString(0);
+			} finally {
+				cursor.close();
+			}
+		} catch (SQLiteException ex) {
+			throw new IOException("Loading Todo Item body failed: " + ex.getMessage());
+		}
+		mState.mBodyCache.put(id, body);
+		return body;
+	}
+
+	/*
+	 * Load the bodies of some TodoItems into the body cache in the background.
+	 */
+	public void prefetchTodoItemBodies(final Collection<Integer> ids, final Runnable onLoaded) {
+		sPrefetchExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					for (Integer id: ids) {
+						loadTodoItemBody(id);
+					}
+					if (onLoaded != null) {
+						onLoaded.run();
+					}
+				} catch (IOException ex) {
+					Log.w("test", "Prefetching Todo Item bodies failed: " + ex.getMessage());
+				}
+			}
+		});
+	}
+
+	/*
+	 * Get an ID that has not been used by any item saved in this data store.
+	 */
+	public int getNextTodoItemId() throws IOException {
+		try {
+			return (int)readMeta(mState.mOpenHelper.getReadableDatabase(), META_NEXT_ID);
+		} catch (SQLiteException ex) {
+			throw new IOException("Loading next Todo Item ID failed: " + ex.getMessage());
+		}
+	}
+
+	/*
+	 * Get a stamp identifying the current version of the saved items. The
+	 * stamp changes whenever any of the TodoItemSQLiteDataStores on the same
+	 * database saves a change.
+	 */
+	public long getModificationStamp() {
+		return mState.mModificationStamp.get();
+	}
+
+	/*
+	 * Get the approximate number of bytes written by this data store.
+	 */
+	public long getBytesWritten() {
+		return mBytesWritten.get();
+	}
+
+	// Create an item from the current row of a cursor over ITEM_COLUMNS
+	private TodoItem readItem(Cursor cursor) {
+		TodoItem item = new TodoItem(cursor.getInt(0), cursor.getLong(1), cursor.getString(2), null,
+				cursor.getInt(3) != 0, cursor.getInt(4) != 0);
+		item.setBodySource(mBodySource);
+		return item;
+	}
+
+	// Inserting a whole item
+	private static SQLiteStatement compileInsert(SQLiteDatabase db) {
+		return db.compileStatement("INSERT INTO " + TABLE_ITEMS + " (" + COLUMN_ID + ", "
+				+ COLUMN_CREATED + ", " + COLUMN_TITLE + ", " + COLUMN_BODY + ", "
+				+ COLUMN_DONE + ", " + COLUMN_ARCHIVED + ") VALUES (?, ?, ?, ?, ?, ?)");
+	}
+	private void insertItem(SQLiteStatement insert, TodoItem item, String body) {
+		insert.clearBindings();
+		insert.bindLong(1, item.getId());
+		insert.bindLong(2, item.getCreatedTime());
+		insert.bindString(3, item.getTitle());
+		insert.bindString(4, body);
+		insert.bindLong(5, item.isDone() ? 1 : 0);
+		insert.bindLong(6, item.isArchived() ? 1 : 0);
+		insert.executeInsert();
+		mBytesWritten.addAndGet(itemSize(item, body));
+	}
+
+	// Read one of the saved values, which are 0 until they are first set
+	private static long readMeta(SQLiteDatabase db, String key) {
+		Cursor cursor = db.rawQuery("SELECT value FROM " + TABLE_META + " WHERE key = ?", new String[] {key});
+		try {
+			return cursor.moveToNext() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	// Make sure that the saved next unused ID is at least |nextId|
+	private static void updateNextId(SQLiteDatabase db, int nextId) {
+		db.execSQL("UPDATE " + TABLE_META + " SET value = MAX(value, ?) WHERE key = ?",
+				new Object[] {nextId, META_NEXT_ID});
+	}
+
+	// Approximate size of the values of a row
+	private static int itemSize(TodoItem item, String body) {
+		return 4 + 8 + 2 + item.getTitle().length() + body.length();
+	}
+}
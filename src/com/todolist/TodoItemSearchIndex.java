@@ -0,0 +1,189 @@
+package com.todolist;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/*
+ * An inverted index of the words in the titles and bodies of TodoItems, for
+ * searching the items as the user types. Kept by the TodoItemManager, which
+ * updates it as items are added, edited and removed.
+ * Words are runs of letters and digits, and are matched ignoring case. Each
+ * word in a query matches any indexed word that it is a prefix of, and an
+ * item matches the query if it matches all of the query's words.
+ */
+public class TodoItemSearchIndex {
+	/*
+	 * The IDs of the items containing a word, in ID order.
+	 */
+	private static class Postings {
+		final String mWord;
+		int[] mIds = new int[2];
+		int mSize = 0;
+
+		Postings(String word) {
+			mWord = word;
+		}
+
+		void add(int id) {
+			// Items are almost always added in ID order, so check the end first
+			int position = (mSize == 0 || mIds[mSize - 1] < id) ? mSize : find(id);
+			if (position < mSize && mIds[position] == id) {
+				return;
+			}
+			if (mSize == mIds.length) {
+				int[] ids = new int[mSize * 2];
+				System.arraycopy(mIds, 0, ids, 0, mSize);
+				mIds = ids;
+			}
+			System.arraycopy(mIds, position, mIds, position + 1, mSize - position);
+			mIds[position] = id;
+			++mSize;
+		}
+
+		void remove(int id) {
+			int position = find(id);
+			if (position < mSize && mIds[position] == id) {
+				System.arraycopy(mIds, position + 1, mIds, position, mSize - position - 1);
+				--mSize;
+			}
+		}
+
+		// The position of the first ID not less than |id|
+		private int find(int id) {
+			int low = 0;
+			int high = mSize;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (mIds[mid] < id) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+
+	// The postings for each word, sorted by word for prefix lookups
+	private final TreeMap<String, Postings> mPostingsByWord = new TreeMap<String, Postings>();
+
+	// The postings that each item was added to, so that it can be removed
+	// from them again once it has been edited.
+	private final HashMap<Integer, Postings[]> mPostingsById = new HashMap<Integer, Postings[]>();
+
+	/*
+	 * Add an item to the index, or re-index it if it is already there.
+	 */
+	void add(TodoItem item) {
+		remove(item.getId());
+		String[] words = splitWords(item.getTitle() + " " + item.getBody());
+		if (words.length == 0) {
+			return;
+		}
+		Postings[] itemPostings = new Postings[words.length];
+		for (int i = 0; i < words.length; ++i) {
+			Postings postings = mPostingsByWord.get(words[i]);
+			if (postings == null) {
+				postings = new Postings(words[i]);
+				mPostingsByWord.put(words[i], postings);
+			}
+			postings.add(item.getId());
+			itemPostings[i] = postings;
+		}
+		mPostingsById.put(item.getId(), itemPostings);
+	}
+
+	/*
+	 * Remove an item from the index, if it is there.
+	 */
+	void remove(int id) {
+		Postings[] itemPostings = mPostingsById.remove(id);
+		if (itemPostings == null) {
+			return;
+		}
+		for (Postings postings: itemPostings) {
+			postings.remove(id);
+			if (postings.mSize == 0) {
+				mPostingsByWord.remove(postings.mWord);
+			}
+		}
+	}
+
+	/*
+	 * Remove everything from the index.
+	 */
+	void clear() {
+		mPostingsByWord.clear();
+		mPostingsById.clear();
+	}
+
+	/*
+	 * Find the items matching a query.
+	 * @param query The words to search for.
+	 * @return The IDs of the matching items, or null if the query has no
+	 *         words in it, and so matches everything.
+	 */
+	BitSet search(String query) {
+		BitSet matches = null;
+		for (String word: splitWords(query)) {
+			// Every word that |word| is a prefix of sorts between it and it
+			// followed by the highest char.
+			BitSet wordMatches = new BitSet();
+			for (Postings postings: mPostingsByWord.subMap(word, word + Character.MAX_VALUE).values()) {
+				for (int i = 0; i < postings.mSize; ++i) {
+					wordMatches.set(postings.mIds[i]);
+				}
+			}
+			if (matches == null) {
+				matches = wordMatches;
+			} else {
+				matches.and(wordMatches);
+			}
+			if (matches.isEmpty()) {
+				break;
+			}
+		}
+		return matches;
+	}
+
+	/*
+	 * Get the number of distinct words in the index.
+	 */
+	public int getWordCount() {
+		return mPostingsByWord.size();
+	}
+
+	/*
+	 * Get the number of (word, item) entries in the index.
+	 */
+	public int getPostingCount() {
+		int count = 0;
+		for (Postings postings: mPostingsByWord.values()) {
+			count += postings.mSize;
+		}
+		return count;
+	}
+
+	// Split text into its distinct lower case words
+	private static String[] splitWords(String text) {
+		LinkedHashSet<String> words = null;
+		int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length; ++i) {
+			boolean isWordChar = (i < length) && Character.isLetterOrDigit(text.charAt(i));
+			if (isWordChar && start < 0) {
+				start = i;
+			} else if (!isWordChar && start >= 0) {
+				if (words == null) {
+					words = new LinkedHashSet<String>();
+				}
+				words.add(text.substring(start, i).toLowerCase(Locale.US));
+				start = -1;
+			}
+		}
+		return (words == null) ? new String[0] : words.toArray(new String[words.size()]);
+	}
+}
@@ -0,0 +1,275 @@
+package com.todolist;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/*
+ * A list of TodoItems kept in a sort order, used by TodoItemFilteredList.
+ * It is an indexable skip list: each link records how many positions it
+ * skips over, so that finding the item at a position, as well as adding and
+ * removing items, takes O(log n) time.
+ * Each node holds a copy of its item's sort key taken when it was added,
+ * since the item may have changed by the time that it needs to be removed.
+ * To move an item after a change to it, remove its node, and add a new one.
+ * It is not thread safe, and is only used on the thread that its
+ * TodoItemFilteredList is, see there.
+ */
+public class TodoItemSkipList implements Iterable<TodoItem> {
+	// The sort orders. Items with the same sort key are in ID order.
+	public static final int SORT_BY_ID = 0;      // Order added
+	public static final int SORT_BY_CREATED = 1; // Created date
+	public static final int SORT_BY_DONE = 2;    // Not done items first
+	public static final int SORT_BY_TITLE = 3;   // Title, ignoring case
+
+	private static final int MAX_LEVEL = 32;
+
+	/*
+	 * A node in the list, holding one item.
+	 */
+	public static class Node {
+		final TodoItem mItem;
+		final long mLongKey;
+		final String mStringKey;
+		final Node[] mNext;
+
+		// How many positions following each of mNext moves forward by
+		final int[] mWidth;
+
+		private Node(TodoItem item, long longKey, String stringKey, int level) {
+			mItem = item;
+			mLongKey = longKey;
+			mStringKey = stringKey;
+			mNext = new Node[level];
+			mWidth = new int[level];
+		}
+
+		public TodoItem getItem() {
+			return mItem;
+		}
+	}
+
+	private final int mSortOrder;
+	private final Random mRandom = new Random();
+	private Node mHead = new Node(null, 0, null, MAX_LEVEL);
+	private int mLevel = 1;
+	private int mSize = 0;
+
+	/*
+	 * Constructor.
+	 * @param sortOrder One of the SORT_BY_* orders.
+	 */
+	public TodoItemSkipList(int sortOrder) {
+		if (sortOrder < SORT_BY_ID || sortOrder > SORT_BY_TITLE) {
+			throw new IllegalArgumentException("Bad sort order: " + sortOrder);
+		}
+		mSortOrder = sortOrder;
+	}
+
+	public int getSortOrder() {
+		return mSortOrder;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/*
+	 * Whether the sort key of a node's item has changed since the node was
+	 * added, so that it needs to be moved.
+	 */
+	public boolean isMoved(Node node) {
+		Node current = makeNode(node.mItem, 1);
+		return current.mLongKey != node.mLongKey ||
+				(current.mStringKey != null && !current.mStringKey.equals(node.mStringKey));
+	}
+
+	/*
+	 * Add an item in it's sorted position.
+	 * @return The node holding the item.
+	 */
+	public Node add(TodoItem item) {
+		int level = randomLevel();
+		Node node = makeNode(item, level);
+
+		// Find the last node at each level before the new one, and it's rank
+		Node[] update = new Node[MAX_LEVEL];
+		int[] rank = new int[MAX_LEVEL];
+		Node x = mHead;
+		for (int i = mLevel - 1; i >= 0; --i) {
+			rank[i] = (i == mLevel - 1) ? 0 : rank[i + 1];
+			while (x.mNext[i] != null && compare(x.mNext[i], node) < 0) {
+				rank[i] += x.mWidth[i];
+				x = x.mNext[i];
+			}
+			update[i] = x;
+		}
+		if (level > mLevel) {
+			for (int i = mLevel; i < level; ++i) {
+				rank[i] = 0;
+				update[i] = mHead;
+				mHead.mWidth[i] = mSize;
+			}
+			mLevel = level;
+		}
+
+		// Link it in
+		for (int i = 0; i < level; ++i) {
+			node.mNext[i] = update[i].mNext[i];
+			update[i].mNext[i] = node;
+			node.mWidth[i] = update[i].mWidth[i] - (rank[0] - rank[i]);
+			update[i].mWidth[i] = (rank[0] - rank[i]) + 1;
+		}
+		for (int i = level; i < mLevel; ++i) {
+			++update[i].mWidth[i];
+		}
+		++mSize;
+		return node;
+	}
+
+	/*
+	 * Remove a node returned by add.
+	 */
+	public void remove(Node node) {
+		Node[] update = new Node[MAX_LEVEL];
+		Node x = mHead;
+		for (int i = mLevel - 1; i >= 0; --i) {
+			while (x.mNext[i] != null && compare(x.mNext[i], node) < 0) {
+				x = x.mNext[i];
+			}
+			update[i] = x;
+		}
+		if (update[0].mNext[0] != node) {
+			throw new IllegalArgumentException("Node is not in the list");
+		}
+		for (int i = 0; i < mLevel; ++i) {
+			if (update[i].mNext[i] == node) {
+				update[i].mWidth[i] += node.mWidth[i] - 1;
+				update[i].mNext[i] = node.mNext[i];
+			} else {
+				--update[i].mWidth[i];
+			}
+		}
+		while (mLevel > 1 && mHead.mNext[mLevel - 1] == null) {
+			--mLevel;
+		}
+		--mSize;
+	}
+
+	/*
+	 * Get the item at a position.
+	 */
+	public TodoItem get(int position) {
+		if (position < 0 || position >= mSize) {
+			throw new IndexOutOfBoundsException("Position: " + position + ", size: " + mSize);
+		}
+		int rank = position + 1;
+		int traversed = 0;
+		Node x = mHead;
+		for (int i = mLevel - 1; i >= 0; --i) {
+			while (x.mNext[i] != null && traversed + x.mWidth[i] <= rank) {
+				traversed += x.mWidth[i];
+				x = x.mNext[i];
+			}
+			if (traversed == rank) {
+				return x.mItem;
+			}
+		}
+		throw new IllegalStateException("Skip list widths are broken");
+	}
+
+	/*
+	 * Get the position of a node returned by add, by the same search as
+	 * add, adding up the positions skipped over on the way.
+	 */
+	public int indexOf(Node node) {
+		int rank = 0;
+		Node x = mHead;
+		for (int i = mLevel - 1; i >= 0; --i) {
+			while (x.mNext[i] != null && compare(x.mNext[i], node) <= 0) {
+				rank += x.mWidth[i];
+				x = x.mNext[i];
+			}
+		}
+		if (x != node) {
+			throw new IllegalArgumentException("Node is not in the list");
+		}
+		return rank - 1;
+	}
+
+	/*
+	 * Remove everything from the list.
+	 */
+	public void clear() {
+		mHead = new Node(null, 0, null, MAX_LEVEL);
+		mLevel = 1;
+		mSize = 0;
+	}
+
+	/*
+	 * Iterate over the items in order.
+	 */
+	public Iterator<TodoItem> iterator() {
+		return new Iterator<TodoItem>() {
+			private Node mNext = mHead.mNext[0];
+
+			public boolean hasNext() {
+				return mNext != null;
+			}
+
+			public TodoItem next() {
+				if (mNext == null) {
+					throw new NoSuchElementException();
+				}
+				TodoItem item = mNext.mItem;
+				mNext = mNext.mNext[0];
+				return item;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	// Make a node for an item, with it's current sort key
+	private Node makeNode(TodoItem item, int level) {
+		switch (mSortOrder) {
+		case SORT_BY_CREATED:
+			return new Node(item, item.getCreatedTime(), null, level);
+		case SORT_BY_DONE:
+			return new Node(item, item.isDone() ? 1 : 0, null, level);
+		case SORT_BY_TITLE:
+			return new Node(item, 0, item.getTitle().toLowerCase(Locale.getDefault()), level);
+		default:
+			return new Node(item, 0, null, level);
+		}
+	}
+
+	// Compare nodes by their sort keys, then by ID
+	private static int compare(Node a, Node b) {
+		if (a.mLongKey != b.mLongKey) {
+			return (a.mLongKey < b.mLongKey) ? -1 : 1;
+		}
+		if (a.mStringKey != null) {
+			int result = a.mStringKey.compareTo(b.mStringKey);
+			if (result != 0) {
+				return result;
+			}
+		}
+		int aId = a.mItem.getId();
+		int bId = b.mItem.getId();
+		return (aId < bId) ? -1 : ((aId == bId) ? 0 : 1);
+	}
+
+	// Pick how many levels a new node is linked into, each level with a
+	// quarter of the nodes of the one below it
+	private int randomLevel() {
+		int level = 1;
+		while (level < MAX_LEVEL && mRandom.nextInt(4) == 0) {
+			++level;
+		}
+		return level;
+	}
+}
@@ -0,0 +1,367 @@
+package com.todolist;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/*
+ * A snapshot file of TodoItems, used by the TodoItemFileDataStore. The file is
+ * accessed through a memory mapping, and has an index of where each item is,
+ * so that a single TodoItem can be found, read, or updated in place without
+ * reading the rest of the file.
+ * The bodies of the items are kept apart from the rest of the items, so that
+ * the list of items can be read without touching the bodies, which are read
+ * individually when they are needed.
+ * The file is laid out as the TodoItemCodec header, followed by:
+ *    int  number of slots
+ *    int  offset of the index
+ *    int  the next unused TodoItem ID
+ *    int  offset of the bodies
+ * Then one slot per TodoItem, in list order. A slot is an int capacity, and
+ * the int offset of the item's body block, followed by capacity bytes, which
+ * hold a single TodoItemCodec record of the item without its body, and padding.
+ * A slot holding a zero length record is a removed item.
+ * Then one body block per slot, which is an int capacity followed by that many
+ * bytes, holding a TodoItemCodec body record and padding.
+ * Slots and body blocks are written with some spare room, so that most edits
+ * to an item fit back into them.
+ * Then the index, one (int ID, int slot offset) pair per slot, sorted by ID.
+ * All ints are big endian.
+ * In place updates are not crash safe on their own, since an update is two
+ * writes, which reach the disk a page at a time. The user must log the new
+ * state of the items somewhere first, to apply again if it is cut short.
+ */
+public class TodoItemSnapshot {
+	public static final int HEADER_SIZE = TodoItemCodec.HEADER_SIZE + 16;
+	
+	// The size of the pages that in place updates are written back in
+	public static final int PAGE_SIZE = 4096;
+
+	private MappedByteBuffer mBuffer;
+	private int mSlotCount;
+	private int mIndexOffset;
+	private int mNextId;
+	private int mBodyOffset;
+
+	// Scratch space for reading records out of the mapping
+	private byte[] mReadBuffer = new byte[256];
+	private TodoItemCodec.Decoder mDecoder = new TodoItemCodec.Decoder(mReadBuffer, 0, 0);
+	
+	// Scratch space for encoding in place updates
+	private TodoItemCodec.Encoder mItemRecord = new TodoItemCodec.Encoder();
+	private TodoItemCodec.Encoder mBodyRecord = new TodoItemCodec.Encoder();
+	
+	// The pages changed by in place updates since the last flush
+	private BitSet mDirtyPages = new BitSet();
+
+	private TodoItemSnapshot(MappedByteBuffer buffer) throws IOException {
+		mBuffer = buffer;
+		byte[] header = new byte[HEADER_SIZE];
+		if (buffer.capacity() < HEADER_SIZE) {
+			throw new IOException("Bad Todo Item snapshot: too short");
+		}
+		buffer.get(header);
+		int version = new TodoItemCodec.Decoder(header, 0, header.length).readHeader();
+		if (version != TodoItemCodec.FORMAT_VERSION) {
+			throw new IOException("Bad Todo Item snapshot version: " + version);
+		}
+		mSlotCount = buffer.getInt(TodoItemCodec.HEADER_SIZE);
+		mIndexOffset = buffer.getInt(TodoItemCodec.HEADER_SIZE + 4);
+		mNextId = buffer.getInt(TodoItemCodec.HEADER_SIZE + 8);
+		mBodyOffset = buffer.getInt(TodoItemCodec.HEADER_SIZE + 12);
+		if (mSlotCount < 0 || mBodyOffset < HEADER_SIZE || mIndexOffset < mBodyOffset
+				|| (long)mIndexOffset + 8L * mSlotCount > buffer.capacity()) {
+			throw new IOException("Bad Todo Item snapshot: bad index");
+		}
+	}
+
+	// Another snapshot on the same mapping, with its own scratch space
+	private TodoItemSnapshot(TodoItemSnapshot other) {
+		mBuffer = other.mBuffer;
+		mSlotCount = other.mSlotCount;
+		mIndexOffset = other.mIndexOffset;
+		mNextId = other.mNextId;
+		mBodyOffset = other.mBodyOffset;
+	}
+
+	/*
+	 * Get another TodoItemSnapshot reading from the same mapping, which can
+	 * be used on a different thread to this one. Only one of them may be
+	 * written to, and not while the other is being read.
+	 */
+	public TodoItemSnapshot newReader() {
+		return new TodoItemSnapshot(this);
+	}
+
+	/*
+	 * Map in a snapshot file.
+	 * @param file     The snapshot file.
+	 * @param writable Whether items will be updated in place in the file.
+	 */
+	public static TodoItemSnapshot open(File file, boolean writable) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+		try {
+			// The mapping stays valid after the file is closed
+			FileChannel channel = raf.getChannel();
+			return new TodoItemSnapshot(channel.map(
+					writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+					0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/*
+	 * Get what format version a file is in.
+	 * @return The TodoItemCodec format version, or -1 if the file is not in
+	 *         a TodoItemCodec format.
+	 */
+	public static int readFormatVersion(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] header = new byte[TodoItemCodec.HEADER_SIZE];
+			int read = raf.read(header);
+			return new TodoItemCodec.Decoder(header, 0, Math.max(read, 0)).readHeader();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/*
+	 * Write out a snapshot file.
+	 * @param file   The file to write to.
+	 * @param items  The items to write, in list order.
+	 * @param nextId The next unused TodoItem ID.
+	 * @return The number of bytes written.
+	 */
+	public static int write(File file, Collection<TodoItem> items, int nextId) throws IOException {
+		TodoItemCodec.Encoder encoder = new TodoItemCodec.Encoder(HEADER_SIZE + items.size() * 80);
+		encoder.writeHeader();
+		encoder.writeInt(items.size());
+		encoder.writeInt(0); // Index offset, filled in below
+		encoder.writeInt(nextId);
+		encoder.writeInt(0); // Body offset, filled in below
+
+		// Write the slots, and the bodies separately, remembering where each
+		// item went, packed as the ID in the high half and slot offset in the
+		// low half, so that the index can be sorted by ID.
+		TodoItemCodec.Encoder bodies = new TodoItemCodec.Encoder(items.size() * 40);
+		int[] slots = new int[items.size()];
+		int[] bodyBlocks = new int[items.size()];
+		long[] index = new long[items.size()];
+		int count = 0;
+		for (TodoItem item: items) {
+			int slot = encoder.size();
+			encoder.writeInt(0); // Capacity, filled in below
+			encoder.writeInt(0); // Body block offset, filled in below
+			encoder.writeItemHeaderRecord(item);
+			padBlock(encoder, slot, 8);
+
+			int bodyBlock = bodies.size();
+			bodies.writeInt(0); // Capacity, filled in below
+			bodies.writeBodyRecord(item.getBody());
+			padBlock(bodies, bodyBlock, 4);
+
+			slots[count] = slot;
+			bodyBlocks[count] = bodyBlock;
+			index[count] = ((long)item.getId() << 32) | (slot & 0xFFFFFFFFL);
+			++count;
+		}
+		Arrays.sort(index);
+
+		// Then the bodies, now that we know where they start
+		int bodyOffset = encoder.size();
+		encoder.setInt(TodoItemCodec.HEADER_SIZE + 12, bodyOffset);
+		for (int i = 0; i < count; ++i) {
+			encoder.setInt(slots[i] + 4, bodyOffset + bodyBlocks[i]);
+		}
+		encoder.append(bodies);
+
+		// Then the index
+		encoder.setInt(TodoItemCodec.HEADER_SIZE + 4, encoder.size());
+		for (long entry: index) {
+			encoder.writeInt((int)(entry >> 32));
+			encoder.writeInt((int)entry);
+		}
+
+		FileOutputStream outFile = new FileOutputStream(file);
+		try {
+			encoder.writeTo(outFile);
+			outFile.getFD().sync();
+		} finally {
+			outFile.close();
+		}
+		return encoder.size();
+	}
+
+	// Give a just written block some spare room, and fill in its capacity.
+	// The capacity is the first int of the block's |headerSize| header.
+	private static void padBlock(TodoItemCodec.Encoder encoder, int block, int headerSize) {
+		int length = encoder.size() - block - headerSize;
+		int capacity = length + length / 8 + 4;
+		encoder.writeZeros(capacity - length);
+		encoder.setInt(block, capacity);
+	}
+
+	/*
+	 * Get the next unused TodoItem ID at the time the snapshot was written.
+	 */
+	public int getNextId() {
+		return mNextId;
+	}
+
+	/*
+	 * Find the slot holding the item with a given ID.
+	 * @return The slot offset, or -1 if the ID is not in the snapshot.
+	 */
+	public int findSlot(int id) {
+		// Binary search over the index
+		int low = 0;
+		int high = mSlotCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midId = mBuffer.getInt(mIndexOffset + mid * 8);
+			if (midId < id) {
+				low = mid + 1;
+			} else if (midId > id) {
+				high = mid - 1;
+			} else {
+				return mBuffer.getInt(mIndexOffset + mid * 8 + 4);
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Slot iteration, in list order, for streaming over all of the items.
+	 * @return The first / next slot offset, or -1 if there are no more.
+	 */
+	public int getFirstSlot() {
+		return (mSlotCount > 0) ? HEADER_SIZE : -1;
+	}
+	public int getNextSlot(int slot) {
+		int next = slot + 8 + mBuffer.getInt(slot);
+		return (next < mBodyOffset) ? next : -1;
+	}
+
+	/*
+	 * Read the item in a slot, without its body.
+	 * @return The item, or null if the item was removed.
+	 */
+	public TodoItem readItem(int slot) throws IOException {
+		if (!readRecord(slot + 8, mBuffer.getInt(slot))) {
+			// Zero length record
+			return null;
+		}
+		return mDecoder.readItem();
+	}
+
+	/*
+	 * Read the body of the item in a slot.
+	 */
+	public String readBody(int slot) throws IOException {
+		int bodyBlock = mBuffer.getInt(slot + 4);
+		if (!readRecord(bodyBlock + 4, mBuffer.getInt(bodyBlock))) {
+			return "";
+		}
+		return mDecoder.readBody();
+	}
+
+	// Read a block of the mapping, and set up the decoder on the record in it.
+	// Returns false if the record is empty.
+	private boolean readRecord(int position, int capacity) throws IOException {
+		if (capacity > mReadBuffer.length) {
+			mReadBuffer = new byte[Math.max(capacity, mReadBuffer.length * 2)];
+		}
+		ByteBuffer source = mBuffer.duplicate();
+		source.position(position);
+		source.get(mReadBuffer, 0, capacity);
+		mDecoder.reset(mReadBuffer, 0, capacity);
+		if (!mDecoder.nextRecord()) {
+			throw new IOException("Bad Todo Item snapshot: truncated record");
+		}
+		return mReadBuffer[0] != 0;
+	}
+
+	/*
+	 * Whether a new state of the item in a slot fits in place, that is,
+	 * whether writeInPlace would write it.
+	 */
+	public boolean fitsInPlace(int slot, TodoItem item) {
+		return encodeInPlace(slot, item);
+	}
+
+	/*
+	 * Replace the item in a slot, if it fits. The body is only replaced if it
+	 * is loaded in the item.
+	 * @param slot The slot to write to.
+	 * @param item The new state of the item.
+	 * @return Whether the item fit, if it didn't then nothing was written.
+	 */
+	public boolean writeInPlace(int slot, TodoItem item) {
+		if (!encodeInPlace(slot, item)) {
+			return false;
+		}
+		ByteBuffer dest = mBuffer.duplicate();
+		dest.position(slot + 8);
+		mItemRecord.writeTo(dest);
+		markDirty(slot + 8, mItemRecord.size());
+		if (mBodyRecord.size() > 0) {
+			int bodyBlock = mBuffer.getInt(slot + 4);
+			dest.position(bodyBlock + 4);
+			mBodyRecord.writeTo(dest);
+			markDirty(bodyBlock + 4, mBodyRecord.size());
+		}
+		return true;
+	}
+
+	// Encode the records for an in place update of a slot, returning
+	// whether they fit
+	private boolean encodeInPlace(int slot, TodoItem item) {
+		mItemRecord.reset();
+		mItemRecord.writeItemHeaderRecord(item);
+		if (mItemRecord.size() > mBuffer.getInt(slot)) {
+			return false;
+		}
+		mBodyRecord.reset();
+		if (item.isBodyLoaded()) {
+			mBodyRecord.writeBodyRecord(item.getBody());
+			int bodyBlock = mBuffer.getInt(slot + 4);
+			if (mBodyRecord.size() > mBuffer.getInt(bodyBlock)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Mark the item in a slot as removed.
+	 */
+	public void markRemoved(int slot) {
+		mBuffer.put(slot + 8, (byte)0);
+		markDirty(slot + 8, 1);
+	}
+
+	// Remember which pages a write touched
+	private void markDirty(int position, int length) {
+		mDirtyPages.set(position / PAGE_SIZE, (position + length - 1) / PAGE_SIZE + 1);
+	}
+
+	/*
+	 * Make sure that in place updates have reached the disk.
+	 * @return The number of bytes written back, which is whole pages.
+	 */
+	public int flush() {
+		mBuffer.force();
+		int bytes = mDirtyPages.cardinality() * PAGE_SIZE;
+		mDirtyPages.clear();
+		return bytes;
+	}
+}
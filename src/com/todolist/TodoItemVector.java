@@ -0,0 +1,295 @@
+package com.todolist;
+
+import java.util.List;
+
+/*
+ * An immutable vector of TodoItems, where changing an item or adding one to
+ * the end makes a new vector, which shares all but the changed path of its
+ * structure with the old one. Used by the TodoItemManager for the snapshots
+ * of its list that it hands out, so that taking a snapshot doesn't mean
+ * copying the whole list, and the snapshot never changes under a reader.
+ * The items are kept in a tree of 32 wide nodes, plus a tail node of up to
+ * 32 items at the end, which is only pushed into the tree once it is full, so
+ * that adding items is usually a copy of just the tail.
+ * Items may be null. The interior nodes keep count of the items under each
+ * of their children which aren't, so that the items can also be indexed as
+ * if the nulls were left out, see getPresent.
+ */
+public final class TodoItemVector {
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	public static final TodoItemVector EMPTY = new TodoItemVector(0, 0, BITS, newNode(), new Object[0]);
+
+	private final int mSize;
+
+	// The number of items which aren't null
+	private final int mCount;
+
+	// The number of bits of the index used below the root node
+	private final int mShift;
+
+	// Interior nodes are arrays of child nodes, followed by an int[] of the
+	// number of non-null items under each child. Leaf nodes are arrays of items.
+	private final Object[] mRoot;
+	private final Object[] mTail;
+
+	private TodoItemVector(int size, int count, int shift, Object[] root, Object[] tail) {
+		mSize = size;
+		mCount = count;
+		mShift = shift;
+		mRoot = root;
+		mTail = tail;
+	}
+
+	/*
+	 * Make a vector of a list of items, building the tree in one go rather
+	 * than by adding the items one at a time.
+	 */
+	public static TodoItemVector of(List<TodoItem> list) {
+		int size = list.size();
+		if (size == 0) {
+			return EMPTY;
+		}
+		Object[] items = list.toArray();
+		int tailOffset = (size < WIDTH) ? 0 : ((size - 1) >>> BITS) << BITS;
+		Object[] tail = new Object[size - tailOffset];
+		System.arraycopy(items, tailOffset, tail, 0, tail.length);
+
+		// Make the leaves, and then the levels above them, until there are
+		// few enough nodes to fit in the root.
+		int nodeCount = tailOffset >>> BITS;
+		Object[] nodes = new Object[nodeCount];
+		int[] nodeItemCounts = new int[nodeCount];
+		for (int i = 0; i < nodeCount; ++i) {
+			Object[] leaf = new Object[WIDTH];
+			System.arraycopy(items, i << BITS, leaf, 0, WIDTH);
+			nodes[i] = leaf;
+			nodeItemCounts[i] = countItems(leaf);
+		}
+		int shift = BITS;
+		while (nodeCount > WIDTH) {
+			int parentCount = (nodeCount + MASK) >>> BITS;
+			Object[] parents = new Object[parentCount];
+			int[] parentItemCounts = new int[parentCount];
+			for (int i = 0; i < parentCount; ++i) {
+				Object[] parent = newNode();
+				int childCount = Math.min(WIDTH, nodeCount - (i << BITS));
+				System.arraycopy(nodes, i << BITS, parent, 0, childCount);
+				System.arraycopy(nodeItemCounts, i << BITS, itemCounts(parent), 0, childCount);
+				parents[i] = parent;
+				parentItemCounts[i] = sum(itemCounts(parent));
+			}
+			nodes = parents;
+			nodeItemCounts = parentItemCounts;
+			nodeCount = parentCount;
+			shift += BITS;
+		}
+		Object[] root = newNode();
+		System.arraycopy(nodes, 0, root, 0, nodeCount);
+		System.arraycopy(nodeItemCounts, 0, itemCounts(root), 0, nodeCount);
+		return new TodoItemVector(size, countItems(items), shift, root, tail);
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/*
+	 * Get the number of items which aren't null.
+	 */
+	public int count() {
+		return mCount;
+	}
+
+	/*
+	 * Get the item at an index.
+	 */
+	public TodoItem get(int index) {
+		if (index < 0 || index >= mSize) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+		}
+		return (TodoItem)leafFor(index)[index & MASK];
+	}
+
+	/*
+	 * Get an item by its position among the items which aren't null, that
+	 * is, the item at that index if the nulls were left out. Finds it using
+	 * the counts in the nodes, without looking at the items before it.
+	 */
+	public TodoItem getPresent(int position) {
+		if (position < 0 || position >= mCount) {
+			throw new IndexOutOfBoundsException("Position: " + position + ", count: " + mCount);
+		}
+		int treeCount = mCount - countItems(mTail);
+		if (position >= treeCount) {
+			return presentItem(mTail, position - treeCount);
+		}
+		Object[] node = mRoot;
+		for (int level = mShift; level > 0; level -= BITS) {
+			int[] counts = itemCounts(node);
+			int child = 0;
+			while (position >= counts[child]) {
+				position -= counts[child++];
+			}
+			node = (Object[])node[child];
+		}
+		return presentItem(node, position);
+	}
+
+	/*
+	 * Make a vector with the item at an index replaced.
+	 * @return The new vector.
+	 */
+	public TodoItemVector set(int index, TodoItem item) {
+		if (index < 0 || index >= mSize) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+		}
+		int delta = ((item != null) ? 1 : 0) - ((get(index) != null) ? 1 : 0);
+		if (index >= tailOffset()) {
+			Object[] tail = mTail.clone();
+			tail[index & MASK] = item;
+			return new TodoItemVector(mSize, mCount + delta, mShift, mRoot, tail);
+		}
+		return new TodoItemVector(mSize, mCount + delta, mShift, setInNode(mShift, mRoot, index, item, delta), mTail);
+	}
+
+	/*
+	 * Make a vector with an item added to the end.
+	 * @return The new vector.
+	 */
+	public TodoItemVector append(TodoItem item) {
+		int count = mCount + ((item != null) ? 1 : 0);
+
+		// Room in the tail
+		if (mSize - tailOffset() < WIDTH) {
+			Object[] tail = new Object[mTail.length + 1];
+			System.arraycopy(mTail, 0, tail, 0, mTail.length);
+			tail[mTail.length] = item;
+			return new TodoItemVector(mSize + 1, count, mShift, mRoot, tail);
+		}
+
+		// The tail is full, push it into the tree, growing the tree a level
+		// if the root is full too
+		Object[] root;
+		int shift = mShift;
+		int tailCount = countItems(mTail);
+		if ((mSize >>> BITS) > (1 << mShift)) {
+			root = newNode();
+			root[0] = mRoot;
+			itemCounts(root)[0] = mCount - tailCount;
+			root[1] = newPath(mShift, mTail, tailCount);
+			itemCounts(root)[1] = tailCount;
+			shift += BITS;
+		} else {
+			root = pushTail(mShift, mRoot, mTail, tailCount);
+		}
+		return new TodoItemVector(mSize + 1, count, shift, root, new Object[] {item});
+	}
+
+	// The index of the first item in the tail
+	private int tailOffset() {
+		return (mSize < WIDTH) ? 0 : ((mSize - 1) >>> BITS) << BITS;
+	}
+
+	// The leaf node, or the tail, holding an index
+	private Object[] leafFor(int index) {
+		if (index >= tailOffset()) {
+			return mTail;
+		}
+		Object[] node = mRoot;
+		for (int level = mShift; level > 0; level -= BITS) {
+			node = (Object[])node[(index >>> level) & MASK];
+		}
+		return node;
+	}
+
+	// Copy the path down to an index, replacing the item at the end of it,
+	// and adding |delta| to the counts of non-null items along the way
+	private static Object[] setInNode(int level, Object[] node, int index, TodoItem item, int delta) {
+		if (level == 0) {
+			Object[] copy = node.clone();
+			copy[index & MASK] = item;
+			return copy;
+		}
+		Object[] copy = copyNode(node);
+		int child = (index >>> level) & MASK;
+		copy[child] = setInNode(level - BITS, (Object[])node[child], index, item, delta);
+		itemCounts(copy)[child] += delta;
+		return copy;
+	}
+
+	// Put a full tail, with |tailCount| non-null items, in as the next leaf of
+	// the tree under |parent|
+	private Object[] pushTail(int level, Object[] parent, Object[] tail, int tailCount) {
+		int child = ((mSize - 1) >>> level) & MASK;
+		Object[] copy = copyNode(parent);
+		if (level == BITS) {
+			copy[child] = tail;
+		} else if (parent[child] != null) {
+			copy[child] = pushTail(level - BITS, (Object[])parent[child], tail, tailCount);
+		} else {
+			copy[child] = newPath(level - BITS, tail, tailCount);
+		}
+		itemCounts(copy)[child] += tailCount;
+		return copy;
+	}
+
+	// Make a path of nodes down to a leaf
+	private static Object[] newPath(int level, Object[] leaf, int leafCount) {
+		if (level == 0) {
+			return leaf;
+		}
+		Object[] node = newNode();
+		node[0] = newPath(level - BITS, leaf, leafCount);
+		itemCounts(node)[0] = leafCount;
+		return node;
+	}
+
+	// Make an empty interior node, and copy one, along with its counts
+	private static Object[] newNode() {
+		Object[] node = new Object[WIDTH + 1];
+		node[WIDTH] = new int[WIDTH];
+		return node;
+	}
+	private static Object[] copyNode(Object[] node) {
+		Object[] copy = node.clone();
+		copy[WIDTH] = itemCounts(node).clone();
+		return copy;
+	}
+
+	// The counts of non-null items under each child of an interior node
+	private static int[] itemCounts(Object[] node) {
+		return (int[])node[WIDTH];
+	}
+
+	// The number of non-null items in an array of them
+	private static int countItems(Object[] items) {
+		int count = 0;
+		for (Object item: items) {
+			if (item != null) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	// The item at a position among the non-null items in a leaf
+	private static TodoItem presentItem(Object[] leaf, int position) {
+		for (Object item: leaf) {
+			if (item != null && position-- == 0) {
+				return (TodoItem)item;
+			}
+		}
+		throw new IllegalStateException("Item counts are out of date");
+	}
+
+	private static int sum(int[] values) {
+		int sum = 0;
+		for (int value: values) {
+			sum += value;
+		}
+		return sum;
+	}
+}
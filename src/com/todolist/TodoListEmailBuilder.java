@@ -1,13 +1,27 @@
 package com.todolist;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.List;
 
 /*
  * A builder class that takes a TodoList, and turns it into
  * a textual representation for the purposes of sending in
- * an Email.
+ * an Email, or for loading into other tools. The text is in
+ * one of the TodoListExportFormats, plain text by default, and
+ * is written out item by item, so it can go straight to a file,
+ * or be built up as a String.
  */
 public class TodoListEmailBuilder {
+	// Rough length of the text for one item, and for the header and
+	// footer, for sizing buffers
+	private static final int TYPICAL_ITEM_LENGTH = 64;
+	private static final int TYPICAL_HEADER_LENGTH = 64;
+	
 	/*
 	 * A filter representing which TodoItems from the source
 	 * to include in the email.
@@ -16,8 +30,9 @@ public class TodoListEmailBuilder {
 		public boolean pass(TodoItem item);
 	}
 	
-	// The builder's TodoItem source and filter.
+	// The builder's TodoItem source, format, and filter.
 	private List<TodoItem> mSourceItemList;
+	private TodoListExportFormat mFormat = TodoListExportFormats.PLAIN_TEXT;
 	private TodoItemFilter mFilter = new TodoItemFilter() {
 		public boolean pass(TodoItem item) {
 			return true;
@@ -34,6 +49,14 @@ public class TodoListEmailBuilder {
 		return this;
 	}
 	
+	/*
+	 * Set what format to write the items out in.
+	 */
+	public TodoListEmailBuilder setFormat(TodoListExportFormat format) {
+		mFormat = format;
+		return this;
+	}
+	
 	/*
 	 * Set what Filter to use to filter the source items.
 	 */
@@ -46,42 +69,45 @@ public class TodoListEmailBuilder {
 	 * Build the email body from the given builder parameters.
 	 */
 	public String buildEmailBody() {
-		// Header
-		String body = "==== Todo List ====\n\n";
-		
-		// For each todo item
+		// Presize for a typical item, so that the buffer rarely has to grow
+		StringBuilder body = new StringBuilder(TYPICAL_HEADER_LENGTH +
+				mSourceItemList.size() * TYPICAL_ITEM_LENGTH);
+		try {
+			writeEmailBody(body);
+		} catch (IOException e) {
+			// A StringBuilder never throws
+			throw new RuntimeException(e);
+		}
+		return body.toString();
+	}
+	
+	/*
+	 * Write the email body from the given builder parameters to a file,
+	 * a piece at a time, without holding the whole body in memory.
+	 * @param file The file to write, which is replaced.
+	 */
+	public void writeEmailBody(File file) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			writeEmailBody(out);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/*
+	 * Write the email body from the given builder parameters to |out|, in
+	 * one pass over the items.
+	 * @param out Where to write the body to.
+	 */
+	public void writeEmailBody(Appendable out) throws IOException {
+		mFormat.writeHeader(out);
+		int count = 0;
 		for (TodoItem item: mSourceItemList) {
 			if (mFilter.pass(item)) {
-				// Add a done box
-				if (item.isDone()) {
-					body = body + "[X] ";
-				} else {
-					body = body + "[ ] ";
-				}
-				
-				// Add title
-				body = body + item.getTitle();
-				
-				// If archived note that
-				if (item.isArchived()) {
-					body = body + " (archived)";
-				}
-				
-				// Add body
-				body = body + "\n    " + item.getBody();
-				
-				// Next entry
-				body = body + "\n\n";
+				mFormat.writeItem(out, item, count++);
 			}
 		}
-		
-		// Trim off the two extra newlines
-		body = body.substring(0, body.length() - 3);
-				
-		// Footer
-		body = body + "===================\n";
-		
-		// Return the result
-		return body;
+		mFormat.writeFooter(out, count);
 	}
 }
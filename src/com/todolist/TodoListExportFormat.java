@@ -0,0 +1,36 @@
+package com.todolist;
+
+import java.io.IOException;
+
+/*
+ * A format that a TodoListEmailBuilder can write a TodoList out in. The
+ * builder writes the header, then each item which passes its filter, then
+ * the footer, so a format only ever has to deal with one item at a time.
+ * The formats that come with the app are in TodoListExportFormats.
+ */
+public interface TodoListExportFormat {
+	/*
+	 * Get the name of the format, to show to the user.
+	 */
+	public String getName();
+
+	/*
+	 * Write out what comes before the items.
+	 */
+	public void writeHeader(Appendable out) throws IOException;
+
+	/*
+	 * Write out one item.
+	 * @param out   Where to write the item to.
+	 * @param item  The item to write.
+	 * @param index How many items have been written before this one.
+	 */
+	public void writeItem(Appendable out, TodoItem item, int index) throws IOException;
+
+	/*
+	 * Write out what comes after the items.
+	 * @param out   Where to write the footer to.
+	 * @param count How many items were written.
+	 */
+	public void writeFooter(Appendable out, int count) throws IOException;
+}
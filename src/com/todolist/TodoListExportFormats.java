@@ -0,0 +1,196 @@
+package com.todolist;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * The TodoListExportFormats that come with the app: plain text, Markdown
+ * task lists, CSV and JSON. Each writes the items out directly as it is
+ * given them, without building up anything in between.
+ */
+public class TodoListExportFormats {
+	/*
+	 * The plain text layout that exports have always used: a done box,
+	 * title, and indented body for each item, with a blank line between
+	 * items.
+	 */
+	public static final TodoListExportFormat PLAIN_TEXT = new TodoListExportFormat() {
+		public String getName() {
+			return "Plain text";
+		}
+		public void writeHeader(Appendable out) throws IOException {
+			out.append("==== Todo List ====\n\n");
+		}
+		public void writeItem(Appendable out, TodoItem item, int index) throws IOException {
+			if (index > 0) {
+				out.append('\n');
+			}
+			out.append(item.isDone() ? "[X] " : "[ ] ");
+			out.append(item.getTitle());
+			if (item.isArchived()) {
+				out.append(" (archived)");
+			}
+			out.append("\n    ").append(item.getBody()).append('\n');
+		}
+		public void writeFooter(Appendable out, int count) throws IOException {
+			out.append("===================\n");
+		}
+	};
+
+	/*
+	 * A Markdown task list, with each item's body indented under it.
+	 */
+	public static final TodoListExportFormat MARKDOWN = new TodoListExportFormat() {
+		public String getName() {
+			return "Markdown";
+		}
+		public void writeHeader(Appendable out) throws IOException {
+			out.append("# Todo List\n\n");
+		}
+		public void writeItem(Appendable out, TodoItem item, int index) throws IOException {
+			out.append(item.isDone() ? "- [x] " : "- [ ] ");
+			appendReplacingNewlines(out, item.getTitle(), " ");
+			if (item.isArchived()) {
+				out.append(" *(archived)*");
+			}
+			out.append('\n');
+			String body = item.getBody();
+			if (body.length() > 0) {
+				out.append("  ");
+				appendReplacingNewlines(out, body, "\n  ");
+				out.append('\n');
+			}
+		}
+		public void writeFooter(Appendable out, int count) throws IOException {}
+	};
+
+	/*
+	 * CSV as described by RFC 4180, with a header row, and CRLF line endings.
+	 */
+	public static final TodoListExportFormat CSV = new TodoListExportFormat() {
+		public String getName() {
+			return "CSV";
+		}
+		public void writeHeader(Appendable out) throws IOException {
+			out.append("id,title,body,done,archived,created\r\n");
+		}
+		public void writeItem(Appendable out, TodoItem item, int index) throws IOException {
+			out.append(Integer.toString(item.getId())).append(',');
+			appendCsvField(out, item.getTitle());
+			out.append(',');
+			appendCsvField(out, item.getBody());
+			out.append(',').append(item.isDone() ? "true" : "false");
+			out.append(',').append(item.isArchived() ? "true" : "false");
+			out.append(',').append(Long.toString(item.getCreatedTime())).append("\r\n");
+		}
+		public void writeFooter(Appendable out, int count) throws IOException {}
+	};
+
+	/*
+	 * A JSON array with an object for each item. The created time is in
+	 * milliseconds since the epoch.
+	 */
+	public static final TodoListExportFormat JSON = new TodoListExportFormat() {
+		public String getName() {
+			return "JSON";
+		}
+		public void writeHeader(Appendable out) throws IOException {
+			out.append('[');
+		}
+		public void writeItem(Appendable out, TodoItem item, int index) throws IOException {
+			out.append((index > 0) ? ",\n" : "\n");
+			out.append("  {\"id\": ").append(Integer.toString(item.getId()));
+			out.append(", \"title\": ");
+			appendJsonString(out, item.getTitle());
+			out.append(", \"body\": ");
+			appendJsonString(out, item.getBody());
+			out.append(", \"done\": ").append(item.isDone() ? "true" : "false");
+			out.append(", \"archived\": ").append(item.isArchived() ? "true" : "false");
+			out.append(", \"created\": ").append(Long.toString(item.getCreatedTime())).append('}');
+		}
+		public void writeFooter(Appendable out, int count) throws IOException {
+			out.append((count > 0) ? "\n]\n" : "]\n");
+		}
+	};
+
+	private static final List<TodoListExportFormat> sFormats =
+			Collections.unmodifiableList(Arrays.asList(PLAIN_TEXT, MARKDOWN, CSV, JSON));
+
+	/*
+	 * Get all of the formats, in the order to offer them to the user.
+	 */
+	public static List<TodoListExportFormat> getFormats() {
+		return sFormats;
+	}
+
+	// Append text, with each of it's line breaks replaced
+	private static void appendReplacingNewlines(Appendable out, String text, String replacement) throws IOException {
+		int start = 0;
+		for (int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			if (c == '\n' || c == '\r') {
+				out.append(text, start, i).append(replacement);
+				// Treat CRLF as one line break
+				if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+					++i;
+				}
+				start = i + 1;
+			}
+		}
+		out.append(text, start, text.length());
+	}
+
+	// Append a CSV field, quoted if it has anything in it that needs to be
+	private static void appendCsvField(Appendable out, String text) throws IOException {
+		boolean needsQuotes = false;
+		for (int i = 0; i < text.length() && !needsQuotes; ++i) {
+			char c = text.charAt(i);
+			needsQuotes = (c == ',' || c == '"' || c == '\r' || c == '\n');
+		}
+		if (!needsQuotes) {
+			out.append(text);
+			return;
+		}
+		out.append('"');
+		int start = 0;
+		for (int i = 0; i < text.length(); ++i) {
+			if (text.charAt(i) == '"') {
+				// Quotes are escaped by doubling them
+				out.append(text, start, i + 1).append('"');
+				start = i + 1;
+			}
+		}
+		out.append(text, start, text.length()).append('"');
+	}
+
+	// Append a quoted JSON string, escaping what JSON needs escaped
+	private static void appendJsonString(Appendable out, String text) throws IOException {
+		out.append('"');
+		int start = 0;
+		for (int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			String escape;
+			if (c == '"') {
+				escape = "\\\"";
+			} else if (c == '\\') {
+				escape = "\\\\";
+			} else if (c == '\n') {
+				escape = "\\n";
+			} else if (c == '\r') {
+				escape = "\\r";
+			} else if (c == '\t') {
+				escape = "\\t";
+			} else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+				String hex = Integer.toHexString(c);
+				escape = "\\u0000".substring(0, 6 - hex.length()) + hex;
+			} else {
+				continue;
+			}
+			out.append(text, start, i).append(escape);
+			start = i + 1;
+		}
+		out.append(text, start, text.length()).append('"');
+	}
+}
@@ -1,25 +1,40 @@
 package com.todolist;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.List;
 
-import com.todolist.TodoItemManager.UpdatedListener;
+import com.todolist.TodoItemManager.ChangeListener;
 
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.SparseBooleanArray;
+import android.view.ActionMode;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
+import android.widget.EditText;
+import android.widget.AbsListView.MultiChoiceModeListener;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemSelectedListener;
+import android.widget.ArrayAdapter;
 import android.widget.ListView;
+import android.widget.Spinner;
 import android.widget.TextView;
 
 /* 
  * A fragment that displays some subset of the Todos in a given 
  * TodoItemManager using a filter that specifies which ones to
- * show.
+ * show. The TodoItemManager keeps a filtered view of its items
+ * up to date for the fragment while it's view exists.
  * Editing mode can be toggled on and off using a checkbox
  * at the top of the fragment.
  * In Editing mode, the user can move TodoItems between the
@@ -27,31 +42,80 @@ import android.widget.TextView;
  * list, or edit items in the current list, opening an TodoItem
  * editing activity.
  * In either mode the user can toggle a given item's done status.
+ * Long pressing items selects them, so that all of the selected
+ * items can be archived or deleted at once.
+ * Typing in the search box at the top of the fragment narrows
+ * the shown items down to those containing the typed words.
+ * The sort spinner next to the search box picks the order that
+ * the items are shown in.
  */
 public class TodoListFragment extends Fragment {
-	public interface TodoListFilter {
-		public boolean filter(TodoItem item);
-	}
+	// The names of the sort orders shown in the sort spinner, indexed
+	// by the TodoItemSkipList.SORT_BY_* orders.
+	private static final String[] SORT_ORDER_NAMES = {"Added", "Created", "Done last", "Title"};
 	
 	// The item manager to get the items from, and the
 	// Filter to filter those items with.
 	private TodoItemManager mItemManager;
-	private TodoListFilter mItemFilter;
+	private TodoItemFilteredList.Filter mItemFilter;
 	private String mSectionTitle;
 	
 	// Listener on the item manager, so that we can update the list
 	// when the TodoItemManager's list of items changes.
-	private UpdatedListener mItemManagerUpdatedListener;
+	private ChangeListener mItemManagerChangeListener;
 	
-	// The ListView setup. A cached filtered list of TodoItems to be
-	// displayed, and the ListView+Adapter to display them.
-	private ArrayList<TodoItem> mCachedEntryList = new ArrayList<TodoItem>();
+	// The ListView setup. The live filtered list of TodoItems to be
+	// displayed, and the ListView+Adapter to display them, along with
+	// the modification count of the list that the adapter was last
+	// notified of.
+	private TodoItemFilteredList mEntryList;
+	private int mNotifiedModificationCount;
 	private ListView mListView;
 	private TodoFragmentListAdapter mListAdapter;
 	
 	// For convenience, a reference to the edit mode toggle checkbox.
 	private CheckBox mEditCheckbox;
 	
+	// The search box, and the items in the filtered list matching
+	// the search typed into it, or null when there is no search.
+	// The results are found in the background by mSearchProjection,
+	// so there may be a search going on before there are results, in
+	// which case the whole filtered list is still shown until they are.
+	private EditText mSearchBox;
+	private boolean mIsSearching = false;
+	private List<TodoItem> mSearchResults;
+	private TodoItemProjection mSearchProjection;
+	
+	// The order to show the items in, one of the TodoItemSkipList
+	// SORT_BY_* orders. Kept here so that it lasts while the view is
+	// destroyed and re-created.
+	private int mSortOrder = TodoItemSkipList.SORT_BY_ID;
+	private Spinner mSortSpinner;
+	
+	// The items that the adapter shows, the search results when 
+	// searching, otherwise the whole filtered list.
+	private List<TodoItem> mShownItems = new AbstractList<TodoItem>() {
+		public TodoItem get(int position) {
+			return (mSearchResults != null) ? mSearchResults.get(position) : mEntryList.get(position);
+		}
+		public int size() {
+			return (mSearchResults != null) ? mSearchResults.size() : mEntryList.size();
+		}
+	};
+	
+	// Where the adapter reads the shown items from, a page at a time.
+	private TodoFragmentListAdapter.DataSource mDataSource = new TodoFragmentListAdapter.DataSource() {
+		public int getCount() {
+			return mShownItems.size();
+		}
+		public TodoItem getItem(int position) {
+			return mShownItems.get(position);
+		}
+		public void prefetch(int low, int high, Runnable onReady) {
+			mItemManager.prefetchTodoItemBodies(mShownItems.subList(low, high), onReady);
+		}
+	};
+	
 	/*
 	 * Constructor.
 	 * @param sectionTitle A description of what subset of the Todos are
@@ -60,7 +124,7 @@ public class TodoListFragment extends Fragment {
 	 * @param filter       The filter to filter the total list of TodoItems
 	 *                     from the |itemManager| by.
 	 */
-	public TodoListFragment(String sectionTitle, TodoItemManager itemManager, TodoListFilter filter) {
+	public TodoListFragment(String sectionTitle, TodoItemManager itemManager, TodoItemFilteredList.Filter filter) {
 		mSectionTitle = sectionTitle;
 		mItemManager = itemManager;
 		mItemFilter = filter;
@@ -72,13 +136,25 @@ public class TodoListFragment extends Fragment {
     	// Create the main view for the fragment
         View rootView = inflater.inflate(R.layout.fragment_main, container, false);
         
-        // Hook us up to listen for changes on the data set
-        mItemManagerUpdatedListener = new TodoItemManager.UpdatedListener() {
-			public void onUpdated() {
-				updateCachedItemList();
+        // Get a view of the items to show, and hook us up to listen for
+        // changes on the data set
+        mEntryList = mItemManager.registerFilteredList(mItemFilter, mSortOrder);
+        mNotifiedModificationCount = mEntryList.getModificationCount();
+        mItemManagerChangeListener = new TodoItemManager.ChangeListener() {
+			public void onChanged(TodoItemChangeEvent event) {
+				// Only redraw if the change was to an item that we show
+				if (mEntryList.getModificationCount() != mNotifiedModificationCount) {
+					mNotifiedModificationCount = mEntryList.getModificationCount();
+					if (mIsSearching) {
+						updateSearchResults();
+					}
+					if (mSearchResults == null) {
+						mListAdapter.notifyItemsChanged();
+					}
+				}
 			}
 		};
-        mItemManager.addUpdatedListener(mItemManagerUpdatedListener);
+        mItemManager.addChangeListener(mItemManagerChangeListener);
         
         // Get the edit CheckBox, and hook it up to changing our list adapters
         // display to show edit mode entries or normal entries.
@@ -86,38 +162,135 @@ public class TodoListFragment extends Fragment {
         mEditCheckbox.setOnCheckedChangeListener(new OnCheckedChangeListener() {
 			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
 				mListAdapter.setEditable(isChecked);
-				updateCachedItemList();
 			}
 		});
         
+        // Search as the user types in the search box, showing the
+        // results once they have been found
+        mSearchProjection = new TodoItemProjection(mItemManager, new TodoItemProjection.Listener() {
+			public void onPublished(List<TodoItem> items) {
+				mSearchResults = items;
+				mListAdapter.notifyItemsChanged();
+			}
+		});
+        mSearchBox = ((EditText)rootView.findViewById(R.id.search_box));
+        mSearchBox.addTextChangedListener(new TextWatcher() {
+			public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+			public void onTextChanged(CharSequence s, int start, int before, int count) {}
+			public void afterTextChanged(Editable s) {
+				updateSearchResults();
+			}
+		});
+        
+        // Re-sort the list when the user picks a sort order
+        mSortSpinner = ((Spinner)rootView.findViewById(R.id.sort_spinner));
+        ArrayAdapter<String> sortAdapter = new ArrayAdapter<String>(getActivity(),
+        		android.R.layout.simple_spinner_item, SORT_ORDER_NAMES);
+        sortAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mSortSpinner.setAdapter(sortAdapter);
+        mSortSpinner.setSelection(mSortOrder);
+        mSortSpinner.setOnItemSelectedListener(new OnItemSelectedListener() {
+			public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+				setSortOrder(position);
+			}
+			public void onNothingSelected(AdapterView<?> parent) {}
+		});
+        
         // Set the section title
         TextView label = ((TextView)rootView.findViewById(R.id.section_label));
         label.setText(mSectionTitle);
         
         // Set up the ListView+Adapter
         mListView = ((ListView)rootView.findViewById(R.id.entry_list));
-        mListAdapter = new TodoFragmentListAdapter(this, getActivity(), mListView, mCachedEntryList);
+        mListAdapter = new TodoFragmentListAdapter(this, getActivity(), mListView, mDataSource);
         mListAdapter.setEditable(mEditCheckbox.isChecked());
         mListView.setAdapter(mListAdapter);
         
-        // Populate the items
-        updateCachedItemList();
+        // Let the user select several items, and then archive or delete
+        // all of the selected items at once.
+        mListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        mListView.setMultiChoiceModeListener(new MultiChoiceModeListener() {
+			public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+				mode.getMenuInflater().inflate(R.menu.todo_list_selection, menu);
+				return true;
+			}
+			public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+				return false;
+			}
+			public boolean onActionItemClicked(ActionMode mode, MenuItem menuItem) {
+				int id = menuItem.getItemId();
+				if (id == R.id.action_archive_selected) {
+					onArchiveItems(getSelectedItems());
+				} else if (id == R.id.action_delete_selected) {
+					onDeleteItems(getSelectedItems());
+				} else {
+					return false;
+				}
+				mode.finish();
+				return true;
+			}
+			public void onItemCheckedStateChanged(ActionMode mode, int position, long id, boolean checked) {
+				mode.setTitle(mListView.getCheckedItemCount() + " selected");
+			}
+			public void onDestroyActionMode(ActionMode mode) {
+			}
+		});
         
         return rootView;
     }
     
     /*
-     * Update the internal cached list of TodoItems to show in this
-     * view, and notify the ListView to update to reflect the change.
+     * Update the search results for what is typed in the search box,
+     * and notify the ListView to show them.
      */
-    private void updateCachedItemList() {
-    	mCachedEntryList.clear();
-    	for (TodoItem item: mItemManager.getTodoItemList()) {
-    		if (mItemFilter.filter(item)) {
-    			mCachedEntryList.add(item);
+    private void updateSearchResults() {
+    	String query = mSearchBox.getText().toString();
+    	if (query.trim().length() == 0) {
+    		mIsSearching = false;
+    		mSearchProjection.cancel();
+    		mSearchResults = null;
+    		mListAdapter.notifyItemsChanged();
+    	} else {
+    		// Shown once the search has been done in the background. Until
+    		// then, whatever is shown now, the filtered list or the earlier
+    		// results, is kept.
+    		mIsSearching = true;
+    		mSearchProjection.request(query, mItemFilter, mSortOrder);
+    	}
+    }
+    
+    /*
+     * Change the order that the items are shown in.
+     * @param sortOrder One of the TodoItemSkipList.SORT_BY_* orders.
+     */
+    private void setSortOrder(int sortOrder) {
+    	if (sortOrder == mSortOrder) {
+    		return;
+    	}
+    	mSortOrder = sortOrder;
+    	mEntryList.setSortOrder(sortOrder);
+    	mNotifiedModificationCount = mEntryList.getModificationCount();
+    	if (mIsSearching) {
+    		updateSearchResults();
+    	}
+    	if (mSearchResults == null) {
+    		mListAdapter.notifyItemsChanged();
+    	}
+    }
+    
+    /*
+     * Get the items that the user has selected in the ListView.
+     */
+    private List<TodoItem> getSelectedItems() {
+    	ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+    	SparseBooleanArray checked = mListView.getCheckedItemPositions();
+    	for (int i = 0; i < checked.size(); ++i) {
+    		int position = checked.keyAt(i);
+    		if (checked.valueAt(i) && position < mShownItems.size()) {
+    			items.add(mShownItems.get(position));
     		}
     	}
-    	mListAdapter.notifyDataSetChanged();
+    	return items;
     }
     
     // Actions to be called on by the TodoFragmentListAdapter when 
@@ -129,6 +302,18 @@ public class TodoListFragment extends Fragment {
     	mItemManager.saveTodoItemList();
     }
     
+    // The user wants to delete several items at once, which is done
+    // as one batch, so that it is shown and saved all at once
+    public void onDeleteItems(final List<TodoItem> items) {
+    	mItemManager.runBatch(new Runnable() {
+    		public void run() {
+    			for (TodoItem item: items) {
+    				onDeleteItem(item);
+    			}
+    		}
+    	});
+    }
+    
     // The user wants to open the editing activity on the item
     public void onEditItem(TodoItem item) {
     	Intent newItemIntent = new Intent(getActivity(), NewOrEditTodoItemActivity.class);
@@ -138,23 +323,41 @@ public class TodoListFragment extends Fragment {
     
     // The user wants to swap the item between the archive and normal lists
     public void onArchiveItem(TodoItem item) {
-    	item.setArchived(!item.isArchived());
-    	mItemManager.markTodoItemDirty(item);
+    	mItemManager.setTodoItemArchived(item, !item.isArchived());
     	mItemManager.saveTodoItemList();
     }
     
-    // The user wants to set the item as done or not done
+    // The user wants to swap several items between the archive and
+    // normal lists at once, done as one batch like onDeleteItems
+    public void onArchiveItems(final List<TodoItem> items) {
+    	mItemManager.runBatch(new Runnable() {
+    		public void run() {
+    			for (TodoItem item: items) {
+    				onArchiveItem(item);
+    			}
+    		}
+    	});
+    }
+    
+    // The user wants to set the item as done or not done. Nothing
+    // is saved if it already was.
     public void onSetDone(TodoItem item, boolean isDone) {
-    	item.setDone(isDone);
-    	mItemManager.markTodoItemDirty(item);
-    	mItemManager.saveTodoItemList();
+    	if (mItemManager.setTodoItemDone(item, isDone)) {
+    		mItemManager.saveTodoItemList();
+    	}
     }
     
     @Override
     public void onDestroyView() {
     	// When the fragment view is destroyed, stop listinging for updates
     	// to the TodoList data set.
-    	mItemManager.removeUpdatedListener(mItemManagerUpdatedListener);
+    	mItemManager.removeChangeListener(mItemManagerChangeListener);
+    	mItemManager.unregisterFilteredList(mEntryList);
+    	
+    	// Any search in progress is for the old view
+    	mSearchProjection.cancel();
+    	mIsSearching = false;
+    	mSearchResults = null;
     	super.onDestroyView();
     }
 }
@@ -0,0 +1,57 @@
+package com.todolist;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+/*
+ * Databases for the tests to use, which are deleted again afterwards. The
+ * open state of a database is kept for as long as the process runs, so names
+ * are never reused.
+ */
+class TestDatabases {
+	private static final long sRun = System.currentTimeMillis();
+	private static int sNextDatabase = 0;
+
+	private final Context mContext;
+	private final List<String> mDatabaseNames = new ArrayList<String>();
+
+	TestDatabases(Context ctx) {
+		mContext = ctx;
+	}
+
+	/*
+	 * Get a database name that hasn't been used yet.
+	 */
+	String newDatabaseName() {
+		String databaseName = "test_" + sRun + "_" + (sNextDatabase++) + ".db";
+		mDatabaseNames.add(databaseName);
+		return databaseName;
+	}
+
+	/*
+	 * Open a data store on a database.
+	 */
+	TodoItemSQLiteDataStore open(String databaseName) {
+		return new TodoItemSQLiteDataStore(mContext, databaseName);
+	}
+
+	/*
+	 * Get the size of a database's files, including its write ahead log.
+	 */
+	long getSize(String databaseName) {
+		return mContext.getDatabasePath(databaseName).length()
+				+ mContext.getDatabasePath(databaseName + "-wal").length();
+	}
+
+	/*
+	 * Delete all of the databases that were used.
+	 */
+	void deleteAll() {
+		for (String databaseName: mDatabaseNames) {
+			mContext.deleteDatabase(databaseName);
+		}
+		mDatabaseNames.clear();
+	}
+}
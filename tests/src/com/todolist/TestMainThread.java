@@ -0,0 +1,60 @@
+package com.todolist;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/*
+ * Runs code on the UI thread for tests, for the parts of the app which are
+ * only used from there.
+ */
+class TestMainThread {
+	private static final long TIMEOUT_SECONDS = 60;
+
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+	/*
+	 * Run something on the UI thread, and wait for it to finish. Anything
+	 * that it throws is thrown again here.
+	 */
+	static void run(final Runnable runnable) {
+		final Throwable[] thrown = new Throwable[1];
+		final CountDownLatch done = new CountDownLatch(1);
+		sMainHandler.post(new Runnable() {
+			public void run() {
+				try {
+					runnable.run();
+				} catch (Throwable ex) {
+					thrown[0] = ex;
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		try {
+			if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				throw new AssertionError("Timed out waiting for the UI thread");
+			}
+		} catch (InterruptedException ex) {
+			throw new AssertionError("Interrupted waiting for the UI thread");
+		}
+		if (thrown[0] instanceof RuntimeException) {
+			throw (RuntimeException)thrown[0];
+		} else if (thrown[0] instanceof Error) {
+			throw (Error)thrown[0];
+		} else if (thrown[0] != null) {
+			throw new RuntimeException(thrown[0]);
+		}
+	}
+
+	/*
+	 * Wait until everything posted to the UI thread so far has run.
+	 */
+	static void sync() {
+		run(new Runnable() {
+			public void run() {}
+		});
+	}
+}
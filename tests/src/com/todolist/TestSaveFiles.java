@@ -0,0 +1,111 @@
+package com.todolist;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+/*
+ * Save files for the tests to use, which are deleted again afterwards.
+ * The open state of a save file is kept for as long as the process runs, so
+ * names are never reused, and to see what a restarted app would load, the
+ * files are copied to a new name, which is opened instead.
+ */
+class TestSaveFiles {
+	private static final String[] SUFFIXES = {"", ".log", ".log.old", ".redo"};
+
+	private static final long sRun = System.currentTimeMillis();
+	private static int sNextFile = 0;
+
+	private final Context mContext;
+	private final List<String> mFileNames = new ArrayList<String>();
+
+	TestSaveFiles(Context ctx) {
+		mContext = ctx;
+	}
+
+	/*
+	 * Get a save file name that hasn't been used yet.
+	 */
+	String newFileName() {
+		String fileName = "test_" + sRun + "_" + (sNextFile++) + ".sav";
+		mFileNames.add(fileName);
+		return fileName;
+	}
+
+	/*
+	 * Open a data store on a save file.
+	 */
+	TodoItemFileDataStore open(String fileName) {
+		return new TodoItemFileDataStore(mContext, fileName);
+	}
+
+	/*
+	 * Copy the files of a save file to a new name, to open them as the app
+	 * would after being restarted.
+	 * @return The new name.
+	 */
+	String restart(String fileName) throws IOException {
+		String newName = newFileName();
+		for (String suffix: SUFFIXES) {
+			File from = getFile(fileName + suffix);
+			if (from.exists()) {
+				copyFile(from, getFile(newName + suffix));
+			}
+		}
+		return newName;
+	}
+
+	/*
+	 * Get one of the files in the app's files directory.
+	 */
+	File getFile(String name) {
+		return mContext.getFileStreamPath(name);
+	}
+
+	/*
+	 * Append some bytes to one of the files.
+	 */
+	void appendBytes(String name, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(getFile(name), true);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * Delete all of the files that were used.
+	 */
+	void deleteAll() {
+		for (String fileName: mFileNames) {
+			for (String suffix: SUFFIXES) {
+				getFile(fileName + suffix).delete();
+			}
+		}
+		mFileNames.clear();
+	}
+
+	private static void copyFile(File from, File to) throws IOException {
+		FileInputStream in = new FileInputStream(from);
+		try {
+			FileOutputStream out = new FileOutputStream(to);
+			try {
+				byte[] buffer = new byte[8192];
+				int count;
+				while ((count = in.read(buffer)) > 0) {
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
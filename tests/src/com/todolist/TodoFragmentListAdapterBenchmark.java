@@ -0,0 +1,68 @@
+package com.todolist;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.view.View;
+import android.widget.ListView;
+
+/*
+ * Benchmarks for TodoFragmentListAdapter. The results are logged rather than
+ * checked against a time limit, since they depend on the device. Run them
+ * on their own with:
+ *    adb shell am instrument -w -e class com.todolist.TodoFragmentListAdapterBenchmark \
+ *        com.todolist.test/android.test.InstrumentationTestRunner
+ */
+@LargeTest
+public class TodoFragmentListAdapterBenchmark extends AndroidTestCase {
+	/*
+	 * How long binding a row takes while scrolling through the list, where
+	 * each row view is reused for a new item, and binding the shown rows
+	 * again when their items haven't changed.
+	 */
+	public void testGetView() {
+		final int itemCount = 10000;
+		final int shownRowCount = 10;
+		final List<TodoItem> items = new ArrayList<TodoItem>(itemCount);
+		for (int i = 0; i < itemCount; ++i) {
+			items.add(new TodoItem(i, 0L, "Item " + i, "Body body body " + i, i % 3 == 0, i % 7 == 0));
+		}
+		ListView listView = new ListView(getContext());
+		TodoFragmentListAdapter adapter = new TodoFragmentListAdapter(null, getContext(), listView,
+				new TodoFragmentListAdapter.DataSource() {
+			public int getCount() {
+				return items.size();
+			}
+			public TodoItem getItem(int position) {
+				return items.get(position);
+			}
+			public void prefetch(int low, int high, Runnable onReady) {}
+		});
+		
+		// Scroll through the list, reusing the row views that scroll off
+		// the top for the rows scrolling on at the bottom
+		View[] rows = new View[shownRowCount];
+		long startTime = System.nanoTime();
+		for (int position = 0; position < itemCount; ++position) {
+			int row = position % shownRowCount;
+			rows[row] = adapter.getView(position, rows[row], listView);
+		}
+		long scrollTime = (System.nanoTime() - startTime) / itemCount;
+		
+		// Bind the last shown rows again, as for a change to other items
+		final int rebindCount = 1000;
+		startTime = System.nanoTime();
+		for (int i = 0; i < rebindCount; ++i) {
+			int position = itemCount - shownRowCount + i % shownRowCount;
+			int row = position % shownRowCount;
+			assertSame(rows[row], adapter.getView(position, rows[row], listView));
+		}
+		long rebindTime = (System.nanoTime() - startTime) / rebindCount;
+		
+		Log.i("test", "Binding rows while scrolling through " + itemCount + " items: " + scrollTime / 1000 +
+				"us per row, binding unchanged rows again: " + rebindTime / 1000 + "us per row");
+	}
+}
@@ -0,0 +1,115 @@
+package com.todolist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.TextView;
+
+/*
+ * Tests for TodoFragmentListAdapter.
+ */
+public class TodoFragmentListAdapterTest extends AndroidTestCase {
+	private TestSaveFiles mFiles;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFiles = new TestSaveFiles(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFiles.deleteAll();
+		super.tearDown();
+	}
+
+	/*
+	 * Scrolling through the list, binding reused row views to new items,
+	 * doesn't change or save any of the items, even though binding sets
+	 * each row's done checkbox.
+	 */
+	public void testScrollingDoesNotWrite() throws IOException {
+		final int itemCount = 10000;
+		final int shownRowCount = 10;
+		TodoItemFileDataStore store = mFiles.open(mFiles.newFileName());
+		TodoItemManager manager = new TodoItemManager(store);
+		manager.loadTodoItemList();
+		Random random = new Random(23);
+		for (int i = 0; i < itemCount; ++i) {
+			manager.addTodoItem(new TodoItem(0, i, "Item " + i, "Body " + i, random.nextBoolean(), random.nextBoolean()));
+		}
+		manager.saveTodoItemList();
+
+		final int[] eventCount = {0};
+		manager.addChangeListener(new TodoItemManager.ChangeListener() {
+			public void onChanged(TodoItemChangeEvent event) {
+				++eventCount[0];
+			}
+		});
+		long bytesWritten = store.getBytesWritten();
+
+		final List<TodoItem> items = manager.getTodoItemList();
+		TodoListFragment fragment = new TodoListFragment("Items", manager, new TodoItemFilteredList.FlagFilter(null, null));
+		ListView listView = new ListView(getContext());
+		TodoFragmentListAdapter adapter = new TodoFragmentListAdapter(fragment, getContext(), listView,
+				new TodoFragmentListAdapter.DataSource() {
+			public int getCount() {
+				return items.size();
+			}
+			public TodoItem getItem(int position) {
+				return items.get(position);
+			}
+			public void prefetch(int low, int high, Runnable onReady) {}
+		});
+		View[] rows = new View[shownRowCount];
+		for (int position = 0; position < itemCount; ++position) {
+			int row = position % shownRowCount;
+			rows[row] = adapter.getView(position, rows[row], listView);
+		}
+
+		assertEquals(0, eventCount[0]);
+		assertEquals(bytesWritten, store.getBytesWritten());
+	}
+
+	/*
+	 * Binding a row doesn't read in the item's body, the row shows the body
+	 * once the prefetch of the item's page has loaded it.
+	 */
+	public void testBodyShownOnceLoaded() throws IOException {
+		String fileName = mFiles.newFileName();
+		mFiles.open(fileName).saveTodoItems(Collections.singletonList(new TodoItem(0, 0L, "Item", "Body", false, false)));
+		TodoItemFileDataStore store = mFiles.open(mFiles.restart(fileName));
+		final List<TodoItem> items = new ArrayList<TodoItem>(store.loadTodoItems());
+
+		final Runnable[] onReady = new Runnable[1];
+		TodoListFragment fragment = new TodoListFragment("Items", new TodoItemManager(store),
+				new TodoItemFilteredList.FlagFilter(null, null));
+		ListView listView = new ListView(getContext());
+		TodoFragmentListAdapter adapter = new TodoFragmentListAdapter(fragment, getContext(), listView,
+				new TodoFragmentListAdapter.DataSource() {
+			public int getCount() {
+				return items.size();
+			}
+			public TodoItem getItem(int position) {
+				return items.get(position);
+			}
+			public void prefetch(int low, int high, Runnable ready) {
+				onReady[0] = ready;
+			}
+		});
+		View row = adapter.getView(0, null, listView);
+		TextView body = (TextView)row.findViewById(R.id.entry_body);
+		assertEquals("", body.getText().toString());
+		assertNotNull(onReady[0]);
+
+		store.loadTodoItemBody(0);
+		assertSame(row, adapter.getView(0, row, listView));
+		assertEquals("Body", body.getText().toString());
+	}
+}
@@ -0,0 +1,199 @@
+package com.todolist;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/*
+ * Benchmarks for TodoItemFileDataStore. The results are logged rather than
+ * checked against a time limit, since they depend on the device. Run them
+ * on their own with:
+ *    adb shell am instrument -w -e class com.todolist.TodoItemFileDataStoreBenchmark \
+ *        com.todolist.test/android.test.InstrumentationTestRunner
+ */
+@LargeTest
+public class TodoItemFileDataStoreBenchmark extends AndroidTestCase {
+	private TestSaveFiles mFiles;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFiles = new TestSaveFiles(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFiles.deleteAll();
+		super.tearDown();
+	}
+
+	/*
+	 * How much is written to save one changed item, both when the change
+	 * fits in place in the snapshot and when it has to be appended to the
+	 * journal, compared to writing out all of the items with java
+	 * serialization as older versions did, and with the current format.
+	 * In place updates count their redo log, and the whole pages of the
+	 * snapshot that they dirty, since that is what reaches the disk.
+	 */
+	public void testSaveOneChange() throws IOException {
+		final int itemCount = 3000;
+		final int changeCount = 1000;
+		ArrayList<TodoItem> items = makeItems(itemCount);
+
+		long startTime = System.nanoTime();
+		File serializedFile = mFiles.getFile(mFiles.newFileName());
+		writeSerialized(serializedFile, items);
+		long serializedTime = System.nanoTime() - startTime;
+		long serializedBytes = serializedFile.length();
+
+		TodoItemFileDataStore store = mFiles.open(mFiles.newFileName());
+		startTime = System.nanoTime();
+		store.saveTodoItems(items);
+		long fullTime = System.nanoTime() - startTime;
+		long fullBytes = store.getBytesWritten();
+
+		// Toggling an item keeps its record the same size, so it fits in place
+		long bytesWritten = store.getBytesWritten();
+		startTime = System.nanoTime();
+		for (int i = 0; i < changeCount; ++i) {
+			TodoItem item = items.get(i * 3);
+			item.setDone(true);
+			store.saveTodoItemChanges(Collections.singletonList(item), Collections.<Integer>emptyList());
+		}
+		long inPlaceTime = (System.nanoTime() - startTime) / changeCount;
+		long inPlaceBytes = (store.getBytesWritten() - bytesWritten) / changeCount;
+
+		// A much longer title doesn't fit, so it is journaled
+		bytesWritten = store.getBytesWritten();
+		startTime = System.nanoTime();
+		for (int i = 0; i < changeCount; ++i) {
+			TodoItem item = items.get(i * 3 + 1);
+			item.setTitle(item.getTitle() + " with a much longer title");
+			store.saveTodoItemChanges(Collections.singletonList(item), Collections.<Integer>emptyList());
+		}
+		long journalTime = (System.nanoTime() - startTime) / changeCount;
+		long journalBytes = (store.getBytesWritten() - bytesWritten) / changeCount;
+
+		Log.i("test", "Saving one change to " + itemCount + " items: in place " + inPlaceBytes + " bytes in " +
+				inPlaceTime / 1000 + "us, journaled " + journalBytes + " bytes in " + journalTime / 1000 +
+				"us, saving all of them: " + fullBytes + " bytes in " + fullTime / 1000 + "us, with java serialization " +
+				serializedBytes + " bytes in " + serializedTime / 1000 + "us");
+		assertTrue(inPlaceBytes < serializedBytes);
+		assertTrue(journalBytes < serializedBytes);
+	}
+
+	/*
+	 * How long loading the items takes, with all of their bodies, compared to
+	 * reading them with java serialization, as older versions did.
+	 */
+	public void testLoad() throws IOException, ClassNotFoundException {
+		final int itemCount = 20000;
+		ArrayList<TodoItem> items = makeItems(itemCount);
+		String fileName = mFiles.newFileName();
+		mFiles.open(fileName).saveTodoItems(items);
+		File serializedFile = mFiles.getFile(mFiles.newFileName());
+		writeSerialized(serializedFile, items);
+
+		// The load is of a copy of the files which hasn't been opened yet,
+		// like the first load after the app starts. Bodies are read lazily,
+		// so they are all asked for, to compare like with like.
+		long startTime = System.nanoTime();
+		Collection<TodoItem> loaded = mFiles.open(mFiles.restart(fileName)).loadTodoItems();
+		long bodyLength = 0;
+		for (TodoItem item: loaded) {
+			bodyLength += item.getBody().length();
+		}
+		long loadTime = System.nanoTime() - startTime;
+		assertEquals(itemCount, loaded.size());
+
+		startTime = System.nanoTime();
+		Collection<TodoItem> deserialized = readSerialized(serializedFile);
+		long serializedBodyLength = 0;
+		for (TodoItem item: deserialized) {
+			serializedBodyLength += item.getBody().length();
+		}
+		long serializedLoadTime = System.nanoTime() - startTime;
+		assertEquals(bodyLength, serializedBodyLength);
+
+		Log.i("test", "Loading " + itemCount + " items with their bodies: " + loadTime / 1000000 +
+				"ms, with java serialization: " + serializedLoadTime / 1000000 + "ms");
+	}
+
+	/*
+	 * How long saving all of the items takes, and how large the file is,
+	 * compared to saving them with java serialization.
+	 */
+	public void testSave() throws IOException {
+		final int itemCount = 20000;
+		ArrayList<TodoItem> items = makeItems(itemCount);
+
+		TodoItemFileDataStore store = mFiles.open(mFiles.newFileName());
+		long startTime = System.nanoTime();
+		store.saveTodoItems(items);
+		long saveTime = System.nanoTime() - startTime;
+
+		File serializedFile = mFiles.getFile(mFiles.newFileName());
+		startTime = System.nanoTime();
+		writeSerialized(serializedFile, items);
+		long serializedTime = System.nanoTime() - startTime;
+
+		Log.i("test", "Saving " + itemCount + " items: " + store.getBytesWritten() + " bytes in " + saveTime / 1000000 +
+				"ms, with java serialization: " + serializedFile.length() + " bytes in " + serializedTime / 1000000 + "ms");
+	}
+
+	/*
+	 * How long the first load of a java serialized save file takes, which
+	 * also rewrites it in the current format.
+	 */
+	public void testMigrate() throws IOException {
+		final int itemCount = 20000;
+		String fileName = mFiles.newFileName();
+		writeSerialized(mFiles.getFile(fileName), makeItems(itemCount));
+
+		long startTime = System.nanoTime();
+		assertEquals(itemCount, mFiles.open(fileName).loadTodoItems().size());
+		long migrateTime = System.nanoTime() - startTime;
+
+		Log.i("test", "Migrating " + itemCount + " items from a java serialized save file: " +
+				migrateTime / 1000000 + "ms");
+	}
+
+	// Write items with java serialization, as older versions saved them
+	static void writeSerialized(File file, ArrayList<TodoItem> items) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+		try {
+			out.writeObject(items);
+		} finally {
+			out.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static Collection<TodoItem> readSerialized(File file) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+		try {
+			return (Collection<TodoItem>)in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	// Make items with typical lengths of title and body
+	static ArrayList<TodoItem> makeItems(int count) {
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>(count);
+		for (int i = 0; i < count; ++i) {
+			items.add(new TodoItem(i, 1000L * i, "Item " + i, "Body body body " + i, false, false));
+		}
+		return items;
+	}
+}
@@ -0,0 +1,193 @@
+package com.todolist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.test.AndroidTestCase;
+
+/*
+ * Tests for TodoItemFileDataStore.
+ */
+public class TodoItemFileDataStoreTest extends AndroidTestCase {
+	private TestSaveFiles mFiles;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFiles = new TestSaveFiles(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFiles.deleteAll();
+		super.tearDown();
+	}
+
+	/*
+	 * A record that was only partly written when the app was killed is
+	 * dropped on load, and the changes saved after that are still there
+	 * the next time that the items are loaded.
+	 */
+	public void testTornJournalTail() throws IOException {
+		String fileName = mFiles.newFileName();
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		for (int i = 0; i < 3; ++i) {
+			items.add(newItem(i));
+		}
+		TodoItemFileDataStore store = mFiles.open(fileName);
+		store.saveTodoItems(items);
+
+		// Items which aren't in the snapshot are journaled
+		saveItem(store, newItem(3));
+		mFiles.appendBytes(fileName + ".log", new byte[] {40, 1, 3, 'T'});
+
+		String restarted = mFiles.restart(fileName);
+		assertEquals(4, mFiles.open(restarted).loadTodoItems().size());
+		saveItem(mFiles.open(restarted), newItem(4));
+
+		HashMap<Integer, TodoItem> loaded = new HashMap<Integer, TodoItem>();
+		for (TodoItem item: mFiles.open(mFiles.restart(restarted)).loadTodoItems()) {
+			loaded.put(item.getId(), item);
+		}
+		assertEquals(5, loaded.size());
+		assertEquals("Item 4", loaded.get(4).getTitle());
+		assertEquals("Body 4", loaded.get(4).getBody());
+	}
+
+	/*
+	 * A journal which was cut off in the middle of it's header loads as empty,
+	 * and can still be appended to.
+	 */
+	public void testTornJournalHeader() throws IOException {
+		String fileName = mFiles.newFileName();
+		mFiles.open(fileName).saveTodoItems(Collections.singletonList(newItem(0)));
+		mFiles.appendBytes(fileName + ".log", new byte[] {'T', 'O', 'D'});
+
+		String restarted = mFiles.restart(fileName);
+		assertEquals(1, mFiles.open(restarted).loadTodoItems().size());
+		saveItem(mFiles.open(restarted), newItem(1));
+		assertEquals(2, mFiles.open(mFiles.restart(restarted)).loadTodoItems().size());
+	}
+
+	/*
+	 * In place updates go through the redo log, which is gone once they have
+	 * been made, and one that is left over from the app being killed part way
+	 * through them is applied again on load.
+	 */
+	public void testRedoLog() throws IOException {
+		String fileName = mFiles.newFileName();
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		for (int i = 0; i < 3; ++i) {
+			items.add(newItem(i));
+		}
+		TodoItemFileDataStore store = mFiles.open(fileName);
+		store.saveTodoItems(items);
+		TodoItem done = newItem(0);
+		done.setDone(true);
+		saveItem(store, done);
+		assertFalse(mFiles.getFile(fileName + ".redo").exists());
+		assertFalse(mFiles.getFile(fileName + ".log").exists());
+
+		TodoItemCodec.Encoder records = new TodoItemCodec.Encoder();
+		TodoItem archived = newItem(1);
+		archived.setArchived(true);
+		records.writeTaggedItemRecord(TodoItemFileDataStore.OP_PUT, archived);
+		records.writeTaggedIdRecord(TodoItemFileDataStore.OP_REMOVE, 2);
+		writeRedoLog(fileName, records);
+
+		String restarted = mFiles.restart(fileName);
+		HashMap<Integer, TodoItem> loaded = loadById(mFiles.open(restarted));
+		assertFalse(mFiles.getFile(restarted + ".redo").exists());
+		assertEquals(2, loaded.size());
+		assertTrue(loaded.get(0).isDone());
+		assertTrue(loaded.get(1).isArchived());
+		assertEquals("Body 1", loaded.get(1).getBody());
+
+		loaded = loadById(mFiles.open(mFiles.restart(restarted)));
+		assertEquals(2, loaded.size());
+		assertTrue(loaded.get(1).isArchived());
+	}
+
+	/*
+	 * A record that was only partly written to the redo log is dropped, since
+	 * the snapshot is not touched until the whole log is written, and the
+	 * records before it are still applied.
+	 */
+	public void testTornRedoLog() throws IOException {
+		String fileName = mFiles.newFileName();
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		for (int i = 0; i < 3; ++i) {
+			items.add(newItem(i));
+		}
+		mFiles.open(fileName).saveTodoItems(items);
+
+		TodoItemCodec.Encoder records = new TodoItemCodec.Encoder();
+		TodoItem done = newItem(1);
+		done.setDone(true);
+		records.writeTaggedItemRecord(TodoItemFileDataStore.OP_PUT, done);
+		writeRedoLog(fileName, records);
+		mFiles.appendBytes(fileName + ".redo", new byte[] {40, 1, 3, 'T'});
+
+		HashMap<Integer, TodoItem> loaded = loadById(mFiles.open(mFiles.restart(fileName)));
+		assertEquals(3, loaded.size());
+		assertFalse(loaded.get(0).isDone());
+		assertTrue(loaded.get(1).isDone());
+		assertEquals("Item 2", loaded.get(2).getTitle());
+	}
+
+	/*
+	 * An item loaded without its body only has a cached body once the body
+	 * has been read in, such as by a prefetch, which says when it is done.
+	 */
+	public void testCachedBody() throws IOException, InterruptedException {
+		String fileName = mFiles.newFileName();
+		mFiles.open(fileName).saveTodoItems(Arrays.asList(newItem(0), newItem(1)));
+		TodoItemFileDataStore store = mFiles.open(mFiles.restart(fileName));
+		HashMap<Integer, TodoItem> loaded = loadById(store);
+		assertNull(loaded.get(0).getCachedBody());
+		assertNull(loaded.get(1).getCachedBody());
+
+		final CountDownLatch done = new CountDownLatch(1);
+		store.prefetchTodoItemBodies(Collections.singletonList(1), new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		assertNull(loaded.get(0).getCachedBody());
+		assertEquals("Body 1", loaded.get(1).getCachedBody());
+		assertEquals("Body 0", loaded.get(0).getBody());
+		assertEquals("Body 0", loaded.get(0).getCachedBody());
+	}
+
+	private void writeRedoLog(String fileName, TodoItemCodec.Encoder records) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TodoItemCodec.Encoder header = new TodoItemCodec.Encoder(TodoItemCodec.HEADER_SIZE);
+		header.writeHeader();
+		header.writeTo(out);
+		records.writeTo(out);
+		mFiles.appendBytes(fileName + ".redo", out.toByteArray());
+	}
+
+	static HashMap<Integer, TodoItem> loadById(TodoItemDataStore store) throws IOException {
+		HashMap<Integer, TodoItem> loaded = new HashMap<Integer, TodoItem>();
+		for (TodoItem item: store.loadTodoItems()) {
+			loaded.put(item.getId(), item);
+		}
+		return loaded;
+	}
+
+	static TodoItem newItem(int id) {
+		return new TodoItem(id, 1000L * id, "Item " + id, "Body " + id, false, false);
+	}
+
+	static void saveItem(TodoItemDataStore store, TodoItem item) throws IOException {
+		store.saveTodoItemChanges(Collections.singletonList(item), Collections.<Integer>emptyList());
+	}
+}
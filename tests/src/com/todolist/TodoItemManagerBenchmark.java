@@ -0,0 +1,173 @@
+package com.todolist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/*
+ * Benchmarks for TodoItemManager. The results are logged rather than
+ * checked against a time limit, since they depend on the device. Run them
+ * on their own with:
+ *    adb shell am instrument -w -e class com.todolist.TodoItemManagerBenchmark \
+ *        com.todolist.test/android.test.InstrumentationTestRunner
+ */
+@LargeTest
+public class TodoItemManagerBenchmark extends AndroidTestCase {
+	private TestSaveFiles mFiles;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFiles = new TestSaveFiles(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFiles.deleteAll();
+		super.tearDown();
+	}
+
+	/*
+	 * Looking up and removing items by ID, compared to finding them by
+	 * going through the list.
+	 */
+	public void testLookupAndRemove() {
+		final int itemCount = 100000;
+		final int lookupCount = 20000;
+		final int removeCount = 5000;
+		TodoItemManager manager = newManager();
+		for (int i = 0; i < itemCount; ++i) {
+			manager.addTodoItem(new TodoItem(0, 0L, "Item " + i, "", false, false));
+		}
+		Random random = new Random(10);
+
+		long startTime = System.nanoTime();
+		for (int i = 0; i < lookupCount; ++i) {
+			assertNotNull(manager.getTodoItemById(random.nextInt(itemCount)));
+		}
+		long lookupTime = System.nanoTime() - startTime;
+
+		// Going through the list, for a hundredth as many lookups
+		List<TodoItem> items = manager.getTodoItemList();
+		startTime = System.nanoTime();
+		for (int i = 0; i < lookupCount / 100; ++i) {
+			int id = random.nextInt(itemCount);
+			for (TodoItem item: items) {
+				if (item.getId() == id) {
+					break;
+				}
+			}
+		}
+		long scanTime = (System.nanoTime() - startTime) * 100;
+
+		startTime = System.nanoTime();
+		for (int i = 0; i < removeCount; ++i) {
+			manager.removeTodoItemById(random.nextInt(itemCount));
+		}
+		long removeTime = System.nanoTime() - startTime;
+
+		Log.i("test", "With " + itemCount + " items: " + lookupCount + " lookups by ID in " + lookupTime / 1000000 +
+				"ms, by going through the list in " + scanTime / 1000000 + "ms, " + removeCount + " removals in " +
+				removeTime / 1000000 + "ms");
+	}
+
+	/*
+	 * Searching the items, including building the index for the first
+	 * search, compared to going through the words of every item.
+	 */
+	public void testSearch() {
+		final int itemCount = 100000;
+		final int searchCount = 20;
+		Random random = new Random(11);
+		String[] words = makeWords(random, 5000);
+		TodoItemManager manager = newManager();
+		for (int i = 0; i < itemCount; ++i) {
+			manager.addTodoItem(new TodoItem(0, 0L, makeText(random, words, 4), makeText(random, words, 20), false, false));
+		}
+		
+		long startTime = System.nanoTime();
+		manager.searchTodoItems("");
+		long buildTime = System.nanoTime() - startTime;
+		
+		String[] queries = {"a", "abc", words[0], words[0].substring(0, 3) + " " + words[1].substring(0, 2), words[4000]};
+		StringBuilder results = new StringBuilder();
+		for (String query: queries) {
+			int found = 0;
+			startTime = System.nanoTime();
+			for (int i = 0; i < searchCount; ++i) {
+				found = manager.searchTodoItems(query).size();
+			}
+			long searchTime = (System.nanoTime() - startTime) / searchCount;
+			results.append(", '" + query + "' (" + found + " found) in " + searchTime / 1000 + "us");
+		}
+		
+		String query = queries[3];
+		startTime = System.nanoTime();
+		List<TodoItem> scanned = scanTodoItems(manager, query);
+		long scanTime = System.nanoTime() - startTime;
+		assertEquals(scanned, manager.searchTodoItems(query));
+		
+		Log.i("test", "Searching " + itemCount + " items: index built in " + buildTime / 1000000 + "ms" + results +
+				", '" + query + "' by going through the words of every item in " + scanTime / 1000000 + "ms");
+	}
+
+	// Search by going through the words of every item, matching the same
+	// items as searchTodoItems
+	private static List<TodoItem> scanTodoItems(TodoItemManager manager, String query) {
+		String[] queryWords = query.toLowerCase().split("[^\\p{L}\\p{N}]+");
+		ArrayList<TodoItem> found = new ArrayList<TodoItem>();
+		for (TodoItem item: manager.getTodoItemList()) {
+			String[] itemWords = (item.getTitle() + " " + item.getBody()).toLowerCase().split("[^\\p{L}\\p{N}]+");
+			boolean matches = true;
+			for (String queryWord: queryWords) {
+				boolean wordMatches = queryWord.length() == 0;
+				for (int i = 0; i < itemWords.length && !wordMatches; ++i) {
+					wordMatches = itemWords[i].startsWith(queryWord);
+				}
+				if (!wordMatches) {
+					matches = false;
+					break;
+				}
+			}
+			if (matches) {
+				found.add(item);
+			}
+		}
+		return found;
+	}
+
+	// Make up some random words
+	private static String[] makeWords(Random random, int count) {
+		String[] words = new String[count];
+		for (int i = 0; i < count; ++i) {
+			StringBuilder word = new StringBuilder();
+			int length = 3 + random.nextInt(7);
+			for (int k = 0; k < length; ++k) {
+				word.append((char)('a' + random.nextInt(26)));
+			}
+			words[i] = word.toString();
+		}
+		return words;
+	}
+
+	// Make up text from some of the words, with the first words much more
+	// common than the last ones, as in real text
+	private static String makeText(Random random, String[] words, int wordCount) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < wordCount; ++i) {
+			if (i > 0) {
+				text.append(random.nextInt(10) == 0 ? ", " : " ");
+			}
+			text.append(words[(int)Math.min(words.length - 1, Math.abs(random.nextGaussian()) * words.length / 3)]);
+		}
+		return text.toString();
+	}
+
+	private TodoItemManager newManager() {
+		return new TodoItemManager(mFiles.open(mFiles.newFileName()));
+	}
+}
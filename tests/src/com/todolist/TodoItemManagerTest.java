@@ -0,0 +1,326 @@
+package com.todolist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+/*
+ * Tests for TodoItemManager.
+ */
+public class TodoItemManagerTest extends AndroidTestCase {
+	private TestSaveFiles mFiles;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFiles = new TestSaveFiles(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFiles.deleteAll();
+		super.tearDown();
+	}
+
+	/*
+	 * Loading single items adds them to what the manager already has, in ID
+	 * order, rather than replacing it.
+	 */
+	public void testLoadTodoItemKeepsOtherItems() throws IOException {
+		TodoItemManager manager = new TodoItemManager(saveItems(10));
+		final ArrayList<TodoItemChangeEvent> events = new ArrayList<TodoItemChangeEvent>();
+		manager.addChangeListener(new TodoItemManager.ChangeListener() {
+			public void onChanged(TodoItemChangeEvent event) {
+				events.add(event);
+			}
+		});
+
+		manager.loadTodoItem(5);
+		TodoItem added = new TodoItem();
+		manager.addTodoItem(added);
+		assertEquals(10, added.getId());
+		manager.loadTodoItem(3);
+		manager.loadTodoItem(7);
+		assertEquals("3 5 7 10", ids(manager.getTodoItemList()));
+
+		// Loading an item which is already there does nothing
+		TodoItem item = manager.getTodoItemById(5);
+		events.clear();
+		manager.loadTodoItem(5);
+		assertSame(item, manager.getTodoItemById(5));
+		assertEquals(0, events.size());
+
+		manager.loadTodoItem(4);
+		assertEquals(1, events.size());
+		assertFalse(events.get(0).isReload());
+		assertEquals(4, events.get(0).getInsertedIds()[0]);
+		assertEquals("3 4 5 7 10", ids(manager.getTodoItemList()));
+	}
+
+	/*
+	 * Items added while the list is streaming in go after the loaded items,
+	 * which have lower IDs, rather than in the middle of them.
+	 */
+	public void testAddDuringStreamingLoad() throws IOException {
+		final TodoItemManager manager = new TodoItemManager(saveItems(1000));
+		final TodoItem added = new TodoItem();
+		TestMainThread.run(new Runnable() {
+			public void run() {
+				// The loaded batches are added on this thread, so none of them
+				// can have been added before this one
+				manager.startLoadTodoItemList();
+				manager.addTodoItem(added);
+			}
+		});
+		waitForLoad(manager);
+
+		assertEquals(1000, added.getId());
+		List<TodoItem> items = manager.getTodoItemList();
+		assertEquals(1001, items.size());
+		for (int i = 0; i < items.size(); ++i) {
+			assertEquals(i, items.get(i).getId());
+		}
+	}
+
+	/*
+	 * Listeners are called without the manager's lock held, so they can wait
+	 * on other threads which use the manager.
+	 */
+	public void testListenerWaitsOnOtherThread() throws InterruptedException {
+		final TodoItemManager manager = new TodoItemManager(mFiles.open(mFiles.newFileName()));
+		final TodoItem[] found = new TodoItem[1];
+		manager.addChangeListener(new TodoItemManager.ChangeListener() {
+			public void onChanged(TodoItemChangeEvent event) {
+				final int id = event.getInsertedIds()[0];
+				Thread reader = new Thread() {
+					public void run() {
+						found[0] = manager.getTodoItemById(id);
+					}
+				};
+				reader.start();
+				try {
+					reader.join(10000);
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		});
+		TodoItem item = new TodoItem();
+		manager.addTodoItem(item);
+		assertSame(item, found[0]);
+	}
+
+	/*
+	 * Querying for the items with some flags loads in only those items, keeps
+	 * the items that the manager already has as they are, and once the full
+	 * list is loaded, answers from it without loading anything.
+	 */
+	public void testQueryTodoItems() throws IOException {
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		for (int i = 0; i < 6; ++i) {
+			items.add(new TodoItem(i, 1000L * i, "Item " + i, "Body " + i, false, i % 2 == 1));
+		}
+		TodoItemFileDataStore store = mFiles.open(mFiles.newFileName());
+		store.saveTodoItems(items);
+		TodoItemManager manager = new TodoItemManager(store);
+
+		manager.loadTodoItem(2);
+		TodoItem loaded = manager.getTodoItemById(2);
+		manager.setTodoItemArchived(loaded, true);
+		List<TodoItem> archived = manager.queryTodoItems(true, null);
+		assertEquals("1 2 3 5", ids(archived));
+		assertSame(loaded, archived.get(1));
+		assertEquals("1 2 3 5", ids(manager.getTodoItemList()));
+
+		manager.saveTodoItemList();
+		manager.loadTodoItemList();
+		int fullLoads = TodoItemManager.getFullLoadCount();
+		List<TodoItem> active = manager.queryTodoItems(false, null);
+		assertEquals("0 4", ids(active));
+		assertSame(manager.getTodoItemById(0), active.get(0));
+		assertEquals(fullLoads, TodoItemManager.getFullLoadCount());
+	}
+
+	/*
+	 * In frame dispatch mode, a change made on another thread, and dispatched
+	 * by it, still only reaches the filtered lists and listeners on the UI
+	 * thread.
+	 */
+	public void testFrameDispatchStaysOnMainThread() throws InterruptedException {
+		final TodoItemManager manager = new TodoItemManager(mFiles.open(mFiles.newFileName()));
+		final TodoItemFilteredList[] list = new TodoItemFilteredList[1];
+		final List<Boolean> onMainThread = Collections.synchronizedList(new ArrayList<Boolean>());
+		TestMainThread.run(new Runnable() {
+			public void run() {
+				manager.enableFrameDispatch(60000);
+				list[0] = manager.registerFilteredList(new TodoItemFilteredList.FlagFilter(null, null));
+				manager.addChangeListener(new TodoItemManager.ChangeListener() {
+					public void onChanged(TodoItemChangeEvent event) {
+						onMainThread.add(Looper.myLooper() == Looper.getMainLooper());
+					}
+				});
+			}
+		});
+
+		Thread writer = new Thread() {
+			public void run() {
+				manager.addTodoItem(new TodoItem());
+				manager.dispatchChanges();
+			}
+		};
+		writer.start();
+		writer.join();
+		TestMainThread.run(new Runnable() {
+			public void run() {
+				assertEquals(1, list[0].size());
+			}
+		});
+		assertEquals(Collections.singletonList(true), onMainThread);
+	}
+
+	/*
+	 * Threads changing the items at the same time as other threads read the
+	 * snapshots of them. The snapshots are always in ID order, the listeners
+	 * are called for one change at a time, and a filtered list ends up with
+	 * the same items as the list.
+	 */
+	public void testConcurrentChanges() throws InterruptedException {
+		final int writerCount = 2;
+		final int readerCount = 2;
+		final int changeCount = 5000;
+		final TodoItemManager manager = new TodoItemManager(mFiles.open(mFiles.newFileName()));
+		manager.loadTodoItemList();
+		TodoItemFilteredList archived = manager.registerFilteredList(new TodoItemFilteredList.FlagFilter(true, null));
+		final AtomicInteger dispatching = new AtomicInteger();
+		final AtomicBoolean overlapped = new AtomicBoolean();
+		manager.addChangeListener(new TodoItemManager.ChangeListener() {
+			public void onChanged(TodoItemChangeEvent event) {
+				if (dispatching.incrementAndGet() > 1) {
+					overlapped.set(true);
+				}
+				Thread.yield();
+				dispatching.decrementAndGet();
+			}
+		});
+
+		final AtomicBoolean stop = new AtomicBoolean();
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[writerCount + readerCount];
+		for (int i = 0; i < writerCount; ++i) {
+			final Random random = new Random(i);
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < changeCount; ++i) {
+							List<TodoItem> items = manager.getTodoItemList();
+							int op = random.nextInt(6);
+							if (op >= 3 || items.size() < 10) {
+								manager.addTodoItem(new TodoItem(0, 0L, "Item", "", false, random.nextBoolean()));
+							} else if (op == 2) {
+								manager.removeTodoItem(items.get(random.nextInt(items.size())));
+							} else if (op == 1) {
+								manager.removeTodoItemById(items.get(random.nextInt(items.size())).getId());
+							} else {
+								TodoItem item = items.get(random.nextInt(items.size()));
+								manager.setTodoItemArchived(item, !item.isArchived());
+							}
+							if (i % 1000 == 0) {
+								manager.saveTodoItemList();
+							}
+						}
+					} catch (Throwable ex) {
+						errors.add(ex);
+					}
+				}
+			};
+		}
+		for (int i = writerCount; i < threads.length; ++i) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						while (!stop.get()) {
+							List<TodoItem> items = manager.getTodoItemList();
+							int count = 0;
+							int lastId = -1;
+							for (TodoItem item: items) {
+								assertTrue(item.getId() > lastId);
+								lastId = item.getId();
+								++count;
+							}
+							assertEquals(items.size(), count);
+							if (count > 0) {
+								assertEquals(lastId, items.get(count - 1).getId());
+							}
+						}
+					} catch (Throwable ex) {
+						errors.add(ex);
+					}
+				}
+			};
+		}
+		for (Thread thread: threads) {
+			thread.start();
+		}
+		for (int i = 0; i < writerCount; ++i) {
+			threads[i].join();
+		}
+		stop.set(true);
+		for (Thread thread: threads) {
+			thread.join();
+		}
+
+		if (!errors.isEmpty()) {
+			throw new RuntimeException(errors.get(0));
+		}
+		assertFalse(overlapped.get());
+		ArrayList<TodoItem> expected = new ArrayList<TodoItem>();
+		for (TodoItem item: manager.getTodoItemList()) {
+			if (item.isArchived()) {
+				expected.add(item);
+			}
+		}
+		assertEquals(ids(expected), ids(new ArrayList<TodoItem>(archived)));
+	}
+
+	// Wait for a streaming load to finish
+	static void waitForLoad(final TodoItemManager manager) {
+		final boolean[] isLoading = {true};
+		while (isLoading[0]) {
+			TestMainThread.run(new Runnable() {
+				public void run() {
+					isLoading[0] = manager.isLoadingTodoItemList();
+				}
+			});
+		}
+	}
+
+	// Save items with IDs from 0 up to a new data store
+	private TodoItemFileDataStore saveItems(int count) throws IOException {
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		for (int i = 0; i < count; ++i) {
+			items.add(TodoItemFileDataStoreTest.newItem(i));
+		}
+		TodoItemFileDataStore store = mFiles.open(mFiles.newFileName());
+		store.saveTodoItems(items);
+		return store;
+	}
+
+	// The IDs of some items, separated by spaces
+	static String ids(List<TodoItem> items) {
+		StringBuilder ids = new StringBuilder();
+		for (TodoItem item: items) {
+			if (ids.length() > 0) {
+				ids.append(' ');
+			}
+			ids.append(item.getId());
+		}
+		return ids.toString();
+	}
+}
@@ -0,0 +1,139 @@
+package com.todolist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import android.test.AndroidTestCase;
+
+/*
+ * Tests for TodoItemProjection.
+ */
+public class TodoItemProjectionTest extends AndroidTestCase {
+	private static final String[] WORDS = {"milk", "bread", "apple", "zeta", "alpha", "call"};
+
+	private TestSaveFiles mFiles;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFiles = new TestSaveFiles(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFiles.deleteAll();
+		super.tearDown();
+	}
+
+	/*
+	 * The items are changed on the UI thread in bursts, requesting a rebuild
+	 * after each change as TodoListFragment does, while the rebuilds run in
+	 * the background. Every published list matches the items as they are
+	 * when it is published, and the last request is published.
+	 */
+	public void testPublishedListsMatchItems() throws InterruptedException {
+		final int itemCount = 20000;
+		final int burstCount = 2000;
+		final String query = "mi";
+		final TodoItemFilteredList.Filter filter = new TodoItemFilteredList.FlagFilter(false, null);
+		final int sortOrder = TodoItemSkipList.SORT_BY_TITLE;
+		final Random random = new Random(21);
+		final TodoItemManager manager = new TodoItemManager(mFiles.open(mFiles.newFileName()));
+		manager.loadTodoItemList();
+		for (int i = 0; i < itemCount; ++i) {
+			manager.addTodoItem(new TodoItem(0, i, randomTitle(random), "Body " + i, false, random.nextBoolean()));
+		}
+
+		final int[] publishedCount = {0};
+		final List<String> mismatches = new ArrayList<String>();
+		final TodoItemProjection[] projection = new TodoItemProjection[1];
+		TestMainThread.run(new Runnable() {
+			public void run() {
+				projection[0] = new TodoItemProjection(manager, new TodoItemProjection.Listener() {
+					public void onPublished(List<TodoItem> items) {
+						++publishedCount[0];
+						List<TodoItem> expected = expectedItems(manager, query, filter, sortOrder);
+						if (!items.equals(expected)) {
+							mismatches.add(items.size() + " items published, expected " + expected.size());
+						}
+					}
+				});
+				manager.addChangeListener(new TodoItemManager.ChangeListener() {
+					public void onChanged(TodoItemChangeEvent event) {
+						projection[0].request(query, filter, sortOrder);
+					}
+				});
+				projection[0].request(query, filter, sortOrder);
+			}
+		});
+
+		for (int i = 0; i < burstCount; ++i) {
+			final int changeCount = random.nextInt(4);
+			TestMainThread.run(new Runnable() {
+				public void run() {
+					for (int k = 0; k < changeCount; ++k) {
+						List<TodoItem> items = manager.getTodoItemList();
+						TodoItem item = items.get(random.nextInt(items.size()));
+						switch (random.nextInt(4)) {
+						case 0:
+							manager.setTodoItemContent(item, randomTitle(random), item.getBody());
+							break;
+						case 1:
+							manager.setTodoItemArchived(item, !item.isArchived());
+							break;
+						case 2:
+							manager.removeTodoItem(item);
+							break;
+						default:
+							manager.addTodoItem(new TodoItem(0, 0L, randomTitle(random), "Body", false, false));
+						}
+					}
+				}
+			});
+			Thread.sleep(random.nextInt(3));
+		}
+
+		// With no more changes, the last request gets published
+		final int[] lastCount = new int[1];
+		TestMainThread.run(new Runnable() {
+			public void run() {
+				lastCount[0] = publishedCount[0];
+				projection[0].request(query, filter, sortOrder);
+			}
+		});
+		final boolean[] isPublished = {false};
+		for (int i = 0; i < 6000 && !isPublished[0]; ++i) {
+			Thread.sleep(10);
+			TestMainThread.run(new Runnable() {
+				public void run() {
+					isPublished[0] = publishedCount[0] > lastCount[0];
+				}
+			});
+		}
+		assertTrue(isPublished[0]);
+		assertEquals(new ArrayList<String>(), mismatches);
+	}
+
+	// Work out the list that the projection should publish, on the UI thread
+	private static List<TodoItem> expectedItems(TodoItemManager manager, String query,
+			TodoItemFilteredList.Filter filter, int sortOrder) {
+		Pattern pattern = Pattern.compile("(?s).*\\b" + query + ".*");
+		TodoItemSkipList sorted = new TodoItemSkipList(sortOrder);
+		for (TodoItem item: manager.getTodoItemList()) {
+			if (filter.filter(item) && pattern.matcher((item.getTitle() + " " + item.getBody()).toLowerCase()).matches()) {
+				sorted.add(item);
+			}
+		}
+		ArrayList<TodoItem> items = new ArrayList<TodoItem>();
+		for (TodoItem item: sorted) {
+			items.add(item);
+		}
+		return items;
+	}
+
+	private static String randomTitle(Random random) {
+		return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+	}
+}
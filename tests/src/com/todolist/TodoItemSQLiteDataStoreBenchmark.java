@@ -0,0 +1,119 @@
+package com.todolist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/*
+ * Benchmarks for TodoItemSQLiteDataStore against TodoItemFileDataStore. The
+ * results are logged rather than checked against a time limit, since they
+ * depend on the device. Run them on their own with:
+ *    adb shell am instrument -w -e class com.todolist.TodoItemSQLiteDataStoreBenchmark \
+ *        com.todolist.test/android.test.InstrumentationTestRunner
+ */
+@LargeTest
+public class TodoItemSQLiteDataStoreBenchmark extends AndroidTestCase {
+	private TestSaveFiles mFiles;
+	private TestDatabases mDatabases;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFiles = new TestSaveFiles(getContext());
+		mDatabases = new TestDatabases(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFiles.deleteAll();
+		mDatabases.deleteAll();
+		super.tearDown();
+	}
+
+	public void test10000Items() throws IOException {
+		compareDataStores(10000);
+	}
+
+	public void test100000Items() throws IOException {
+		compareDataStores(100000);
+	}
+
+	/*
+	 * How long saving all of the items, loading all of them, querying for the
+	 * archived page, and saving one change take, and how much is written.
+	 */
+	private void compareDataStores(int itemCount) throws IOException {
+		ArrayList<TodoItem> items = TodoItemFileDataStoreBenchmark.makeItems(itemCount);
+		int archivedCount = 0;
+		for (TodoItem item: items) {
+			item.setDone(item.getId() % 3 == 0);
+			item.setArchived(item.getId() % 10 == 0);
+			if (item.isArchived()) {
+				++archivedCount;
+			}
+		}
+
+		String fileName = mFiles.newFileName();
+		TodoItemFileDataStore fileStore = mFiles.open(fileName);
+		long startTime = System.nanoTime();
+		fileStore.saveTodoItems(items);
+		long fileSaveTime = System.nanoTime() - startTime;
+		long fileSaveBytes = fileStore.getBytesWritten();
+
+		String databaseName = mDatabases.newDatabaseName();
+		TodoItemSQLiteDataStore sqliteStore = mDatabases.open(databaseName);
+		startTime = System.nanoTime();
+		sqliteStore.saveTodoItems(items);
+		long sqliteSaveTime = System.nanoTime() - startTime;
+		long sqliteSaveBytes = mDatabases.getSize(databaseName);
+
+		Log.i("test", itemCount + " items, saving all: file " + fileSaveBytes + " bytes in " +
+				fileSaveTime / 1000000 + "ms, SQLite " + sqliteSaveBytes + " bytes in " + sqliteSaveTime / 1000000 + "ms");
+
+		// The file store is opened again, like the first load after the app
+		// starts. Neither store reads the bodies until they are asked for.
+		startTime = System.nanoTime();
+		assertEquals(itemCount, mFiles.open(mFiles.restart(fileName)).loadTodoItems().size());
+		long fileLoadTime = System.nanoTime() - startTime;
+		startTime = System.nanoTime();
+		assertEquals(itemCount, sqliteStore.loadTodoItems().size());
+		long sqliteLoadTime = System.nanoTime() - startTime;
+
+		startTime = System.nanoTime();
+		List<TodoItem> fileArchived = fileStore.queryTodoItems(true, null);
+		long fileQueryTime = System.nanoTime() - startTime;
+		startTime = System.nanoTime();
+		List<TodoItem> sqliteArchived = sqliteStore.queryTodoItems(true, null);
+		long sqliteQueryTime = System.nanoTime() - startTime;
+		assertEquals(archivedCount, fileArchived.size());
+		assertEquals(archivedCount, sqliteArchived.size());
+
+		Log.i("test", itemCount + " items, loading all: file " + fileLoadTime / 1000000 + "ms, SQLite " +
+				sqliteLoadTime / 1000000 + "ms, querying the " + archivedCount + " archived: file " +
+				fileQueryTime / 1000000 + "ms, SQLite " + sqliteQueryTime / 1000000 + "ms");
+
+		// Toggling an item, as when the user checks it off
+		TodoItem changed = new TodoItem(items.get(itemCount / 2));
+		changed.setDone(!changed.isDone());
+		long bytesBefore = fileStore.getBytesWritten();
+		startTime = System.nanoTime();
+		TodoItemFileDataStoreTest.saveItem(fileStore, changed);
+		long fileChangeTime = System.nanoTime() - startTime;
+		long fileChangeBytes = fileStore.getBytesWritten() - bytesBefore;
+
+		bytesBefore = sqliteStore.getBytesWritten();
+		startTime = System.nanoTime();
+		sqliteStore.saveTodoItemChanges(Collections.singletonList(changed), Collections.<Integer>emptyList());
+		long sqliteChangeTime = System.nanoTime() - startTime;
+		long sqliteChangeBytes = sqliteStore.getBytesWritten() - bytesBefore;
+
+		Log.i("test", itemCount + " items, saving one change: file " + fileChangeBytes + " bytes in " +
+				fileChangeTime / 1000 + "us, SQLite " + sqliteChangeBytes + " bytes of values in " +
+				sqliteChangeTime / 1000 + "us");
+	}
+}
@@ -0,0 +1,172 @@
+package com.todolist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+/*
+ * Tests for TodoItemSQLiteDataStore.
+ */
+public class TodoItemSQLiteDataStoreTest extends AndroidTestCase {
+	private TestSaveFiles mFiles;
+	private TestDatabases mDatabases;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFiles = new TestSaveFiles(getContext());
+		mDatabases = new TestDatabases(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFiles.deleteAll();
+		mDatabases.deleteAll();
+		super.tearDown();
+	}
+
+	/*
+	 * Items are loaded in ID order without their bodies, which are read from
+	 * the database when they are asked for.
+	 */
+	public void testSaveAndLoad() throws IOException {
+		TodoItemSQLiteDataStore store = mDatabases.open(mDatabases.newDatabaseName());
+		store.saveTodoItems(Arrays.asList(newItem(2, false, false), newItem(0, true, false), newItem(1, false, true)));
+
+		List<TodoItem> items = new ArrayList<TodoItem>(store.loadTodoItems());
+		assertEquals("0 1 2", TodoItemManagerTest.ids(items));
+		assertFalse(items.get(0).isBodyLoaded());
+		assertTrue(items.get(0).isDone());
+		assertTrue(items.get(1).isArchived());
+		assertEquals("Item 2", items.get(2).getTitle());
+		assertEquals(2000L, items.get(2).getCreatedTime());
+		assertEquals("Body 2", items.get(2).getBody());
+
+		assertEquals("Body 1", store.loadTodoItem(1).getBody());
+		assertNull(store.loadTodoItem(3));
+		assertEquals("", store.loadTodoItemBody(3));
+		assertEquals(3, store.getNextTodoItemId());
+
+		// Saving all of the items again replaces them
+		store.saveTodoItems(Collections.singletonList(newItem(5, false, false)));
+		assertEquals("5", TodoItemManagerTest.ids(new ArrayList<TodoItem>(store.loadTodoItems())));
+		assertEquals(6, store.getNextTodoItemId());
+	}
+
+	/*
+	 * Saving changes updates, inserts and deletes single rows. An item saved
+	 * without its body loaded keeps the body that it already had.
+	 */
+	public void testSaveChanges() throws IOException {
+		TodoItemSQLiteDataStore store = mDatabases.open(mDatabases.newDatabaseName());
+		store.saveTodoItems(Arrays.asList(newItem(0, false, false), newItem(1, false, false), newItem(2, false, false)));
+		long stamp = store.getModificationStamp();
+
+		TodoItem withoutBody = store.loadTodoItem(0);
+		withoutBody.setDone(true);
+		TodoItem withBody = newItem(1, false, false);
+		withBody.setTitle("New title");
+		withBody.setBody("New body");
+		assertEquals(stamp + 1, store.saveTodoItemChanges(
+				Arrays.asList(withoutBody, withBody, newItem(7, false, true)), Collections.singletonList(2)));
+
+		HashMap<Integer, TodoItem> loaded = TodoItemFileDataStoreTest.loadById(store);
+		assertEquals(3, loaded.size());
+		assertTrue(loaded.get(0).isDone());
+		assertEquals("Body 0", loaded.get(0).getBody());
+		assertEquals("New title", loaded.get(1).getTitle());
+		assertEquals("New body", loaded.get(1).getBody());
+		assertTrue(loaded.get(7).isArchived());
+		assertNull(loaded.get(2));
+		assertEquals(8, store.getNextTodoItemId());
+
+		// Nothing to save leaves the stamp alone
+		assertEquals(stamp + 1, store.saveTodoItemChanges(
+				Collections.<TodoItem>emptyList(), Collections.<Integer>emptyList()));
+	}
+
+	/*
+	 * Queries return the items with the given flags, in ID order.
+	 */
+	public void testQuery() throws IOException {
+		TodoItemSQLiteDataStore store = mDatabases.open(mDatabases.newDatabaseName());
+		store.saveTodoItems(Arrays.asList(newItem(0, false, false), newItem(1, true, false),
+				newItem(2, false, true), newItem(3, true, true), newItem(4, false, false)));
+
+		assertEquals("0 1 4", TodoItemManagerTest.ids(store.queryTodoItems(false, null)));
+		assertEquals("2 3", TodoItemManagerTest.ids(store.queryTodoItems(true, null)));
+		assertEquals("1 3", TodoItemManagerTest.ids(store.queryTodoItems(null, true)));
+		assertEquals("0 4", TodoItemManagerTest.ids(store.queryTodoItems(false, false)));
+		assertEquals("3", TodoItemManagerTest.ids(store.queryTodoItems(true, true)));
+		assertEquals("0 1 2 3 4", TodoItemManagerTest.ids(store.queryTodoItems(null, null)));
+	}
+
+	/*
+	 * The items in a save file, with their bodies, are copied into the
+	 * database the first time, and only the first time.
+	 */
+	public void testMigrateFromFileDataStore() throws IOException {
+		TodoItemFileDataStore fileStore = mFiles.open(mFiles.newFileName());
+		fileStore.saveTodoItems(Arrays.asList(newItem(0, false, false), newItem(1, true, true)));
+		fileStore.saveTodoItemChanges(Collections.<TodoItem>emptyList(), Collections.singletonList(1));
+		TodoItemFileDataStoreTest.saveItem(fileStore, newItem(4, false, true));
+
+		TodoItemSQLiteDataStore store = mDatabases.open(mDatabases.newDatabaseName());
+		assertTrue(store.migrateFrom(fileStore));
+		HashMap<Integer, TodoItem> loaded = TodoItemFileDataStoreTest.loadById(store);
+		assertEquals(2, loaded.size());
+		assertEquals("Body 0", loaded.get(0).getBody());
+		assertTrue(loaded.get(4).isArchived());
+		assertEquals("Body 4", loaded.get(4).getBody());
+		assertEquals(5, store.getNextTodoItemId());
+
+		// Items removed from the database afterwards don't come back
+		store.saveTodoItemChanges(Collections.<TodoItem>emptyList(), Arrays.asList(0, 4));
+		assertFalse(store.migrateFrom(fileStore));
+		assertEquals(0, store.loadTodoItems().size());
+	}
+
+	/*
+	 * A database which already has items of its own isn't migrated into.
+	 */
+	public void testMigrateIntoUsedDatabase() throws IOException {
+		TodoItemFileDataStore fileStore = mFiles.open(mFiles.newFileName());
+		fileStore.saveTodoItems(Collections.singletonList(newItem(0, false, false)));
+
+		TodoItemSQLiteDataStore store = mDatabases.open(mDatabases.newDatabaseName());
+		store.saveTodoItems(Collections.singletonList(newItem(3, false, false)));
+		assertFalse(store.migrateFrom(fileStore));
+		assertEquals("3", TodoItemManagerTest.ids(new ArrayList<TodoItem>(store.loadTodoItems())));
+	}
+
+	/*
+	 * The manager loads in the items for one page with an indexed query, and
+	 * can save changes to them without having loaded the rest.
+	 */
+	public void testManagerQuery() throws IOException {
+		TodoItemSQLiteDataStore store = mDatabases.open(mDatabases.newDatabaseName());
+		store.saveTodoItems(Arrays.asList(newItem(0, false, false), newItem(1, false, true),
+				newItem(2, false, false), newItem(3, false, true)));
+
+		TodoItemManager manager = new TodoItemManager(store);
+		List<TodoItem> archived = manager.queryTodoItems(true, null);
+		assertEquals("1 3", TodoItemManagerTest.ids(archived));
+		assertEquals("1 3", TodoItemManagerTest.ids(manager.getTodoItemList()));
+		manager.setTodoItemArchived(archived.get(0), false);
+		manager.saveTodoItemList();
+		assertEquals("0 1 2", TodoItemManagerTest.ids(store.queryTodoItems(false, null)));
+
+		TodoItem added = new TodoItem();
+		manager.addTodoItem(added);
+		assertEquals(4, added.getId());
+	}
+
+	static TodoItem newItem(int id, boolean done, boolean archived) {
+		return new TodoItem(id, 1000L * id, "Item " + id, "Body " + id, done, archived);
+	}
+}
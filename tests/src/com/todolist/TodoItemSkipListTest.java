@@ -0,0 +1,124 @@
+package com.todolist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+
+/*
+ * Tests for TodoItemSkipList.
+ */
+public class TodoItemSkipListTest extends AndroidTestCase {
+	public void testSortById() {
+		checkRandomChanges(TodoItemSkipList.SORT_BY_ID);
+	}
+
+	public void testSortByCreated() {
+		checkRandomChanges(TodoItemSkipList.SORT_BY_CREATED);
+	}
+
+	public void testSortByDone() {
+		checkRandomChanges(TodoItemSkipList.SORT_BY_DONE);
+	}
+
+	public void testSortByTitle() {
+		checkRandomChanges(TodoItemSkipList.SORT_BY_TITLE);
+	}
+
+	/*
+	 * Random inserts, removes, replacements, and changes to the items followed
+	 * by moving them, as TodoItemFilteredList does, keep the list in the same order as
+	 * sorting an ArrayList of the items, by position as well as when iterated
+	 * over, and each node's position is where its item is in that order.
+	 */
+	private void checkRandomChanges(int sortOrder) {
+		Random random = new Random(sortOrder);
+		TodoItemSkipList list = new TodoItemSkipList(sortOrder);
+		HashMap<Integer, TodoItemSkipList.Node> nodes = new HashMap<Integer, TodoItemSkipList.Node>();
+		ArrayList<TodoItem> expected = new ArrayList<TodoItem>();
+		Comparator<TodoItem> comparator = comparatorFor(sortOrder);
+		int nextId = 0;
+		for (int i = 0; i < 5000; ++i) {
+			int op = random.nextInt(4);
+			if (op == 0 || expected.size() < 10) {
+				TodoItem item = new TodoItem(nextId++, random.nextInt(50), "Item " + random.nextInt(50), "",
+						random.nextBoolean(), false);
+				nodes.put(item.getId(), list.add(item));
+				expected.add(item);
+			} else if (op == 1) {
+				TodoItem item = expected.remove(random.nextInt(expected.size()));
+				list.remove(nodes.remove(item.getId()));
+			} else {
+				int index = random.nextInt(expected.size());
+				TodoItem item = expected.get(index);
+				TodoItemSkipList.Node node = nodes.get(item.getId());
+				if (random.nextInt(3) == 0) {
+					// A copy of the item created at another time takes its place
+					item = new TodoItem(item.getId(), random.nextInt(50), item.getTitle(), "", item.isDone(), false);
+					expected.set(index, item);
+					list.remove(node);
+					nodes.put(item.getId(), list.add(item));
+				} else {
+					if (random.nextBoolean()) {
+						item.setDone(!item.isDone());
+					} else {
+						item.setTitle((random.nextBoolean() ? "ITEM " : "Item ") + random.nextInt(50));
+					}
+					if (list.isMoved(node)) {
+						list.remove(node);
+						nodes.put(item.getId(), list.add(item));
+					}
+				}
+			}
+			if (i % 100 == 0) {
+				Collections.sort(expected, comparator);
+				assertSameOrder(expected, list, nodes);
+			}
+		}
+		Collections.sort(expected, comparator);
+		assertSameOrder(expected, list, nodes);
+		list.clear();
+		assertEquals(0, list.size());
+		assertFalse(list.iterator().hasNext());
+	}
+
+	private static void assertSameOrder(ArrayList<TodoItem> expected, TodoItemSkipList list,
+			HashMap<Integer, TodoItemSkipList.Node> nodes) {
+		assertEquals(expected.size(), list.size());
+		int position = 0;
+		for (TodoItem item: list) {
+			assertSame(expected.get(position++), item);
+		}
+		assertEquals(expected.size(), position);
+		for (int i = 0; i < expected.size(); ++i) {
+			assertSame(expected.get(i), list.get(i));
+			assertEquals(i, list.indexOf(nodes.get(expected.get(i).getId())));
+		}
+	}
+
+	// The same orders as TodoItemSkipList's
+	private static Comparator<TodoItem> comparatorFor(final int sortOrder) {
+		return new Comparator<TodoItem>() {
+			public int compare(TodoItem a, TodoItem b) {
+				int result = 0;
+				if (sortOrder == TodoItemSkipList.SORT_BY_CREATED) {
+					result = compareLongs(a.getCreatedTime(), b.getCreatedTime());
+				} else if (sortOrder == TodoItemSkipList.SORT_BY_DONE) {
+					result = compareLongs(a.isDone() ? 1 : 0, b.isDone() ? 1 : 0);
+				} else if (sortOrder == TodoItemSkipList.SORT_BY_TITLE) {
+					result = a.getTitle().toLowerCase(Locale.getDefault()).compareTo(
+							b.getTitle().toLowerCase(Locale.getDefault()));
+				}
+				return (result != 0) ? result : compareLongs(a.getId(), b.getId());
+			}
+		};
+	}
+
+	private static int compareLongs(long a, long b) {
+		return (a < b) ? -1 : ((a == b) ? 0 : 1);
+	}
+}
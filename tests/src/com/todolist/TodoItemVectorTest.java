@@ -0,0 +1,102 @@
+package com.todolist;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+
+/*
+ * Tests for TodoItemVector.
+ */
+public class TodoItemVectorTest extends AndroidTestCase {
+	/*
+	 * Random appends and sets, including of nulls, give the same items as
+	 * doing the same to an ArrayList, both by index and by position among
+	 * the items which aren't null, and leave the earlier vectors unchanged.
+	 * The sizes go past a few levels of the tree.
+	 */
+	public void testRandomChanges() {
+		Random random = new Random(1);
+		TodoItemVector vector = TodoItemVector.EMPTY;
+		ArrayList<TodoItem> expected = new ArrayList<TodoItem>();
+		TodoItemVector saved = vector;
+		ArrayList<TodoItem> savedExpected = new ArrayList<TodoItem>();
+		for (int i = 0; i < 40000; ++i) {
+			if (expected.isEmpty() || random.nextInt(3) > 0) {
+				TodoItem item = random.nextInt(4) > 0 ? newItem(i) : null;
+				vector = vector.append(item);
+				expected.add(item);
+			} else {
+				int index = random.nextInt(expected.size());
+				TodoItem item = random.nextBoolean() ? newItem(i) : null;
+				vector = vector.set(index, item);
+				expected.set(index, item);
+			}
+			if (i % 997 == 0) {
+				assertSameItems(expected, vector);
+				assertSameItems(savedExpected, saved);
+				saved = vector;
+				savedExpected = new ArrayList<TodoItem>(expected);
+			}
+		}
+		assertSameItems(expected, vector);
+		assertSameItems(expected, TodoItemVector.of(expected));
+	}
+
+	/*
+	 * Setting every item to null and back keeps the counts right, and a
+	 * vector made of a list with nulls counts them right.
+	 */
+	public void testNulls() {
+		ArrayList<TodoItem> expected = new ArrayList<TodoItem>();
+		for (int i = 0; i < 2000; ++i) {
+			expected.add((i % 3 == 0) ? null : newItem(i));
+		}
+		TodoItemVector vector = TodoItemVector.of(expected);
+		assertSameItems(expected, vector);
+		for (int i = 0; i < expected.size(); ++i) {
+			vector = vector.set(i, null);
+			expected.set(i, null);
+		}
+		assertSameItems(expected, vector);
+		assertEquals(0, vector.count());
+		for (int i = expected.size() - 1; i >= 0; i -= 7) {
+			vector = vector.set(i, newItem(i));
+			expected.set(i, newItem(i));
+		}
+		assertSameItems(expected, vector);
+	}
+
+	private static void assertSameItems(ArrayList<TodoItem> expected, TodoItemVector vector) {
+		assertEquals(expected.size(), vector.size());
+		ArrayList<TodoItem> present = new ArrayList<TodoItem>();
+		for (int i = 0; i < expected.size(); ++i) {
+			assertItem(expected.get(i), vector.get(i));
+			if (expected.get(i) != null) {
+				present.add(expected.get(i));
+			}
+		}
+		assertEquals(present.size(), vector.count());
+		for (int i = 0; i < present.size(); ++i) {
+			assertItem(present.get(i), vector.getPresent(i));
+		}
+		try {
+			vector.getPresent(present.size());
+			fail("Position past the items");
+		} catch (IndexOutOfBoundsException ex) {
+			// Expected
+		}
+	}
+
+	private static void assertItem(TodoItem expected, TodoItem item) {
+		if (expected == null) {
+			assertNull(item);
+		} else {
+			assertEquals(expected.getId(), item.getId());
+		}
+	}
+
+	private static TodoItem newItem(int id) {
+		return new TodoItem(id, 0L, "Item " + id, "", false, false);
+	}
+}
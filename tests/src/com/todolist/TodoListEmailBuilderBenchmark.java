@@ -0,0 +1,131 @@
+package com.todolist;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/*
+ * Benchmarks for TodoListEmailBuilder. The results are logged rather than
+ * checked against a time limit, since they depend on the device. Run them
+ * on their own with:
+ *    adb shell am instrument -w -e class com.todolist.TodoListEmailBuilderBenchmark \
+ *        com.todolist.test/android.test.InstrumentationTestRunner
+ */
+@LargeTest
+public class TodoListEmailBuilderBenchmark extends AndroidTestCase {
+	private File mFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFile = getContext().getFileStreamPath("test_export.txt");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFile.delete();
+		super.tearDown();
+	}
+
+	/*
+	 * Building the email body as a string and writing it to a file, for
+	 * lists of different sizes, compared to building it by concatenating
+	 * strings as older versions did, for the lists where that is quick
+	 * enough to try.
+	 */
+	public void testBuildEmailBody() throws IOException {
+		Random random = new Random(24);
+		for (int itemCount: new int[] {1000, 10000, 100000}) {
+			List<TodoItem> items = makeItems(random, itemCount);
+			TodoListEmailBuilder builder = new TodoListEmailBuilder().setSource(items);
+
+			long startTime = System.nanoTime();
+			String body = builder.buildEmailBody();
+			long buildTime = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			builder.writeEmailBody(mFile);
+			long writeTime = System.nanoTime() - startTime;
+			assertEquals(body.getBytes("UTF-8").length, mFile.length());
+
+			String concatTime = "not tried";
+			if (itemCount <= 10000) {
+				startTime = System.nanoTime();
+				concatenateEmailBody(items);
+				concatTime = (System.nanoTime() - startTime) / 1000000 + "ms";
+			}
+
+			Log.i("test", "Email body of " + itemCount + " items (" + body.length() + " chars): built in " +
+					buildTime / 1000000 + "ms, written to a file in " + writeTime / 1000000 + "ms, by concatenating " +
+					concatTime);
+		}
+	}
+
+	/*
+	 * Exporting a large list in each of the export formats, with some of
+	 * the items having text that the formats need to escape.
+	 */
+	public void testExportFormats() throws IOException {
+		final int itemCount = 100000;
+		Random random = new Random(25);
+		List<TodoItem> items = new ArrayList<TodoItem>(itemCount);
+		for (int i = 0; i < itemCount; ++i) {
+			items.add(new TodoItem(i, i, "Todo title " + i + (i % 7 == 0 ? ", with a comma" : ""),
+					"Some body text for item " + i + (i % 11 == 0 ? "\nA second \"line\"" : ""),
+					random.nextBoolean(), random.nextBoolean()));
+		}
+		for (TodoListExportFormat format: TodoListExportFormats.getFormats()) {
+			TodoListEmailBuilder builder = new TodoListEmailBuilder().setSource(items).setFormat(format);
+
+			long startTime = System.nanoTime();
+			String body = builder.buildEmailBody();
+			long buildTime = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			builder.writeEmailBody(mFile);
+			long writeTime = System.nanoTime() - startTime;
+			assertEquals(body.getBytes("UTF-8").length, mFile.length());
+
+			Log.i("test", format.getName() + " export of " + itemCount + " items (" + body.length() + " chars): built in " +
+					buildTime / 1000000 + "ms (" + itemCount * 1000000L / Math.max(buildTime / 1000, 1) +
+					" items/s), written to a file in " + writeTime / 1000000 + "ms");
+		}
+	}
+
+	// Build the email body by concatenating strings, as older versions did
+	private static String concatenateEmailBody(List<TodoItem> items) {
+		String body = "==== Todo List ====\n\n";
+		for (TodoItem item: items) {
+			if (item.isDone()) {
+				body = body + "[X] ";
+			} else {
+				body = body + "[ ] ";
+			}
+			body = body + item.getTitle();
+			if (item.isArchived()) {
+				body = body + " (archived)";
+			}
+			body = body + "\n    " + item.getBody();
+			body = body + "\n\n";
+		}
+		body = body.substring(0, body.length() - 3);
+		body = body + "===================\n";
+		return body;
+	}
+
+	// Make items with typical lengths of title and body
+	private static List<TodoItem> makeItems(Random random, int count) {
+		List<TodoItem> items = new ArrayList<TodoItem>(count);
+		for (int i = 0; i < count; ++i) {
+			items.add(new TodoItem(i, i, "Todo title " + i, "Some body text for item " + i,
+					random.nextBoolean(), random.nextBoolean()));
+		}
+		return items;
+	}
+}
@@ -0,0 +1,87 @@
+package com.todolist;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+/*
+ * Tests for TodoListExportFormats.
+ */
+public class TodoListExportFormatsTest extends AndroidTestCase {
+	// Items with the text that each of the formats has to escape: quotes
+	// and a comma, CR and LF line breaks, a backslash, a tab, control
+	// characters, and the Unicode line and paragraph separators.
+	private static final List<TodoItem> ITEMS = Arrays.asList(
+			new TodoItem(0, 1000L, "Say \"hi\", then go", "Line one\r\nLine two\nback\\slash", true, false),
+			new TodoItem(7, 2000L, "Tab\there", "ctl\u0001\u001f \u2028 \u2029 end", false, true),
+			new TodoItem(12, 0L, "Two\r\nlines", "", false, false));
+
+	/*
+	 * Plain text writes the titles and bodies as they are.
+	 */
+	public void testPlainText() {
+		assertEquals("==== Todo List ====\n\n" +
+				"[X] Say \"hi\", then go\n    Line one\r\nLine two\nback\\slash\n" +
+				"\n[ ] Tab\there (archived)\n    ctl\u0001\u001f \u2028 \u2029 end\n" +
+				"\n[ ] Two\r\nlines\n    \n" +
+				"===================\n",
+				export(TodoListExportFormats.PLAIN_TEXT, ITEMS));
+		assertEquals("==== Todo List ====\n\n===================\n",
+				export(TodoListExportFormats.PLAIN_TEXT, Collections.<TodoItem>emptyList()));
+	}
+
+	/*
+	 * Line breaks in titles become spaces, and those in bodies are indented
+	 * to keep the body under its item.
+	 */
+	public void testMarkdown() {
+		assertEquals("# Todo List\n\n" +
+				"- [x] Say \"hi\", then go\n  Line one\n  Line two\n  back\\slash\n" +
+				"- [ ] Tab\there *(archived)*\n  ctl\u0001\u001f \u2028 \u2029 end\n" +
+				"- [ ] Two lines\n",
+				export(TodoListExportFormats.MARKDOWN, ITEMS));
+		assertEquals("# Todo List\n\n",
+				export(TodoListExportFormats.MARKDOWN, Collections.<TodoItem>emptyList()));
+	}
+
+	/*
+	 * Fields with quotes, commas or line breaks are quoted, with the quotes
+	 * in them doubled, and the line breaks kept as they are.
+	 */
+	public void testCsv() {
+		assertEquals("id,title,body,done,archived,created\r\n" +
+				"0,\"Say \"\"hi\"\", then go\",\"Line one\r\nLine two\nback\\slash\",true,false,1000\r\n" +
+				"7,Tab\there,ctl\u0001\u001f \u2028 \u2029 end,false,true,2000\r\n" +
+				"12,\"Two\r\nlines\",,false,false,0\r\n",
+				export(TodoListExportFormats.CSV, ITEMS));
+		assertEquals("id,title,body,done,archived,created\r\n",
+				export(TodoListExportFormats.CSV, Collections.<TodoItem>emptyList()));
+	}
+
+	/*
+	 * Quotes, backslashes and control characters are escaped, and so are
+	 * the line and paragraph separators, which JavaScript doesn't allow in
+	 * strings.
+	 */
+	public void testJson() {
+		assertEquals("[" +
+				"\n  {\"id\": 0, \"title\": \"Say \\\"hi\\\", then go\", " +
+				"\"body\": \"Line one\\r\\nLine two\\nback\\\\slash\", " +
+				"\"done\": true, \"archived\": false, \"created\": 1000}" +
+				",\n  {\"id\": 7, \"title\": \"Tab\\there\", " +
+				"\"body\": \"ctl\\u0001\\u001f \\u2028 \\u2029 end\", " +
+				"\"done\": false, \"archived\": true, \"created\": 2000}" +
+				",\n  {\"id\": 12, \"title\": \"Two\\r\\nlines\", \"body\": \"\", " +
+				"\"done\": false, \"archived\": false, \"created\": 0}" +
+				"\n]\n",
+				export(TodoListExportFormats.JSON, ITEMS));
+		assertEquals("[]\n",
+				export(TodoListExportFormats.JSON, Collections.<TodoItem>emptyList()));
+	}
+
+	private static String export(TodoListExportFormat format, List<TodoItem> items) {
+		return new TodoListEmailBuilder().setSource(items).setFormat(format).buildEmailBody();
+	}
+}